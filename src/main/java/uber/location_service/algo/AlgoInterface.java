@@ -1,34 +1,146 @@
 package uber.location_service.algo;
 
 import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.NearestSupplyInstance;
+import uber.location_service.structures.SupplyFilter;
 import uber.location_service.structures.SupplyInstance;
+import uber.location_service.structures.SupplyQuery;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class AlgoInterface {
-   private final static double earthRadius = 6371.01; //km
-   private final static double maxSearchDistance = 30000; // km
-   private final static double minSearchDistance = 10; // km
+   public final static double earthRadius = 6371.01; //km
 
-   public List<SupplyInstance> getClosestSupply(
-         ConcurrentHashMap<String, SupplyInstance> lhm, GeoPoint location) {
-      return GeoAlgorithms.getClosest(
-            lhm.entrySet().iterator(), earthRadius, location);
+   private final double minSearchDistance; // km
+   private final double maxSearchDistance; // km
+   private final int minRadiusCandidates;
+   private final SearchObserver observer;
+   private final ParallelScan parallel;
+
+   public AlgoInterface() {
+      this(10, 30000, 1);
+   }
+
+   /**
+    * @param minSearchDistance the distance the radius search starts from, in km.
+    * @param maxSearchDistance the distance the radius search stops at, in km.
+    * @param minRadiusCandidates the radius search stops once that many instances are found.
+    */
+   public AlgoInterface(double minSearchDistance, double maxSearchDistance, int minRadiusCandidates) {
+      this(minSearchDistance, maxSearchDistance, minRadiusCandidates, SearchObserver.NONE);
+   }
+
+   /**
+    * @param observer receives the work done by every search.
+    */
+   public AlgoInterface(double minSearchDistance, double maxSearchDistance, int minRadiusCandidates,
+                        SearchObserver observer) {
+      this(minSearchDistance, maxSearchDistance, minRadiusCandidates, observer, ParallelScan.SEQUENTIAL);
+   }
+
+   /**
+    * @param parallel splits the large scans of the single searches between threads.
+    */
+   public AlgoInterface(double minSearchDistance, double maxSearchDistance, int minRadiusCandidates,
+                        SearchObserver observer, ParallelScan parallel) {
+      if (minSearchDistance <= 0d || maxSearchDistance < minSearchDistance || minRadiusCandidates < 1)
+         throw new IllegalArgumentException("Invalid radius search rule");
+
+      this.minSearchDistance = minSearchDistance;
+      this.maxSearchDistance = maxSearchDistance;
+      this.minRadiusCandidates = minRadiusCandidates;
+      this.observer = observer;
+      this.parallel = parallel;
+   }
+
+   public List<NearestSupplyInstance> getClosestSupply(
+         SupplyIndex index, GeoPoint location, int k) {
+      return getClosestSupply(index, location, k, Math.PI * earthRadius, SupplyFilter.ANY);
+   }
+
+   /**
+    * @param maxDistance in km.
+    */
+   public List<NearestSupplyInstance> getClosestSupply(
+         SupplyIndex index, GeoPoint location, int k, double maxDistance) {
+      return getClosestSupply(index, location, k, maxDistance, SupplyFilter.ANY);
+   }
+
+   /**
+    * @param filter the instances considered, checked within the index scans.
+    */
+   public List<NearestSupplyInstance> getClosestSupply(
+         SupplyIndex index, GeoPoint location, int k, double maxDistance, SupplyFilter filter) {
+      return GeoAlgorithms.getClosest(index, earthRadius, location, k, maxDistance, filter, observer, parallel);
+   }
+
+   /**
+    * @param distance in km.
+    */
+   public List<SupplyInstance> getSupplyWithin(
+         SupplyIndex index, GeoPoint location, double distance) {
+      return getSupplyWithin(index, location, distance, SupplyFilter.ANY);
+   }
+
+   public List<SupplyInstance> getSupplyWithin(
+         SupplyIndex index, GeoPoint location, double distance, SupplyFilter filter) {
+      return GeoAlgorithms.findPlacesWithinDistance(index, earthRadius, location, distance, filter, observer, parallel);
+   }
+
+   public double getMinSearchDistance() {
+      return minSearchDistance;
+   }
+
+   public double getMaxSearchDistance() {
+      return maxSearchDistance;
+   }
+
+   public int getMinRadiusCandidates() {
+      return minRadiusCandidates;
+   }
+
+   public ParallelScan getParallelScan() {
+      return parallel;
    }
 
    public List<SupplyInstance> getRadiusSupply(
-         ConcurrentHashMap<String, SupplyInstance> lhm, GeoPoint location) {
-      List<SupplyInstance> radiusSupplySet = new ArrayList<>();
-      double curDistance = minSearchDistance;
-
-      while (curDistance <= maxSearchDistance && radiusSupplySet.isEmpty()) {
-         radiusSupplySet = GeoAlgorithms.findPlacesWithinDistance(
-               lhm.entrySet().iterator(), earthRadius, location, curDistance);
-         curDistance *= 2;
-      }
+         SupplyIndex index, GeoPoint location) {
+      return getRadiusSupply(index, location, SupplyFilter.ANY);
+   }
 
-      return radiusSupplySet;
+   /**
+    * @param filter the instances considered, only the matching ones count as candidates.
+    */
+   public List<SupplyInstance> getRadiusSupply(
+         SupplyIndex index, GeoPoint location, SupplyFilter filter) {
+      return GeoAlgorithms.findPlacesWithinExpandingDistance(index, earthRadius, location,
+            minSearchDistance, maxSearchDistance, minRadiusCandidates, filter, observer, parallel);
+   }
+
+   /**
+    * Answers the queries together, the ones close to each other share the index traversal.
+    * @return the results of every query, in the order of the queries.
+    */
+   public List<List<? extends SupplyInstance>> getBatchSupply(
+         SupplyIndex index, List<SupplyQuery> queries) {
+      List<GeoAlgorithms.OutwardSearch> searches = new ArrayList<>(queries.size());
+      for (SupplyQuery q : queries) {
+         switch (q.getMode()) {
+            case CLOSEST:
+               searches.add(GeoAlgorithms.nearestSearch(
+                     index, earthRadius, q.getLocation(), 1, Math.PI * earthRadius, q.getFilter()));
+               break;
+            case K_NEAREST:
+               searches.add(GeoAlgorithms.nearestSearch(
+                     index, earthRadius, q.getLocation(), q.getK(), Math.PI * earthRadius, q.getFilter()));
+               break;
+            case RADIUS:
+               searches.add(GeoAlgorithms.expandingRadiusSearch(earthRadius, q.getLocation(),
+                     minSearchDistance, maxSearchDistance, minRadiusCandidates, q.getFilter()));
+               break;
+         }
+      }
+      return GeoAlgorithms.searchBatch(index, earthRadius, searches, observer, parallel);
    }
 }
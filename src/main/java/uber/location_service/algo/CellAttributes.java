@@ -0,0 +1,48 @@
+package uber.location_service.algo;
+
+import uber.location_service.structures.SupplyFilter;
+
+/**
+ * Counts the instances of a cell per presence bit (see {@link SupplyFilter#presenceOf}),
+ * so the presence of the cell stays exact while instances come and go. Writers of a cell
+ * must be serialized, the presence can be read at any time.
+ */
+public final class CellAttributes {
+   private final int[] counts = new int[SupplyFilter.PRESENCE_BITS];
+   private volatile long presence;
+
+   public void add(int attributes) {
+      presence = add(presence, attributes);
+   }
+
+   public void remove(int attributes) {
+      presence = remove(presence, attributes);
+   }
+
+   /**
+    * Publishes the presence once, so readers never see the bits common to both missing.
+    */
+   public void replace(int prev, int next) {
+      if (prev != next) presence = add(remove(presence, prev), next);
+   }
+
+   private long add(long res, int attributes) {
+      for (long bits = SupplyFilter.presenceOf(attributes); bits != 0; bits &= bits - 1) {
+         int bit = Long.numberOfTrailingZeros(bits);
+         if (counts[bit]++ == 0) res |= 1L << bit;
+      }
+      return res;
+   }
+
+   private long remove(long res, int attributes) {
+      for (long bits = SupplyFilter.presenceOf(attributes); bits != 0; bits &= bits - 1) {
+         int bit = Long.numberOfTrailingZeros(bits);
+         if (--counts[bit] == 0) res &= ~(1L << bit);
+      }
+      return res;
+   }
+
+   public boolean mayMatch(SupplyFilter filter) {
+      return filter.isAny() || filter.mayMatch(presence);
+   }
+}
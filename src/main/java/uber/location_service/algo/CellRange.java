@@ -0,0 +1,56 @@
+package uber.location_service.algo;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Rectangular range of {@link GeoGrid} cells, possibly wrapping over the 180 meridian.
+ */
+public class CellRange {
+   private final GeoGrid grid;
+   private final int rowLo, rowHi, colLo, colHi;
+   private final boolean wraps;
+
+   CellRange(GeoGrid grid, int rowLo, int rowHi, int colLo, int colHi, boolean wraps) {
+      if (wraps && colLo <= colHi) {
+         // both halves meet within a single column - the whole row is covered
+         wraps = false;
+         colLo = 0;
+         colHi = grid.getCols() - 1;
+      }
+
+      this.grid = grid;
+      this.rowLo = rowLo;
+      this.rowHi = rowHi;
+      this.colLo = colLo;
+      this.colHi = colHi;
+      this.wraps = wraps;
+   }
+
+   public long count() {
+      long colCount = wraps ? (grid.getCols() - colLo) + (colHi + 1) : (colHi - colLo + 1);
+      return (rowHi - rowLo + 1) * colCount;
+   }
+
+   public boolean contains(int cellId) {
+      int row = grid.rowOfCell(cellId), col = grid.colOfCell(cellId);
+      if (row < rowLo || row > rowHi) return false;
+      return wraps ? (col >= colLo || col <= colHi) : (col >= colLo && col <= colHi);
+   }
+
+   public void forEach(IntConsumer action) {
+      for (int row = rowLo; row <= rowHi; ++row) {
+         if (wraps) {
+            forEachInRow(row, colLo, grid.getCols() - 1, action);
+            forEachInRow(row, 0, colHi, action);
+         } else {
+            forEachInRow(row, colLo, colHi, action);
+         }
+      }
+   }
+
+   private void forEachInRow(int row, int colLo, int colHi, IntConsumer action) {
+      for (int col = colLo; col <= colHi; ++col) {
+         action.accept(grid.cellId(row, col));
+      }
+   }
+}
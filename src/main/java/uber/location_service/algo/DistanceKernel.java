@@ -0,0 +1,46 @@
+package uber.location_service.algo;
+
+import uber.location_service.structures.GeoPoint;
+
+/**
+ * Distance kernel bound to a single query location. Candidates are compared by the
+ * squared chord length between unit vectors, which is monotonic in the great circle
+ * distance and costs a few multiplications. Distance thresholds are converted to chords
+ * once per query, and the great circle distance is computed only for returned results.
+ */
+public class DistanceKernel {
+   private final double x, y, z;
+   private final double radius;
+
+   public DistanceKernel(GeoPoint location, double radius) {
+      double cosLat = Math.cos(location.getLatitude());
+      this.x = cosLat * Math.cos(location.getLongitude());
+      this.y = cosLat * Math.sin(location.getLongitude());
+      this.z = Math.sin(location.getLatitude());
+      this.radius = radius;
+   }
+
+   /**
+    * @return the squared chord length between the query and the unit vector (px, py, pz).
+    */
+   public double chord2(double px, double py, double pz) {
+      double dx = x - px, dy = y - py, dz = z - pz;
+      return dx * dx + dy * dy + dz * dz;
+   }
+
+   /**
+    * @return the squared chord length matching the great circle distance.
+    */
+   public double chord2For(double distance) {
+      double angle = Math.min(distance / radius, Math.PI);
+      double chord = 2d * Math.sin(angle / 2d);
+      return chord * chord;
+   }
+
+   /**
+    * @return the great circle distance matching the squared chord length.
+    */
+   public double distanceOf(double chord2) {
+      return 2d * Math.asin(Math.min(1d, Math.sqrt(chord2) / 2d)) * radius;
+   }
+}
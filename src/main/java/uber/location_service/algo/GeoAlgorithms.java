@@ -1,16 +1,22 @@
 package uber.location_service.algo;
 
 import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.NearestSupplyInstance;
+import uber.location_service.structures.SupplyFilter;
 import uber.location_service.structures.SupplyInstance;
+import uber.location_service.structures.SupplyPositions;
 
 import java.util.*;
-import java.util.function.Predicate;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class GeoAlgorithms {
-   private static final double MIN_LAT = Math.toRadians(-90d);  // -PI/2
-   private static final double MAX_LAT = Math.toRadians(90d);   //  PI/2
-   private static final double MIN_LON = Math.toRadians(-180d); // -PI
-   private static final double MAX_LON = Math.toRadians(180d);  //  PI
+   static final double MIN_LAT = Math.toRadians(-90d);  // -PI/2
+   static final double MAX_LAT = Math.toRadians(90d);   //  PI/2
+   static final double MIN_LON = Math.toRadians(-180d); // -PI
+   static final double MAX_LON = Math.toRadians(180d);  //  PI
+
+   // side of the square grid region whose searches share a traversal in searchBatch
+   private static final int BATCH_REGION_CELLS = 4;
 
    private static boolean validBounds(GeoPoint p) {
       if (p.getLatitude() < MIN_LAT || p.getLatitude() > MAX_LAT ||
@@ -19,7 +25,11 @@ public class GeoAlgorithms {
       return true;
    }
 
-   private static GeoPoint[] boundingCoordinates(
+   /**
+    * @return the [min, max] bounding box of the points within the distance, which crosses
+    * the 180 meridian when min longitude is greater than max longitude.
+    */
+   public static GeoPoint[] boundingCoordinates(
          GeoPoint location, double distance, double radius) {
 
       if (radius < 0d || distance < 0d)
@@ -52,77 +62,523 @@ public class GeoAlgorithms {
       };
    }
 
+   /**
+    * Growable parallel arrays of the visited entries with their squared chord distances to
+    * the searched location. The arrays are handed over to the result as they are, so the
+    * searches allocate nothing per visited entry.
+    */
+   private static final class Visited {
+      String[] ids;
+      double[] latitudes, longitudes, chord2s;
+      int size;
+
+      Visited(int capacity) {
+         ids = new String[capacity];
+         latitudes = new double[capacity];
+         longitudes = new double[capacity];
+         chord2s = new double[capacity];
+      }
 
-   public static List<SupplyInstance> getClosest(
-         final Iterator<Map.Entry<String, SupplyInstance>> iterator, final double radius,
-         final GeoPoint location) {
-      double resDistance = Double.MAX_VALUE;
-      SupplyInstance resInstance = null;
+      void add(String id, double latitude, double longitude, double chord2) {
+         if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            chord2s = Arrays.copyOf(chord2s, capacity);
+         }
+         set(size++, id, latitude, longitude, chord2);
+      }
 
-      while (iterator.hasNext()) {
-         SupplyInstance ins = iterator.next().getValue();
-         double dist = ins.getLocation().distanceTo(location, radius);
-         if (dist < resDistance) {
-            resInstance = ins;
-            resDistance = dist;
+      void addAll(Visited other) {
+         for (int i = 0; i < other.size; ++i) {
+            add(other.ids[i], other.latitudes[i], other.longitudes[i], other.chord2s[i]);
          }
       }
 
-      if (resInstance != null) return List.of(new SupplyInstance(resInstance));
-      return new ArrayList<>();
+      void set(int i, String id, double latitude, double longitude, double chord2) {
+         ids[i] = id;
+         latitudes[i] = latitude;
+         longitudes[i] = longitude;
+         chord2s[i] = chord2;
+      }
+
+      void swap(int i, int j) {
+         String id = ids[i];
+         double latitude = latitudes[i], longitude = longitudes[i], chord2 = chord2s[i];
+         set(i, ids[j], latitudes[j], longitudes[j], chord2s[j]);
+         set(j, id, latitude, longitude, chord2);
+      }
    }
 
-   public static List<SupplyInstance> findPlacesWithinDistance(
-         final Iterator<Map.Entry<String, SupplyInstance>> iterator, final double radius,
-         final GeoPoint location, final double distance) {
+   /**
+    * State of a single outward search. The search starts from startDistance and doubles
+    * the searched distance every step up to maxDistance, while the visited entries are
+    * passed to it as an {@link SupplyIndex.EntryVisitor}. Only the entries matching the
+    * filter are visited. The forks of a parallel step only collect the entries of their chunk.
+    */
+   abstract static class OutwardSearch implements ParallelScan.Forkable<OutwardSearch> {
+      final GeoPoint location;
+      final DistanceKernel kernel;
+      final double maxDistance;
+      final SupplyFilter filter;
+      final Set<Integer> visitedCells;
+      double curDistance;
+      int examined, doublings;
 
-      final GeoPoint[] boundCoords = boundingCoordinates(location, distance, radius);
-      final boolean meridian180WithinDistance =
-            boundCoords[0].getLongitude() > boundCoords[1].getLongitude();
+      OutwardSearch(GeoPoint location, double radius, double startDistance, double maxDistance,
+                    SupplyFilter filter) {
+         this.location = location;
+         this.kernel = new DistanceKernel(location, radius);
+         this.maxDistance = maxDistance;
+         this.filter = filter;
+         this.curDistance = Math.min(startDistance, maxDistance);
+         this.visitedCells = new HashSet<>();
+      }
+
+      OutwardSearch(OutwardSearch parent) {
+         this.location = parent.location;
+         this.kernel = parent.kernel;
+         this.maxDistance = parent.maxDistance;
+         this.filter = parent.filter;
+         this.curDistance = parent.curDistance;
+         this.visitedCells = null;
+      }
+
+      /**
+       * Called after every step - all instances within curDistance have been visited by then.
+       */
+      abstract boolean isDone();
+
+      abstract List<? extends SupplyInstance> results();
 
-      final double[] pDistance = new double[1];
-      Predicate isInsidePred = new Predicate<SupplyInstance>() {
-         double b1 = boundCoords[0].getLatitude(), b2 = boundCoords[1].getLatitude();
-         double b3 = boundCoords[0].getLongitude(), b4 = boundCoords[1].getLongitude();
+      abstract String kind();
+   }
 
-         @Override
-         public boolean test(SupplyInstance obj) {
-            GeoPoint p = obj.getLocation();
-            double Lat = p.getLatitude(), Lon = p.getLongitude();
+   /**
+    * Finds the k closest supply instances within maxDistance. The search stops once the k-th
+    * best distance is within the searched distance, since every unvisited cell lies outside
+    * of its bounding box.
+    */
+   private static class NearestSearch extends OutwardSearch {
+      final int k;
+      final double maxChord2;
+      // max-heap on distance, so the worst of the k best is at the root
+      final Visited best;
+      // the best k-th squared chord of all forks, as the bits of the non-negative double
+      // (ordered like the doubles), so the forks prune by each other's progress
+      AtomicLong sharedBound;
 
-            if (!(Lat >= b1 && Lat <= b2)) return false;
+      NearestSearch(GeoPoint location, double radius, double startDistance, double maxDistance, int k,
+                    SupplyFilter filter) {
+         super(location, radius, startDistance, maxDistance, filter);
+         this.k = k;
+         this.maxChord2 = kernel.chord2For(maxDistance);
+         this.best = new Visited(Math.min(k, 16));
+      }
 
-            boolean c1 = Lon >= b3, c2 = Lon <= b4;
-            c1 = meridian180WithinDistance ? (c1 | c2) : (c1 & c2);
-            if (!c1) return false;
+      NearestSearch(NearestSearch parent) {
+         super(parent);
+         this.k = parent.k;
+         this.maxChord2 = parent.maxChord2;
+         this.best = new Visited(Math.min(k, 16));
+         this.sharedBound = parent.sharedBound;
+      }
 
-            pDistance[0] = location.distanceTo(p, radius);
-            return pDistance[0] <= distance;
+      @Override
+      public void visit(String id, double latitude, double longitude, double x, double y, double z, int attributes) {
+         ++examined;
+         double chord2 = kernel.chord2(x, y, z);
+         if (chord2 > maxChord2) return;
+         if (sharedBound != null && chord2 > Double.longBitsToDouble(sharedBound.get())) return;
+         if (offer(id, latitude, longitude, chord2) && sharedBound != null && best.size == k) {
+            sharedBound.accumulateAndGet(Double.doubleToRawLongBits(best.chord2s[0]), Math::min);
          }
-      };
+      }
+
+      /**
+       * @return true if the entry is among the k best so far.
+       */
+      private boolean offer(String id, double latitude, double longitude, double chord2) {
+         if (best.size < k) {
+            best.add(id, latitude, longitude, chord2);
+            siftUp(best.size - 1);
+            return true;
+         }
+         if (chord2 < best.chord2s[0]) {
+            best.set(0, id, latitude, longitude, chord2);
+            siftDown(0);
+            return true;
+         }
+         return false;
+      }
+
+      @Override
+      public OutwardSearch fork() {
+         final long bound = Double.doubleToRawLongBits(best.size == k ? best.chord2s[0] : maxChord2);
+         if (sharedBound == null) sharedBound = new AtomicLong(bound);
+         else sharedBound.accumulateAndGet(bound, Math::min);
+         return new NearestSearch(this);
+      }
 
-      List<SupplyInstance> res = new ArrayList<>();
-      while (iterator.hasNext()) {
-         SupplyInstance entry = iterator.next().getValue();
-         if (isInsidePred.test(entry)) {
-            res.add(new SupplyInstance(entry));
-         }
-      }
-
-      /*PreparedStatement statement = connection.prepareStatement(
-            "SELECT * FROM Places WHERE (Lat >= ? AND Lat <= ?) AND (Lon >= ? " +
-                  (meridian180WithinDistance ? "OR" : "AND") + " Lon <= ?) AND " +
-                  "acos(sin(?) * sin(Lat) + cos(?) * cos(Lat) * cos(Lon - ?)) <= ?");
-		statement.setDouble(1, boundingCoordinates[0].getLatitudeInRadians());
-		statement.setDouble(2, boundingCoordinates[1].getLatitudeInRadians());
-		statement.setDouble(3, boundingCoordinates[0].getLongitudeInRadians());
-		statement.setDouble(4, boundingCoordinates[1].getLongitudeInRadians());
-		statement.setDouble(5, location.getLatitudeInRadians());
-		statement.setDouble(6, location.getLatitudeInRadians());
-		statement.setDouble(7, location.getLongitudeInRadians());
-		statement.setDouble(8, distance / radius);
-		return statement.executeQuery();*/
+      @Override
+      public void merge(OutwardSearch part) {
+         NearestSearch other = (NearestSearch) part;
+         examined += other.examined;
+         for (int i = 0; i < other.best.size; ++i) {
+            offer(other.best.ids[i], other.best.latitudes[i], other.best.longitudes[i], other.best.chord2s[i]);
+         }
+      }
+
+      private void siftUp(int i) {
+         while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (best.chord2s[parent] >= best.chord2s[i]) return;
+            best.swap(i, parent);
+            i = parent;
+         }
+      }
+
+      private void siftDown(int i) {
+         while (true) {
+            int child = 2 * i + 1;
+            if (child >= best.size) return;
+            if (child + 1 < best.size && best.chord2s[child + 1] > best.chord2s[child]) ++child;
+            if (best.chord2s[child] <= best.chord2s[i]) return;
+            best.swap(i, child);
+            i = child;
+         }
+      }
+
+      @Override
+      boolean isDone() {
+         return best.size == k && best.chord2s[0] <= kernel.chord2For(curDistance);
+      }
+
+      /**
+       * Empties the heap into the result, nearest first.
+       */
+      @Override
+      List<NearestSupplyInstance> results() {
+         final int n = best.size;
+         String[] ids = new String[n];
+         double[] latitudes = new double[n], longitudes = new double[n], distances = new double[n];
+         for (int i = n - 1; i >= 0; --i) {
+            ids[i] = best.ids[0];
+            latitudes[i] = best.latitudes[0];
+            longitudes[i] = best.longitudes[0];
+            distances[i] = kernel.distanceOf(best.chord2s[0]);
+            best.swap(0, --best.size);
+            siftDown(0);
+         }
+         return SupplyPositions.nearest(ids, latitudes, longitudes, distances, n);
+      }
+
+      @Override
+      String kind() {
+         return "closest";
+      }
+   }
+
+   /**
+    * Finds all instances within the smallest searched distance that holds at least
+    * minCandidates of them. The distance to every instance is computed once, the ones
+    * beyond the current distance are kept until the search grows to them. The result
+    * lists the instances found within the shorter distances first.
+    */
+   private static class ExpandingRadiusSearch extends OutwardSearch {
+      final int minCandidates;
+      final Visited visited = new Visited(16);
+      int found; // the visited entries [0, found) are within the current distance
+
+      ExpandingRadiusSearch(GeoPoint location, double radius,
+                            double startDistance, double maxDistance, int minCandidates, SupplyFilter filter) {
+         super(location, radius, startDistance, maxDistance, filter);
+         this.minCandidates = minCandidates;
+      }
+
+      ExpandingRadiusSearch(ExpandingRadiusSearch parent) {
+         super(parent);
+         this.minCandidates = parent.minCandidates;
+      }
+
+      @Override
+      public OutwardSearch fork() {
+         return new ExpandingRadiusSearch(this);
+      }
+
+      @Override
+      public void merge(OutwardSearch part) {
+         ExpandingRadiusSearch other = (ExpandingRadiusSearch) part;
+         examined += other.examined;
+         visited.addAll(other.visited);
+      }
+
+      @Override
+      public void visit(String id, double latitude, double longitude, double x, double y, double z, int attributes) {
+         ++examined;
+         visited.add(id, latitude, longitude, kernel.chord2(x, y, z));
+      }
+
+      @Override
+      boolean isDone() {
+         final double maxChord2 = kernel.chord2For(curDistance);
+         for (int i = found; i < visited.size; ++i) {
+            if (visited.chord2s[i] <= maxChord2) visited.swap(i, found++);
+         }
+         return found >= minCandidates;
+      }
+
+      @Override
+      List<SupplyInstance> results() {
+         return SupplyPositions.of(visited.ids, visited.latitudes, visited.longitudes, found);
+      }
+
+      @Override
+      String kind() {
+         return "radius";
+      }
+   }
+
+   /**
+    * Searches of the same filter that share the traversal. Every accepted cell is routed to
+    * the searches whose current box covers it and that haven't seen it yet, so each search
+    * examines the same instances it would examine alone while the common cells are traversed once.
+    */
+   private static class SearchGroup implements SupplyIndex.EntryVisitor {
+      final OutwardSearch[] active, recipients;
+      final CellRange[] ranges; // the current box of every active search
+      int activeCount, recipientCount;
+
+      SearchGroup(OutwardSearch[] searches) {
+         this.active = searches.clone();
+         this.recipients = new OutwardSearch[active.length];
+         this.ranges = new CellRange[active.length];
+         this.activeCount = active.length;
+      }
+
+      boolean acceptCell(int cellId) {
+         recipientCount = 0;
+         for (int i = 0; i < activeCount; ++i) {
+            if (ranges[i].contains(cellId) && active[i].visitedCells.add(cellId)) {
+               recipients[recipientCount++] = active[i];
+            }
+         }
+         return recipientCount > 0;
+      }
+
+      @Override
+      public void visit(String id, double latitude, double longitude, double x, double y, double z, int attributes) {
+         for (int i = 0; i < recipientCount; ++i) recipients[i].visit(id, latitude, longitude, x, y, z, attributes);
+      }
+
+      /**
+       * Drops the finished searches and doubles the distance of the others.
+       */
+      void advance() {
+         int kept = 0;
+         for (int i = 0; i < activeCount; ++i) {
+            OutwardSearch s = active[i];
+            if (s.isDone() || s.curDistance >= s.maxDistance) continue;
+
+            s.curDistance = Math.min(s.curDistance * 2, s.maxDistance);
+            ++s.doublings;
+            active[kept++] = s;
+         }
+         activeCount = kept;
+      }
+   }
+
+   /**
+    * Runs the searches outward step by step, every step visits the bounding boxes of the
+    * still active searches. Each instance is passed to a search exactly once over the
+    * whole search, and the cells shared by nearby searches are traversed together.
+    * The steps of a lone search may be split between the threads of the parallel scan.
+    * The searches must share the filter, which the index checks for them.
+    */
+   private static void expandOutward(
+         final SupplyIndex index, final double radius, final SearchObserver observer,
+         final ParallelScan parallel, final OutwardSearch... searches) {
+      final GeoGrid grid = index.getGrid();
+      final SearchGroup group = new SearchGroup(searches);
+      final SupplyFilter filter = searches[0].filter;
+      final GeoPoint[][] boxes = new GeoPoint[searches.length][];
+
+      while (group.activeCount > 0) {
+         for (int i = 0; i < group.activeCount; ++i) {
+            OutwardSearch s = group.active[i];
+            boxes[i] = boundingCoordinates(s.location, s.curDistance, radius);
+            group.ranges[i] = grid.coveringRange(boxes[i][0], boxes[i][1]);
+         }
+         if (group.activeCount == 1) {
+            parallel.forEachInBox(index, boxes[0][0], boxes[0][1], group::acceptCell, filter, group.active[0]);
+         } else {
+            for (int i = 0; i < group.activeCount; ++i) {
+               index.forEachInBox(boxes[i][0], boxes[i][1], group::acceptCell, filter, group);
+            }
+         }
+         group.advance();
+      }
+      for (OutwardSearch s : searches) observer.searched(s.kind(), s.examined, s.doublings);
+   }
+
+   static OutwardSearch nearestSearch(
+         final SupplyIndex index, final double radius, final GeoPoint location,
+         final int k, final double maxDistance, final SupplyFilter filter) {
+      if (k < 1) throw new IllegalArgumentException("k must be positive");
+      if (!(maxDistance > 0d)) throw new IllegalArgumentException("Max distance must be positive");
+      return new NearestSearch(location, radius, index.getGrid().getCellSize() * radius, maxDistance, k, filter);
+   }
+
+   static OutwardSearch expandingRadiusSearch(
+         final double radius, final GeoPoint location,
+         final double startDistance, final double maxDistance, final int minCandidates,
+         final SupplyFilter filter) {
+      if (startDistance <= 0d || maxDistance < startDistance)
+         throw new IllegalArgumentException();
+      return new ExpandingRadiusSearch(location, radius, startDistance, maxDistance, minCandidates, filter);
+   }
+
+   /**
+    * Finds the k closest supply instances, searching outward from the location.
+    * @return at most k instances ordered by the distance to the location.
+    */
+   public static List<NearestSupplyInstance> getClosest(
+         final SupplyIndex index, final double radius,
+         final GeoPoint location, final int k) {
+      return getClosest(index, radius, location, k, Math.PI * radius, SupplyFilter.ANY,
+            SearchObserver.NONE, ParallelScan.SEQUENTIAL);
+   }
+
+   /**
+    * The k closest supply instances matching the filter no further than maxDistance from the location.
+    */
+   public static List<NearestSupplyInstance> getClosest(
+         final SupplyIndex index, final double radius,
+         final GeoPoint location, final int k, final double maxDistance, final SupplyFilter filter,
+         final SearchObserver observer, final ParallelScan parallel) {
+      NearestSearch search = (NearestSearch) nearestSearch(index, radius, location, k, maxDistance, filter);
+      expandOutward(index, radius, observer, parallel, search);
+      return search.results();
+   }
+
+   /**
+    * Incremental version of the expanding radius search - finds all instances within
+    * the smallest doubled distance (from startDistance up to maxDistance) that holds
+    * at least minCandidates of them.
+    */
+   public static List<SupplyInstance> findPlacesWithinExpandingDistance(
+         final SupplyIndex index, final double radius, final GeoPoint location,
+         final double startDistance, final double maxDistance, final int minCandidates) {
+      return findPlacesWithinExpandingDistance(index, radius, location, startDistance, maxDistance, minCandidates,
+            SupplyFilter.ANY, SearchObserver.NONE, ParallelScan.SEQUENTIAL);
+   }
+
+   /**
+    * Counts only the instances matching the filter.
+    */
+   public static List<SupplyInstance> findPlacesWithinExpandingDistance(
+         final SupplyIndex index, final double radius, final GeoPoint location,
+         final double startDistance, final double maxDistance, final int minCandidates,
+         final SupplyFilter filter, final SearchObserver observer, final ParallelScan parallel) {
+      ExpandingRadiusSearch search = (ExpandingRadiusSearch) expandingRadiusSearch(
+            radius, location, startDistance, maxDistance, minCandidates, filter);
+      expandOutward(index, radius, observer, parallel, search);
+      return search.results();
+   }
+
+   /**
+    * Answers many searches together - the searches of the same filter starting in the same
+    * region of BATCH_REGION_CELLS x BATCH_REGION_CELLS grid cells share one traversal of the index.
+    * @return the results of every search, in the order of the searches.
+    */
+   static List<List<? extends SupplyInstance>> searchBatch(
+         final SupplyIndex index, final double radius, final List<OutwardSearch> searches,
+         final SearchObserver observer, final ParallelScan parallel) {
+      final GeoGrid grid = index.getGrid();
+      final Map<SupplyFilter, Map<Long, List<OutwardSearch>>> regions = new HashMap<>();
+      for (OutwardSearch s : searches) {
+         long row = grid.rowOf(s.location.getLatitude()) / BATCH_REGION_CELLS;
+         long col = grid.colOf(s.location.getLongitude()) / BATCH_REGION_CELLS;
+         regions.computeIfAbsent(s.filter, f -> new HashMap<>())
+               .computeIfAbsent(row * grid.getCols() + col, key -> new ArrayList<>()).add(s);
+      }
+
+      for (Map<Long, List<OutwardSearch>> filtered : regions.values()) {
+         for (List<OutwardSearch> region : filtered.values()) {
+            expandOutward(index, radius, observer, parallel, region.toArray(new OutwardSearch[0]));
+         }
+      }
+
+      List<List<? extends SupplyInstance>> res = new ArrayList<>(searches.size());
+      for (OutwardSearch s : searches) res.add(s.results());
       return res;
    }
 
+   private static boolean insideBox(double lat, double lon, GeoPoint[] boundCoords) {
+      if (!(lat >= boundCoords[0].getLatitude() && lat <= boundCoords[1].getLatitude())) return false;
+
+      boolean c1 = lon >= boundCoords[0].getLongitude(), c2 = lon <= boundCoords[1].getLongitude();
+      // the box crosses the 180 meridian
+      if (boundCoords[0].getLongitude() > boundCoords[1].getLongitude()) return c1 | c2;
+      return c1 & c2;
+   }
+
+   /**
+    * Collects the instances within the distance, the forks collect a chunk each.
+    */
+   private static class WithinScan implements ParallelScan.Forkable<WithinScan> {
+      final GeoPoint[] boundCoords;
+      final DistanceKernel kernel;
+      final double maxChord2;
+      final Visited res = new Visited(16);
+      int examined;
+
+      WithinScan(GeoPoint[] boundCoords, DistanceKernel kernel, double maxChord2) {
+         this.boundCoords = boundCoords;
+         this.kernel = kernel;
+         this.maxChord2 = maxChord2;
+      }
+
+      @Override
+      public void visit(String id, double latitude, double longitude, double x, double y, double z, int attributes) {
+         ++examined;
+         final double chord2 = kernel.chord2(x, y, z);
+         if (insideBox(latitude, longitude, boundCoords) && chord2 <= maxChord2) {
+            res.add(id, latitude, longitude, chord2);
+         }
+      }
+
+      @Override
+      public WithinScan fork() {
+         return new WithinScan(boundCoords, kernel, maxChord2);
+      }
+
+      @Override
+      public void merge(WithinScan part) {
+         examined += part.examined;
+         res.addAll(part.res);
+      }
+   }
+
+   public static List<SupplyInstance> findPlacesWithinDistance(
+         final SupplyIndex index, final double radius,
+         final GeoPoint location, final double distance) {
+      return findPlacesWithinDistance(index, radius, location, distance, SupplyFilter.ANY,
+            SearchObserver.NONE, ParallelScan.SEQUENTIAL);
+   }
+
+   public static List<SupplyInstance> findPlacesWithinDistance(
+         final SupplyIndex index, final double radius, final GeoPoint location, final double distance,
+         final SupplyFilter filter, final SearchObserver observer, final ParallelScan parallel) {
+
+      final GeoPoint[] boundCoords = boundingCoordinates(location, distance, radius);
+      final DistanceKernel kernel = new DistanceKernel(location, radius);
+      final WithinScan scan = new WithinScan(boundCoords, kernel, kernel.chord2For(distance));
+
+      parallel.forEachInBox(index, boundCoords[0], boundCoords[1], cellId -> true, filter, scan);
+      observer.searched("within", scan.examined, 0);
+      return SupplyPositions.of(scan.res.ids, scan.res.latitudes, scan.res.longitudes, scan.res.size);
+   }
+
 }
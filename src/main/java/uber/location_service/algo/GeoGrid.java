@@ -0,0 +1,89 @@
+package uber.location_service.algo;
+
+import uber.location_service.structures.GeoPoint;
+
+/**
+ * Equirectangular partitioning of the sphere into fixed-size lat/lon cells.
+ * Cells are numbered row by row starting from the south pole and the -180 meridian,
+ * so a cell id fits into an int for any cell size down to ~0.01 degrees.
+ */
+public class GeoGrid {
+   private final double cellSize; // in radians
+   private final int rows, cols;
+
+   public GeoGrid(double cellSizeDegrees) {
+      if (!(cellSizeDegrees > 0d) || cellSizeDegrees > 90d)
+         throw new IllegalArgumentException("Cell size must be in (0, 90] degrees");
+
+      this.cellSize = Math.toRadians(cellSizeDegrees);
+      this.rows = (int) Math.ceil(Math.PI / cellSize);
+      this.cols = (int) Math.ceil(2d * Math.PI / cellSize);
+   }
+
+   public double getCellSize() {
+      return cellSize;
+   }
+
+   public int getRows() {
+      return rows;
+   }
+
+   public int getCols() {
+      return cols;
+   }
+
+   public int rowOf(double latitude) {
+      int row = (int) ((latitude - GeoAlgorithms.MIN_LAT) / cellSize);
+      return Math.max(0, Math.min(rows - 1, row));
+   }
+
+   public int colOf(double longitude) {
+      int col = (int) ((longitude - GeoAlgorithms.MIN_LON) / cellSize);
+      return Math.max(0, Math.min(cols - 1, col));
+   }
+
+   /**
+    * @return the southern edge of the row, in radians.
+    */
+   public double latitudeOfRow(int row) {
+      return GeoAlgorithms.MIN_LAT + row * cellSize;
+   }
+
+   /**
+    * @return the western edge of the column, in radians.
+    */
+   public double longitudeOfCol(int col) {
+      return GeoAlgorithms.MIN_LON + col * cellSize;
+   }
+
+   public int cellOf(GeoPoint p) {
+      return cellOf(p.getLatitude(), p.getLongitude());
+   }
+
+   public int cellOf(double latitude, double longitude) {
+      return cellId(rowOf(latitude), colOf(longitude));
+   }
+
+   public int cellId(int row, int col) {
+      return row * cols + col;
+   }
+
+   public int rowOfCell(int cell) {
+      return cell / cols;
+   }
+
+   public int colOfCell(int cell) {
+      return cell % cols;
+   }
+
+   /**
+    * @return the cells covering the [min, max] bounding box, which crosses
+    * the 180 meridian when min longitude is greater than max longitude.
+    */
+   public CellRange coveringRange(GeoPoint min, GeoPoint max) {
+      return new CellRange(this,
+            rowOf(min.getLatitude()), rowOf(max.getLatitude()),
+            colOf(min.getLongitude()), colOf(max.getLongitude()),
+            min.getLongitude() > max.getLongitude());
+   }
+}
@@ -0,0 +1,126 @@
+package uber.location_service.algo;
+
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyEntry;
+import uber.location_service.structures.SupplyFilter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+
+/**
+ * Concurrent cell-based spatial index over {@link GeoGrid} cells.
+ * Only non-empty cells are materialized, so the memory footprint follows the fleet,
+ * not the grid resolution. Every cell counts the attributes of its entries, so the
+ * filtered scans skip the cells without a matching one.
+ */
+public class GridIndex implements SupplyIndex {
+   private static final class Cell {
+      final ConcurrentHashMap<String, SupplyEntry> entries = new ConcurrentHashMap<>();
+      final CellAttributes attributes = new CellAttributes();
+   }
+
+   private final GeoGrid grid;
+   private final ConcurrentHashMap<Integer, Cell> cells;
+
+   public GridIndex(GeoGrid grid) {
+      this.grid = grid;
+      this.cells = new ConcurrentHashMap<>(100);
+   }
+
+   @Override
+   public GeoGrid getGrid() {
+      return grid;
+   }
+
+   private int cellOf(SupplyEntry entry) {
+      return grid.cellOf(entry.getLatitude(), entry.getLongitude());
+   }
+
+   /**
+    * Moves the entry from the cell of prev (if any) to the cell of next.
+    * Callers must serialize moves of the same id, e.g. by calling it from
+    * within ConcurrentHashMap.compute(...) on the primary map.
+    */
+   public void move(SupplyEntry prev, SupplyEntry next) {
+      int nextCell = cellOf(next);
+      if (prev != null) {
+         int prevCell = cellOf(prev);
+         if (prevCell != nextCell) removeFromCell(prevCell, prev.getId());
+      }
+
+      cells.compute(nextCell, (k, cell) -> {
+         if (cell == null) cell = new Cell();
+         SupplyEntry replaced = cell.entries.put(next.getId(), next);
+         if (replaced == null) cell.attributes.add(next.getAttributes());
+         else cell.attributes.replace(replaced.getAttributes(), next.getAttributes());
+         return cell;
+      });
+   }
+
+   public void remove(SupplyEntry prev) {
+      removeFromCell(cellOf(prev), prev.getId());
+   }
+
+   private void removeFromCell(int cellId, String id) {
+      cells.computeIfPresent(cellId, (k, cell) -> {
+         SupplyEntry removed = cell.entries.remove(id);
+         if (removed != null) cell.attributes.remove(removed.getAttributes());
+         return cell.entries.isEmpty() ? null : cell;
+      });
+   }
+
+   @Override
+   public void forEachInBox(GeoPoint min, GeoPoint max, IntPredicate cellFilter, SupplyFilter filter,
+                            EntryVisitor visitor) {
+      final CellRange range = grid.coveringRange(min, max);
+
+      // wide boxes cover more cells than there are occupied ones - walk the occupied instead
+      if (range.count() > cells.size()) {
+         for (Map.Entry<Integer, Cell> e : cells.entrySet()) {
+            if (range.contains(e.getKey()) && e.getValue().attributes.mayMatch(filter) && cellFilter.test(e.getKey()))
+               visitCell(e.getValue(), filter, visitor);
+         }
+         return;
+      }
+
+      range.forEach(cellId -> {
+         Cell cell = cells.get(cellId);
+         if (cell != null && cell.attributes.mayMatch(filter) && cellFilter.test(cellId))
+            visitCell(cell, filter, visitor);
+      });
+   }
+
+   @Override
+   public void forEachCellInBox(GeoPoint min, GeoPoint max, SupplyFilter filter, CellVisitor visitor) {
+      final CellRange range = grid.coveringRange(min, max);
+
+      if (range.count() > cells.size()) {
+         for (Map.Entry<Integer, Cell> e : cells.entrySet()) {
+            if (range.contains(e.getKey()) && e.getValue().attributes.mayMatch(filter))
+               visitor.visit(e.getKey(), e.getValue().entries.size());
+         }
+         return;
+      }
+
+      range.forEach(cellId -> {
+         Cell cell = cells.get(cellId);
+         if (cell != null && cell.attributes.mayMatch(filter)) visitor.visit(cellId, cell.entries.size());
+      });
+   }
+
+   @Override
+   public void forEachInCell(int cellId, SupplyFilter filter, EntryVisitor visitor) {
+      Cell cell = cells.get(cellId);
+      if (cell != null && cell.attributes.mayMatch(filter)) visitCell(cell, filter, visitor);
+   }
+
+   private static void visitCell(Cell cell, SupplyFilter filter, EntryVisitor visitor) {
+      final boolean any = filter.isAny();
+      for (SupplyEntry e : cell.entries.values()) {
+         if (any || filter.test(e.getAttributes())) {
+            visitor.visit(e.getId(), e.getLatitude(), e.getLongitude(), e.getX(), e.getY(), e.getZ(), e.getAttributes());
+         }
+      }
+   }
+}
@@ -0,0 +1,134 @@
+package uber.location_service.algo;
+
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyFilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntPredicate;
+
+/**
+ * Fork-join execution of the scans too large for a single thread. The non-empty cells of
+ * the box are split by their sizes into chunks, every chunk is visited by its own fork of
+ * the visitor, and the forks are merged back on the calling thread. The decision is taken
+ * per scan from the number of entries in the cells: a scan stays sequential below the
+ * threshold, and also while the pool has queued work, when the concurrent queries keep
+ * the cores busy anyway. Once closed, the scans run sequentially.
+ */
+public class ParallelScan implements AutoCloseable {
+   /**
+    * Visitor that can be split between the chunks of a parallel scan.
+    */
+   public interface Forkable<P extends SupplyIndex.EntryVisitor> extends SupplyIndex.EntryVisitor {
+      /**
+       * Called on the scanning thread before the chunks run, the forks may share state.
+       */
+      P fork();
+
+      /**
+       * Called on the scanning thread after all chunks are done.
+       */
+      void merge(P part);
+   }
+
+   public static final ParallelScan SEQUENTIAL = new ParallelScan(null, Integer.MAX_VALUE);
+
+   private final ForkJoinPool pool; // null when sequential
+   private final long threshold; // entries
+
+   /**
+    * @param threshold scans of fewer entries run sequentially.
+    */
+   public ParallelScan(ForkJoinPool pool, long threshold) {
+      if (threshold < 1) throw new IllegalArgumentException("Parallel scan threshold must be positive");
+
+      this.pool = pool;
+      this.threshold = threshold;
+   }
+
+   /**
+    * @param threads of the pool, 0 - one per core, 1 - the scans stay sequential.
+    */
+   public static ParallelScan create(int threads, long threshold) {
+      if (threads == 0) threads = Runtime.getRuntime().availableProcessors();
+      if (threads < 2) return SEQUENTIAL;
+
+      ForkJoinPool pool = new ForkJoinPool(threads, p -> {
+         ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+         t.setName("supply-scan-" + t.getPoolIndex());
+         return t;
+      }, null, false);
+      return new ParallelScan(pool, threshold);
+   }
+
+   /**
+    * Same as {@link SupplyIndex#forEachInBox}, but the entries go to the forks of the visitor
+    * when the scan is split. The cell filter is called on the scanning thread.
+    */
+   public <P extends SupplyIndex.EntryVisitor> void forEachInBox(
+         final SupplyIndex index, final GeoPoint min, final GeoPoint max,
+         final IntPredicate cellFilter, final SupplyFilter filter, final Forkable<P> visitor) {
+      if (pool == null || pool.isShutdown()) {
+         index.forEachInBox(min, max, cellFilter, filter, visitor);
+         return;
+      }
+
+      final int[][] cells = {new int[16], new int[16]}; // ids and sizes
+      final int[] count = {0};
+      final long[] total = {0};
+      index.forEachCellInBox(min, max, filter, (cellId, size) -> {
+         if (!cellFilter.test(cellId)) return;
+         if (count[0] == cells[0].length) {
+            cells[0] = Arrays.copyOf(cells[0], count[0] * 2);
+            cells[1] = Arrays.copyOf(cells[1], count[0] * 2);
+         }
+         cells[0][count[0]] = cellId;
+         cells[1][count[0]++] = size;
+         total[0] += size;
+      });
+      final int[] cellIds = cells[0], sizes = cells[1];
+
+      if (total[0] < threshold || pool.hasQueuedSubmissions()) {
+         for (int i = 0; i < count[0]; ++i) index.forEachInCell(cellIds[i], filter, visitor);
+         return;
+      }
+
+      // a few chunks per thread, so the uneven ones even out
+      final long grain = Math.max(threshold / 4, total[0] / (4L * pool.getParallelism()));
+      final List<P> parts = new ArrayList<>();
+      final List<ForkJoinTask<?>> chunks = new ArrayList<>();
+      for (int from = 0; from < count[0]; ) {
+         int to = from;
+         long weight = 0;
+         while (to < count[0] && weight < grain) weight += sizes[to++];
+
+         final P part = visitor.fork();
+         final int lo = from, hi = to;
+         parts.add(part);
+         chunks.add(ForkJoinTask.adapt(() -> {
+            for (int i = lo; i < hi; ++i) index.forEachInCell(cellIds[i], filter, part);
+         }));
+         from = to;
+      }
+      try {
+         pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(chunks)));
+      } catch (RejectedExecutionException e) {
+         // closed since the check above, the chunks run on this thread
+         for (ForkJoinTask<?> chunk : chunks) chunk.invoke();
+      }
+      for (P part : parts) visitor.merge(part);
+   }
+
+   /**
+    * Stops the threads of the pool, the scans already split still complete.
+    */
+   @Override
+   public void close() {
+      if (pool != null) pool.shutdown();
+   }
+}
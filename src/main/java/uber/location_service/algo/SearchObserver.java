@@ -0,0 +1,14 @@
+package uber.location_service.algo;
+
+/**
+ * Receives the work every search did, once the search is over - the number of instances
+ * it examined and how many times its searched distance doubled.
+ */
+public interface SearchObserver {
+   SearchObserver NONE = (kind, examined, doublings) -> {};
+
+   /**
+    * @param kind closest, radius or within.
+    */
+   void searched(String kind, int examined, int doublings);
+}
@@ -0,0 +1,54 @@
+package uber.location_service.algo;
+
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyFilter;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Read access to supply positions grouped by {@link GeoGrid} cells, which is all
+ * {@link GeoAlgorithms} need from a store. Entries are handed out as primitives,
+ * so stores keeping the positions in arrays don't need to allocate on scans. The scans
+ * take a {@link SupplyFilter}, which the stores check per entry and per cell, so the cells
+ * without any matching instance are skipped.
+ */
+public interface SupplyIndex {
+   interface EntryVisitor {
+      /**
+       * The position comes both in radians and as the precomputed unit vector (x, y, z),
+       * see {@link DistanceKernel}, the attributes packed, see {@link uber.location_service.structures.SupplyAttributes}.
+       */
+      void visit(String id, double latitude, double longitude, double x, double y, double z, int attributes);
+   }
+
+   interface CellVisitor {
+      void visit(int cellId, int size);
+   }
+
+   GeoGrid getGrid();
+
+   /**
+    * Visits the entries matching the filter in every non-empty cell covering the [min, max]
+    * bounding box, skipping the cells rejected by cellFilter. Each cell is visited at most
+    * once, right after cellFilter accepted it. The cells with no instance matching the
+    * filter are skipped before cellFilter is asked.
+    */
+   void forEachInBox(GeoPoint min, GeoPoint max, IntPredicate cellFilter, SupplyFilter filter, EntryVisitor visitor);
+
+   default void forEachInBox(GeoPoint min, GeoPoint max, IntPredicate cellFilter, EntryVisitor visitor) {
+      forEachInBox(min, max, cellFilter, SupplyFilter.ANY, visitor);
+   }
+
+   /**
+    * Lists the non-empty cells covering the [min, max] bounding box that may hold instances
+    * matching the filter, with their sizes, so that a scan can be split into chunks of cells
+    * visited by {@link #forEachInCell}.
+    */
+   void forEachCellInBox(GeoPoint min, GeoPoint max, SupplyFilter filter, CellVisitor visitor);
+
+   /**
+    * Visits the entries of the cell matching the filter, if the cell is still there.
+    * Safe to call from several threads at once.
+    */
+   void forEachInCell(int cellId, SupplyFilter filter, EntryVisitor visitor);
+}
@@ -0,0 +1,169 @@
+package uber.location_service.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import uber.location_service.algo.AlgoInterface;
+import uber.location_service.algo.CellRange;
+import uber.location_service.algo.GeoAlgorithms;
+import uber.location_service.storage.CellVersions;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyFilter;
+import uber.location_service.structures.SupplyInstance;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * LRU cache of the query candidates around hotspots. Locations are snapped to a grid of
+ * quantum degrees, nearby requests share the candidates gathered around the snapped point.
+ * The candidates cover the snapping error, so every request is answered from them at its
+ * own location. An entry remembers the cells its candidates came from and the version it
+ * was computed at, and is served only while none of these cells changed since.
+ */
+public class QueryResultCache {
+   private static final class Key {
+      final String mode;
+      final int k;
+      final long filter; // the code of the filter
+      final long latitude, longitude; // in quanta
+
+      Key(String mode, int k, long filter, long latitude, long longitude) {
+         this.mode = mode;
+         this.k = k;
+         this.filter = filter;
+         this.latitude = latitude;
+         this.longitude = longitude;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof Key)) return false;
+         Key other = (Key) o;
+         return k == other.k && filter == other.filter && latitude == other.latitude && longitude == other.longitude &&
+               mode.equals(other.mode);
+      }
+
+      @Override
+      public int hashCode() {
+         return ((mode.hashCode() * 31 + k) * 31 + Long.hashCode(filter)) * 31 +
+               Long.hashCode(latitude * 0x9E3779B97F4A7C15L ^ longitude);
+      }
+   }
+
+   private static final class CachedResult {
+      final int[] cells;
+      final long version;
+      final List<SupplyInstance> candidates;
+
+      CachedResult(int[] cells, long version, List<SupplyInstance> candidates) {
+         this.cells = cells;
+         this.version = version;
+         this.candidates = candidates;
+      }
+   }
+
+   private final CellVersions versions;
+   private final double quantum; // in degrees
+   private final int maxCells;
+   private final LinkedHashMap<Key, CachedResult> entries;
+   private final MeterRegistry registry;
+
+   /**
+    * @param maxCells results covering more cells aren't cached.
+    */
+   public QueryResultCache(CellVersions versions, int maxEntries, double quantumDegrees, int maxCells,
+                           MeterRegistry registry) {
+      if (maxEntries <= 0 || !(quantumDegrees > 0d))
+         throw new IllegalArgumentException("Invalid query cache configuration");
+
+      this.versions = versions;
+      this.quantum = quantumDegrees;
+      this.maxCells = maxCells;
+      this.registry = registry;
+      this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+            return size() > maxEntries;
+         }
+      };
+      registry.gauge("supply.cache.size", this, QueryResultCache::size);
+   }
+
+   public synchronized int size() {
+      return entries.size();
+   }
+
+   private Counter counter(String name, String mode) {
+      return registry.counter(name, "mode", mode);
+   }
+
+   /**
+    * @return the most a location is off its snapped point, in km.
+    */
+   public double getSnapDistance() {
+      return Math.toRadians(quantum) * AlgoInterface.earthRadius;
+   }
+
+   /**
+    * @param mode tags the metrics, together with k and the filter it tells the queries apart.
+    * @param location in radians.
+    * @param coverage the distance (in km) around the snapped location holding the candidates
+    *                 for every location within {@link #getSnapDistance()} of it, infinite if
+    *                 they depend on the whole store.
+    * @param candidates the instances within the distance of the snapped location.
+    * @param answer picks the result for the location out of the candidates.
+    * @param query runs the query at the location when the candidates can't be cached.
+    */
+   public <T extends SupplyInstance> List<T> get(
+         String mode, int k, SupplyFilter filter, GeoPoint location,
+         ToDoubleFunction<GeoPoint> coverage, BiFunction<GeoPoint, Double, List<SupplyInstance>> candidates,
+         BiFunction<GeoPoint, List<SupplyInstance>, List<T>> answer, Function<GeoPoint, List<T>> query) {
+      final long latQ = Math.round(Math.toDegrees(location.getLatitude()) / quantum);
+      final long lonQ = Math.round(Math.toDegrees(location.getLongitude()) / quantum);
+      final Key key = new Key(mode, k, filter.code(), latQ, lonQ);
+
+      CachedResult cached;
+      synchronized (this) {
+         cached = entries.get(key);
+      }
+      if (cached != null && versions.unchangedSince(cached.cells, cached.version)) {
+         counter("supply.cache.hits", mode).increment();
+         return answer.apply(location, cached.candidates);
+      }
+      counter("supply.cache.misses", mode).increment();
+
+      GeoPoint snapped = GeoPoint.fromRadians(
+            Math.max(-Math.PI / 2, Math.min(Math.PI / 2, Math.toRadians(latQ * quantum))),
+            Math.max(-Math.PI, Math.min(Math.PI, Math.toRadians(lonQ * quantum))));
+      // read before the queries, so the changes they may have missed are stamped later
+      final long version = versions.current();
+      final double distance = coverage.applyAsDouble(snapped);
+      final int[] cells = coveredCells(snapped, distance);
+      if (cells == null) return query.apply(location);
+
+      List<SupplyInstance> found = candidates.apply(snapped, distance);
+      if (!versions.unchangedSince(cells, version)) return query.apply(location);
+
+      synchronized (this) {
+         entries.put(key, new CachedResult(cells, version, found));
+      }
+      return answer.apply(location, found);
+   }
+
+   private int[] coveredCells(GeoPoint location, double distance) {
+      if (!(distance < Double.POSITIVE_INFINITY)) return null;
+
+      GeoPoint[] box = GeoAlgorithms.boundingCoordinates(location, distance, AlgoInterface.earthRadius);
+      CellRange range = versions.getGrid().coveringRange(box[0], box[1]);
+      if (range.count() > maxCells) return null;
+
+      int[] cells = new int[(int) range.count()];
+      int[] size = {0};
+      range.forEach(cell -> cells[size[0]++] = cell);
+      return cells;
+   }
+}
@@ -0,0 +1,50 @@
+package uber.location_service.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.MicrometerConsumerListener;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Listener container factory for the batch ingestion mode - every poll is handed
+ * to the listener as a whole. The batch size is bounded by max-records, and the broker
+ * holds the fetch for up to linger-ms until min-bytes of records are available.
+ */
+@Configuration
+@ConditionalOnProperty(name = "supply-location.kafka.batch.enabled", havingValue = "true")
+public class KafkaBatchConfiguration {
+   public static final String BATCH_FACTORY = "batchKafkaListenerContainerFactory";
+
+   @Bean(name = BATCH_FACTORY)
+   public ConcurrentKafkaListenerContainerFactory<Object, Object> batchKafkaListenerContainerFactory(
+         ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+         ConsumerFactory<Object, Object> consumerFactory,
+         MeterRegistry registry,
+         SupplyLocationProperties properties) {
+      final SupplyLocationProperties.Kafka.Batch batch = properties.getKafka().getBatch();
+
+      // on top of the application's consumer factory, which carries the shard assignment when sharded
+      Map<String, Object> props = new HashMap<>(consumerFactory.getConfigurationProperties());
+      props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, batch.getMaxRecords());
+      props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, batch.getLingerMs());
+      props.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, batch.getMinBytes());
+
+      ConcurrentKafkaListenerContainerFactory<Object, Object> factory =
+            new ConcurrentKafkaListenerContainerFactory<>();
+      DefaultKafkaConsumerFactory<Object, Object> batchConsumerFactory = new DefaultKafkaConsumerFactory<>(props);
+      // the client metrics, consumer lag included
+      batchConsumerFactory.addListener(new MicrometerConsumerListener<>(registry));
+      configurer.configure(factory, batchConsumerFactory);
+      factory.setBatchListener(true);
+      return factory;
+   }
+}
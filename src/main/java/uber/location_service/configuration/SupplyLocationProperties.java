@@ -0,0 +1,571 @@
+package uber.location_service.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * The supply-location.* properties, see application.properties. The defaults keep every
+ * optional feature off, so a new instance describes a plain map store. The modes switched
+ * by kafka.batch.enabled, binary.enabled and shard.enabled pick the beans themselves.
+ */
+@Component
+@ConfigurationProperties("supply-location")
+public class SupplyLocationProperties {
+   public static class Index {
+      private double cellSizeDegrees = 0.1;
+
+      public double getCellSizeDegrees() {
+         return cellSizeDegrees;
+      }
+
+      public void setCellSizeDegrees(double cellSizeDegrees) {
+         this.cellSizeDegrees = cellSizeDegrees;
+      }
+   }
+
+   public static class Radius {
+      private double minDistanceKm = 10;
+      private double maxDistanceKm = 30000;
+      private int minCandidates = 1;
+
+      public double getMinDistanceKm() {
+         return minDistanceKm;
+      }
+
+      public void setMinDistanceKm(double minDistanceKm) {
+         this.minDistanceKm = minDistanceKm;
+      }
+
+      public double getMaxDistanceKm() {
+         return maxDistanceKm;
+      }
+
+      public void setMaxDistanceKm(double maxDistanceKm) {
+         this.maxDistanceKm = maxDistanceKm;
+      }
+
+      public int getMinCandidates() {
+         return minCandidates;
+      }
+
+      public void setMinCandidates(int minCandidates) {
+         this.minCandidates = minCandidates;
+      }
+   }
+
+   public static class Expiry {
+      private long ttlSeconds;
+      private long intervalMs = 1000;
+
+      /**
+       * @return 0 - the supply is kept forever.
+       */
+      public long getTtlSeconds() {
+         return ttlSeconds;
+      }
+
+      public void setTtlSeconds(long ttlSeconds) {
+         this.ttlSeconds = ttlSeconds;
+      }
+
+      public long getIntervalMs() {
+         return intervalMs;
+      }
+
+      public void setIntervalMs(long intervalMs) {
+         this.intervalMs = intervalMs;
+      }
+   }
+
+   public static class Cache {
+      private int maxEntries;
+      private double quantumDegrees = 0.001;
+      private double cellSizeDegrees = 0.05;
+      private int maxCells = 256;
+
+      /**
+       * @return 0 - the cache is disabled.
+       */
+      public int getMaxEntries() {
+         return maxEntries;
+      }
+
+      public void setMaxEntries(int maxEntries) {
+         this.maxEntries = maxEntries;
+      }
+
+      public double getQuantumDegrees() {
+         return quantumDegrees;
+      }
+
+      public void setQuantumDegrees(double quantumDegrees) {
+         this.quantumDegrees = quantumDegrees;
+      }
+
+      public double getCellSizeDegrees() {
+         return cellSizeDegrees;
+      }
+
+      public void setCellSizeDegrees(double cellSizeDegrees) {
+         this.cellSizeDegrees = cellSizeDegrees;
+      }
+
+      public int getMaxCells() {
+         return maxCells;
+      }
+
+      public void setMaxCells(int maxCells) {
+         this.maxCells = maxCells;
+      }
+   }
+
+   public static class Parallel {
+      private int threads = 1;
+      private long minEntries = 100000;
+
+      /**
+       * @return 0 - one per core, 1 - the scans stay sequential.
+       */
+      public int getThreads() {
+         return threads;
+      }
+
+      public void setThreads(int threads) {
+         this.threads = threads;
+      }
+
+      public long getMinEntries() {
+         return minEntries;
+      }
+
+      public void setMinEntries(long minEntries) {
+         this.minEntries = minEntries;
+      }
+   }
+
+   public static class Update {
+      private double minMovementMeters;
+
+      /**
+       * @return 0 - every update moves the instance.
+       */
+      public double getMinMovementMeters() {
+         return minMovementMeters;
+      }
+
+      public void setMinMovementMeters(double minMovementMeters) {
+         this.minMovementMeters = minMovementMeters;
+      }
+   }
+
+   public static class Epoch {
+      private long publishIntervalMs = 100;
+      private int maxPendingUpdates = 100000;
+
+      public long getPublishIntervalMs() {
+         return publishIntervalMs;
+      }
+
+      public void setPublishIntervalMs(long publishIntervalMs) {
+         this.publishIntervalMs = publishIntervalMs;
+      }
+
+      public int getMaxPendingUpdates() {
+         return maxPendingUpdates;
+      }
+
+      public void setMaxPendingUpdates(int maxPendingUpdates) {
+         this.maxPendingUpdates = maxPendingUpdates;
+      }
+   }
+
+   public static class Density {
+      private double cellSizeDegrees = 0.01;
+      private int levels;
+      private long maxCells = 100000;
+
+      public double getCellSizeDegrees() {
+         return cellSizeDegrees;
+      }
+
+      public void setCellSizeDegrees(double cellSizeDegrees) {
+         this.cellSizeDegrees = cellSizeDegrees;
+      }
+
+      /**
+       * @return 0 - the counts are not kept.
+       */
+      public int getLevels() {
+         return levels;
+      }
+
+      public void setLevels(int levels) {
+         this.levels = levels;
+      }
+
+      public long getMaxCells() {
+         return maxCells;
+      }
+
+      public void setMaxCells(long maxCells) {
+         this.maxCells = maxCells;
+      }
+   }
+
+   public static class Query {
+      private int threads;
+      private int queueCapacity = 1000;
+      private long timeoutMs = 2000;
+      private int retryAfterSeconds = 1;
+      private boolean virtualThreads;
+      private int maxBatchSize = 1000;
+
+      /**
+       * @return 0 - one per core.
+       */
+      public int getThreads() {
+         return threads;
+      }
+
+      public void setThreads(int threads) {
+         this.threads = threads;
+      }
+
+      public int getQueueCapacity() {
+         return queueCapacity;
+      }
+
+      public void setQueueCapacity(int queueCapacity) {
+         this.queueCapacity = queueCapacity;
+      }
+
+      public long getTimeoutMs() {
+         return timeoutMs;
+      }
+
+      public void setTimeoutMs(long timeoutMs) {
+         this.timeoutMs = timeoutMs;
+      }
+
+      public int getRetryAfterSeconds() {
+         return retryAfterSeconds;
+      }
+
+      public void setRetryAfterSeconds(int retryAfterSeconds) {
+         this.retryAfterSeconds = retryAfterSeconds;
+      }
+
+      public boolean isVirtualThreads() {
+         return virtualThreads;
+      }
+
+      public void setVirtualThreads(boolean virtualThreads) {
+         this.virtualThreads = virtualThreads;
+      }
+
+      public int getMaxBatchSize() {
+         return maxBatchSize;
+      }
+
+      public void setMaxBatchSize(int maxBatchSize) {
+         this.maxBatchSize = maxBatchSize;
+      }
+   }
+
+   public static class Snapshot {
+      private boolean enabled;
+      private String path = "supply-snapshot.bin";
+      private long intervalSeconds = 60;
+
+      public boolean isEnabled() {
+         return enabled;
+      }
+
+      public void setEnabled(boolean enabled) {
+         this.enabled = enabled;
+      }
+
+      public String getPath() {
+         return path;
+      }
+
+      public void setPath(String path) {
+         this.path = path;
+      }
+
+      public long getIntervalSeconds() {
+         return intervalSeconds;
+      }
+
+      public void setIntervalSeconds(long intervalSeconds) {
+         this.intervalSeconds = intervalSeconds;
+      }
+   }
+
+   public static class Kafka {
+      public static class Batch {
+         private int maxRecords = 500;
+         private int lingerMs = 50;
+         private int minBytes = 65536;
+
+         public int getMaxRecords() {
+            return maxRecords;
+         }
+
+         public void setMaxRecords(int maxRecords) {
+            this.maxRecords = maxRecords;
+         }
+
+         public int getLingerMs() {
+            return lingerMs;
+         }
+
+         public void setLingerMs(int lingerMs) {
+            this.lingerMs = lingerMs;
+         }
+
+         public int getMinBytes() {
+            return minBytes;
+         }
+
+         public void setMinBytes(int minBytes) {
+            this.minBytes = minBytes;
+         }
+      }
+
+      private final Batch batch = new Batch();
+
+      public Batch getBatch() {
+         return batch;
+      }
+   }
+
+   public static class Binary {
+      private int port = 7070;
+      private int bufferBytes = 65536;
+
+      public int getPort() {
+         return port;
+      }
+
+      public void setPort(int port) {
+         this.port = port;
+      }
+
+      public int getBufferBytes() {
+         return bufferBytes;
+      }
+
+      public void setBufferBytes(int bufferBytes) {
+         this.bufferBytes = bufferBytes;
+      }
+   }
+
+   public static class Watch {
+      private double cellSizeDegrees = 0.5;
+      private double maxRadiusKm = 50;
+      private int maxSubscriptions = 10000;
+      private long flushIntervalMs = 500;
+      private long timeoutMs = 1800000;
+
+      public double getCellSizeDegrees() {
+         return cellSizeDegrees;
+      }
+
+      public void setCellSizeDegrees(double cellSizeDegrees) {
+         this.cellSizeDegrees = cellSizeDegrees;
+      }
+
+      public double getMaxRadiusKm() {
+         return maxRadiusKm;
+      }
+
+      public void setMaxRadiusKm(double maxRadiusKm) {
+         this.maxRadiusKm = maxRadiusKm;
+      }
+
+      public int getMaxSubscriptions() {
+         return maxSubscriptions;
+      }
+
+      public void setMaxSubscriptions(int maxSubscriptions) {
+         this.maxSubscriptions = maxSubscriptions;
+      }
+
+      public long getFlushIntervalMs() {
+         return flushIntervalMs;
+      }
+
+      public void setFlushIntervalMs(long flushIntervalMs) {
+         this.flushIntervalMs = flushIntervalMs;
+      }
+
+      public long getTimeoutMs() {
+         return timeoutMs;
+      }
+
+      public void setTimeoutMs(long timeoutMs) {
+         this.timeoutMs = timeoutMs;
+      }
+   }
+
+   public static class Zones {
+      private int maxZones = 1000;
+      private int maxCells = 100000;
+
+      public int getMaxZones() {
+         return maxZones;
+      }
+
+      public void setMaxZones(int maxZones) {
+         this.maxZones = maxZones;
+      }
+
+      public int getMaxCells() {
+         return maxCells;
+      }
+
+      public void setMaxCells(int maxCells) {
+         this.maxCells = maxCells;
+      }
+   }
+
+   public static class Shard {
+      private int id;
+      private int count = 1;
+      private double regionDegrees = 10;
+      private String[] nodes = new String[0];
+      private long timeoutMs = 1000;
+
+      public int getId() {
+         return id;
+      }
+
+      public void setId(int id) {
+         this.id = id;
+      }
+
+      public int getCount() {
+         return count;
+      }
+
+      public void setCount(int count) {
+         this.count = count;
+      }
+
+      public double getRegionDegrees() {
+         return regionDegrees;
+      }
+
+      public void setRegionDegrees(double regionDegrees) {
+         this.regionDegrees = regionDegrees;
+      }
+
+      /**
+       * @return the base URLs of the nodes, by shard id.
+       */
+      public String[] getNodes() {
+         return nodes;
+      }
+
+      public void setNodes(String[] nodes) {
+         this.nodes = nodes;
+      }
+
+      public long getTimeoutMs() {
+         return timeoutMs;
+      }
+
+      public void setTimeoutMs(long timeoutMs) {
+         this.timeoutMs = timeoutMs;
+      }
+   }
+
+   private String store = "map";
+   private final Index index = new Index();
+   private final Radius radius = new Radius();
+   private final Expiry expiry = new Expiry();
+   private final Cache cache = new Cache();
+   private final Parallel parallel = new Parallel();
+   private final Update update = new Update();
+   private final Epoch epoch = new Epoch();
+   private final Density density = new Density();
+   private final Query query = new Query();
+   private final Snapshot snapshot = new Snapshot();
+   private final Kafka kafka = new Kafka();
+   private final Binary binary = new Binary();
+   private final Watch watch = new Watch();
+   private final Zones zones = new Zones();
+   private final Shard shard = new Shard();
+
+   /**
+    * @return map, array or epoch.
+    */
+   public String getStore() {
+      return store;
+   }
+
+   public void setStore(String store) {
+      this.store = store;
+   }
+
+   public Index getIndex() {
+      return index;
+   }
+
+   public Radius getRadius() {
+      return radius;
+   }
+
+   public Expiry getExpiry() {
+      return expiry;
+   }
+
+   public Cache getCache() {
+      return cache;
+   }
+
+   public Parallel getParallel() {
+      return parallel;
+   }
+
+   public Update getUpdate() {
+      return update;
+   }
+
+   public Epoch getEpoch() {
+      return epoch;
+   }
+
+   public Density getDensity() {
+      return density;
+   }
+
+   public Query getQuery() {
+      return query;
+   }
+
+   public Snapshot getSnapshot() {
+      return snapshot;
+   }
+
+   public Kafka getKafka() {
+      return kafka;
+   }
+
+   public Binary getBinary() {
+      return binary;
+   }
+
+   public Watch getWatch() {
+      return watch;
+   }
+
+   public Zones getZones() {
+      return zones;
+   }
+
+   public Shard getShard() {
+      return shard;
+   }
+}
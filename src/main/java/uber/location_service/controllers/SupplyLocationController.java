@@ -1,16 +1,28 @@
 package uber.location_service.controllers;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import uber.location_service.configuration.SupplyLocationProperties;
+import uber.location_service.ingestion.SupplyRecordDecoder;
+import uber.location_service.services.QueryExecutor;
 import uber.location_service.services.SupplyLocationImpl;
+import uber.location_service.sharding.ScatterGatherService;
+import uber.location_service.storage.SupplyBatch;
 import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyFilter;
 import uber.location_service.structures.SupplyInstance;
+import uber.location_service.structures.SupplyQuery;
+import uber.location_service.watch.SupplyWatchService;
+import uber.location_service.zones.SupplyZone;
+import uber.location_service.zones.SupplyZoneService;
 
 import java.util.List;
-import java.util.concurrent.ForkJoinPool;
 
 /**
  * This is the API that exists at the moment due to the chosen implementation model,
@@ -24,55 +36,196 @@ import java.util.concurrent.ForkJoinPool;
 @RequestMapping()
 public class SupplyLocationController {
    private final SupplyLocationImpl impl;
+   private final QueryExecutor queryExecutor;
+   private final ScatterGatherService scatterGather; // null unless sharded
+   private final SupplyWatchService watchService;
+   private final SupplyZoneService zoneService;
+   private final int maxBatchSize;
+   private final long watchTimeoutMs;
+   private final long maxDensityCells;
+   private final ThreadLocal<SupplyRecordDecoder> recordDecoders = ThreadLocal.withInitial(SupplyRecordDecoder::new);
 
    @Autowired
-   public SupplyLocationController(final SupplyLocationImpl impl) {
+   public SupplyLocationController(
+         final SupplyLocationImpl impl, final QueryExecutor queryExecutor,
+         final ObjectProvider<ScatterGatherService> scatterGather,
+         final SupplyWatchService watchService, final SupplyZoneService zoneService,
+         final SupplyLocationProperties properties) {
       this.impl = impl;
+      this.queryExecutor = queryExecutor;
+      this.scatterGather = scatterGather.getIfAvailable();
+      this.watchService = watchService;
+      this.zoneService = zoneService;
+      this.maxBatchSize = properties.getQuery().getMaxBatchSize();
+      this.watchTimeoutMs = properties.getWatch().getTimeoutMs();
+      this.maxDensityCells = properties.getDensity().getMaxCells();
    }
 
+   /**
+    * The results are written by the JSON message converter, which streams them into the response.
+    * Only the supply of one of the vehicle classes (any if none), with all of the status flags
+    * and at least min-capacity seats is searched for.
+    */
    @GetMapping(path="/get-closest")
    public DeferredResult<ResponseEntity<Object>> getClosestHandler(
-         GeoPoint geoPoint) {
-      DeferredResult<ResponseEntity<Object>> output = new DeferredResult<>();
-
-      ForkJoinPool.commonPool().submit(() -> {
-         List<SupplyInstance> arr = impl.getClosestSupply(geoPoint);
-         output.setResult(new ResponseEntity<>(arr, HttpStatus.OK));
-      });
-
-      return output;
+         @RequestParam("latitude") double latitude, @RequestParam("longitude") double longitude,
+         @RequestParam(value = "k", defaultValue = "1") int k,
+         @RequestParam(value = "vehicle-class", required = false) List<String> vehicleClasses,
+         @RequestParam(value = "status", required = false) List<String> status,
+         @RequestParam(value = "min-capacity", defaultValue = "0") int minCapacity) {
+      if (k < 1) throw new IllegalArgumentException("k must be positive");
+      final GeoPoint geoPoint = GeoPoint.fromDegrees(latitude, longitude);
+      final SupplyFilter filter = SupplyFilter.parse(vehicleClasses, status, minCapacity);
+      return queryExecutor.submit("get-closest", () -> scatterGather != null ?
+            scatterGather.getClosestSupply(geoPoint, k, filter) : impl.getClosestSupply(geoPoint, k, filter));
    }
 
    @GetMapping(path="/get-closest-in-radius")
    public DeferredResult<ResponseEntity<Object>> getClosestInRadiusHandler(
-         GeoPoint geoPoint) {
-      DeferredResult<ResponseEntity<Object>> output = new DeferredResult<>();
+         @RequestParam("latitude") double latitude, @RequestParam("longitude") double longitude,
+         @RequestParam(value = "vehicle-class", required = false) List<String> vehicleClasses,
+         @RequestParam(value = "status", required = false) List<String> status,
+         @RequestParam(value = "min-capacity", defaultValue = "0") int minCapacity) {
+      final GeoPoint geoPoint = GeoPoint.fromDegrees(latitude, longitude);
+      final SupplyFilter filter = SupplyFilter.parse(vehicleClasses, status, minCapacity);
+      return queryExecutor.submit("get-closest-in-radius", () -> scatterGather != null ?
+            scatterGather.getRadiusSupply(geoPoint, filter) : impl.getRadiusSupply(geoPoint, filter));
+   }
+
+   /**
+    * Answers many queries in one request, the results come in the order of the queries.
+    */
+   @PostMapping(path="/get-closest-batch")
+   public DeferredResult<ResponseEntity<Object>> getClosestBatchHandler(
+         @RequestBody List<SupplyQuery> queries) {
+      if (queries.size() > maxBatchSize)
+         throw new IllegalArgumentException("At most " + maxBatchSize + " queries are allowed");
+      for (SupplyQuery q : queries) {
+         if (q.getLocation() == null || q.getMode() == null)
+            throw new IllegalArgumentException("Every query needs a location and a mode");
+         if (q.getMode() == SupplyQuery.Mode.K_NEAREST && q.getK() < 1)
+            throw new IllegalArgumentException("k must be positive");
+      }
+      return queryExecutor.submit("get-closest-batch", () -> scatterGather != null ?
+            scatterGather.getBatchSupply(queries) : impl.getBatchSupply(queries));
+   }
+
+   /**
+    * The supply counts of the cells of the level (0 - the finest) covering the bounding box,
+    * read from the aggregates kept per cell. The box crosses the 180 meridian when min-longitude
+    * is greater than max-longitude.
+    */
+   @GetMapping(path="/get-supply-density")
+   public DeferredResult<ResponseEntity<Object>> getSupplyDensityHandler(
+         @RequestParam("min-latitude") double minLatitude, @RequestParam("min-longitude") double minLongitude,
+         @RequestParam("max-latitude") double maxLatitude, @RequestParam("max-longitude") double maxLongitude,
+         @RequestParam(value = "level", defaultValue = "0") int level) {
+      if (impl.getSupplyDensity() == null) throw new IllegalStateException("Supply density is not kept");
+      if (minLatitude > maxLatitude) throw new IllegalArgumentException("min-latitude must not exceed max-latitude");
+      final GeoPoint min = GeoPoint.fromDegrees(minLatitude, minLongitude);
+      final GeoPoint max = GeoPoint.fromDegrees(maxLatitude, maxLongitude);
+      if (impl.getSupplyDensity().cellCount(min, max, level) > maxDensityCells)
+         throw new IllegalArgumentException("Box covers more than " + maxDensityCells + " cells, choose a coarser level");
+      return queryExecutor.submit("get-supply-density", () -> impl.getSupplyDensity(min, max, level));
+   }
+
+   /**
+    * Streams the supply entering, moving within and leaving the circle as server-sent
+    * "supply" events, starting with the supply already inside as entered.
+    */
+   @GetMapping(path="/watch-supply")
+   public SseEmitter watchSupplyHandler(
+         @RequestParam("latitude") double latitude, @RequestParam("longitude") double longitude,
+         @RequestParam("radius-km") double radius) {
+      SseEmitter emitter = new SseEmitter(watchTimeoutMs);
+      Object subscription = watchService.subscribe(GeoPoint.fromDegrees(latitude, longitude), radius,
+            delta -> emitter.send(SseEmitter.event().name("supply").data(delta)));
+
+      emitter.onCompletion(() -> watchService.unsubscribe(subscription));
+      emitter.onTimeout(emitter::complete);
+      emitter.onError(e -> watchService.unsubscribe(subscription));
+      return emitter;
+   }
+
+   /**
+    * Registers the polygon, with the vertices in order, under the name, replacing the zone
+    * registered under it before. The zones are local to the node, as is the supply they count.
+    */
+   @PostMapping(path="/register-zone")
+   public ResponseEntity<Object> registerZoneHandler(
+         @RequestParam("name") String name, @RequestBody List<GeoPoint> vertices) {
+      return new ResponseEntity<>(zoneService.register(name, vertices), HttpStatus.OK);
+   }
 
-      ForkJoinPool.commonPool().submit(() -> {
-         List<SupplyInstance> arr = impl.getRadiusSupply(geoPoint);
-         output.setResult(new ResponseEntity<>(arr, HttpStatus.OK));
-      });
+   @PostMapping(path="/remove-zone")
+   public ResponseEntity<Object> removeZoneHandler(
+         @RequestParam("name") String name) {
+      return new ResponseEntity<>(zoneService.remove(name) ? HttpStatus.OK : HttpStatus.PRECONDITION_FAILED);
+   }
+
+   @GetMapping(path="/get-zones")
+   public ResponseEntity<Object> getZonesHandler() {
+      return new ResponseEntity<>(zoneService.getZones(), HttpStatus.OK);
+   }
+
+   /**
+    * The supply inside the registered zone matching the filter, as for {@link #getClosestHandler}.
+    */
+   @GetMapping(path="/get-zone-supply")
+   public DeferredResult<ResponseEntity<Object>> getZoneSupplyHandler(
+         @RequestParam("name") String name,
+         @RequestParam(value = "vehicle-class", required = false) List<String> vehicleClasses,
+         @RequestParam(value = "status", required = false) List<String> status,
+         @RequestParam(value = "min-capacity", defaultValue = "0") int minCapacity) {
+      final SupplyZone zone = requireZone(name);
+      final SupplyFilter filter = SupplyFilter.parse(vehicleClasses, status, minCapacity);
+      return queryExecutor.submit("get-zone-supply", () -> zoneService.getSupply(zone, filter));
+   }
+
+   @GetMapping(path="/count-zone-supply")
+   public DeferredResult<ResponseEntity<Object>> countZoneSupplyHandler(
+         @RequestParam("name") String name,
+         @RequestParam(value = "vehicle-class", required = false) List<String> vehicleClasses,
+         @RequestParam(value = "status", required = false) List<String> status,
+         @RequestParam(value = "min-capacity", defaultValue = "0") int minCapacity) {
+      final SupplyZone zone = requireZone(name);
+      final SupplyFilter filter = SupplyFilter.parse(vehicleClasses, status, minCapacity);
+      return queryExecutor.submit("count-zone-supply", () -> zoneService.countSupply(zone, filter));
+   }
 
-      return output;
+   private SupplyZone requireZone(String name) {
+      SupplyZone zone = zoneService.getZone(name);
+      if (zone == null) throw new IllegalArgumentException("Unknown zone: " + name);
+      return zone;
    }
 
    @PostMapping(path="/update-supply")
    public ResponseEntity<Object> updateSupplyInstance(
          @RequestBody SupplyInstance ins) {
-
-      ins.getLocation().transformToRadians();
       impl.updateSupply(ins);
       return new ResponseEntity<>(HttpStatus.OK);
    }
 
+   /**
+    * Takes the binary supply records (see {@link SupplyRecordDecoder}) back to back,
+    * either all of them or none.
+    */
+   @PostMapping(path="/update-supply-records", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+   public ResponseEntity<Object> updateSupplyRecords(
+         @RequestBody byte[] records) {
+      SupplyBatch batch = new SupplyBatch(records.length / SupplyRecordDecoder.RECORD_SIZE);
+      if (!recordDecoders.get().decode(records, batch::put)) {
+         throw new IllegalArgumentException("Body must be a whole number of well-formed supply records");
+      }
+      impl.updateSupplyBatch(batch);
+      return new ResponseEntity<>(HttpStatus.OK);
+   }
+
    @GetMapping(path="/get-location")
    public ResponseEntity<Object> getSupplyLocation(
          @RequestParam(value = "id") String id) {
       GeoPoint location = impl.getSupplyLocation(id);
       if (location == null) return new ResponseEntity<>(HttpStatus.PRECONDITION_FAILED);
-
-      location = new GeoPoint(location);
-      location.transformToDegrees();
       return new ResponseEntity<>(location, HttpStatus.OK);
    }
 }
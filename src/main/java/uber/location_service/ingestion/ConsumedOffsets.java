@@ -0,0 +1,56 @@
+package uber.location_service.ingestion;
+
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Kafka positions the in-memory store is built from - per partition the offset
+ * of the next record to apply. Snapshots record them, and the consumers are moved
+ * to them on every assignment, since committed offsets know nothing about what
+ * this node holds in memory.
+ */
+@Component
+public class ConsumedOffsets {
+   private final ConcurrentHashMap<TopicPartition, Long> offsets = new ConcurrentHashMap<>();
+   private volatile boolean restored;
+
+   /**
+    * Called once the record at the offset is applied to the store.
+    */
+   public void applied(String topic, int partition, long offset) {
+      offsets.merge(new TopicPartition(topic, partition), offset + 1, Math::max);
+   }
+
+   public Map<TopicPartition, Long> current() {
+      return new HashMap<>(offsets);
+   }
+
+   /**
+    * @param snapshotOffsets the positions covered by the restored store content.
+    */
+   public void restore(Map<TopicPartition, Long> snapshotOffsets) {
+      offsets.putAll(snapshotOffsets);
+      restored = true;
+   }
+
+   /**
+    * Seeks the assigned partitions to the positions the store is at. After a restore,
+    * the partitions the snapshot doesn't cover are read from the beginning.
+    */
+   public void seekOnAssignment(Map<TopicPartition, Long> assignments,
+                                ConsumerSeekAware.ConsumerSeekCallback callback) {
+      for (TopicPartition tp : assignments.keySet()) {
+         Long offset = offsets.get(tp);
+         if (offset != null) {
+            callback.seek(tp.topic(), tp.partition(), offset);
+         } else if (restored) {
+            callback.seekToBeginning(tp.topic(), tp.partition());
+         }
+      }
+   }
+}
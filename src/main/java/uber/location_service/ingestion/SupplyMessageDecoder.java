@@ -0,0 +1,407 @@
+package uber.location_service.ingestion;
+
+import uber.location_service.storage.UpdatePolicy;
+import uber.location_service.structures.SupplyAttributes;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte level decoder of the {"id": ..., "location": {"latitude": ..., "longitude": ...}}
+ * supply message, with the optional "attributes": {"vehicle_class": ..., "status": [...],
+ * "capacity": ...} and "timestamp" (epoch millis). The raw bytes are scanned in place and the position is handed to the sink
+ * as primitives (converted to radians), with the attributes packed, so the id string is the
+ * only allocation per message. Field names are matched by their SNAKE_CASE form used across
+ * the service, unknown fields of any type are skipped, and so are the unknown class and status
+ * names, so producers may send new ones before the service knows them. Instances keep scanning
+ * state and must not be shared between threads.
+ */
+public class SupplyMessageDecoder {
+   public interface Sink {
+      /**
+       * @param latitude the latitude, in radians.
+       * @param longitude the longitude, in radians.
+       * @param attributes packed, {@link SupplyAttributes#UNCHANGED} if the message has none.
+       * @param timestamp of the position in epoch millis, {@link UpdatePolicy#NO_TIMESTAMP} if the message has none.
+       */
+      void accept(String id, double latitude, double longitude, int attributes, long timestamp);
+   }
+
+   private static class MalformedMessage extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+
+      MalformedMessage() {
+         super(null, null, false, false);
+      }
+   }
+
+   private static final MalformedMessage MALFORMED = new MalformedMessage();
+
+   private static final byte[] ID = ascii("id");
+   private static final byte[] LOCATION = ascii("location");
+   private static final byte[] LATITUDE = ascii("latitude");
+   private static final byte[] LONGITUDE = ascii("longitude");
+   private static final byte[] ATTRIBUTES = ascii("attributes");
+   private static final byte[] VEHICLE_CLASS = ascii("vehicle_class");
+   private static final byte[] STATUS = ascii("status");
+   private static final byte[] CAPACITY = ascii("capacity");
+   private static final byte[] TIMESTAMP = ascii("timestamp");
+   private static final SupplyAttributes.VehicleClass[] CLASSES = SupplyAttributes.VehicleClass.values();
+   private static final SupplyAttributes.Status[] STATUSES = SupplyAttributes.Status.values();
+   private static final byte[][] CLASS_KEYS = new byte[CLASSES.length][], STATUS_KEYS = new byte[STATUSES.length][];
+
+   static {
+      for (SupplyAttributes.VehicleClass c : CLASSES) CLASS_KEYS[c.ordinal()] = ascii(c.key());
+      for (SupplyAttributes.Status s : STATUSES) STATUS_KEYS[s.ordinal()] = ascii(s.key());
+   }
+
+   // powers of ten exactly representable as doubles
+   private static final double[] POW10 = {
+         1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+         1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+   };
+
+   private byte[] buf;
+   private int pos, end;
+   private double latitude, longitude;
+   private int attributes;
+   private long timestamp;
+
+   private static byte[] ascii(String s) {
+      return s.getBytes(StandardCharsets.US_ASCII);
+   }
+
+
+   /**
+    * @return false if the message doesn't have the expected shape, the sink isn't called then.
+    */
+   public boolean decode(byte[] message, Sink sink) {
+      return decode(message, 0, message.length, sink);
+   }
+
+   public boolean decode(byte[] message, int offset, int length, Sink sink) {
+      buf = message;
+      pos = offset;
+      end = offset + length;
+      latitude = Double.NaN;
+      longitude = Double.NaN;
+      attributes = SupplyAttributes.UNCHANGED;
+      timestamp = UpdatePolicy.NO_TIMESTAMP;
+
+      try {
+         String id = null;
+         skipWhitespace();
+         expect('{');
+         if (!tryConsume('}')) {
+            do {
+               skipWhitespace();
+               int nameStart = pos + 1, nameEnd = skipString();
+               skipWhitespace();
+               expect(':');
+               skipWhitespace();
+
+               if (nameEquals(nameStart, nameEnd, ID) && peek() == '"') {
+                  id = readString();
+               } else if (nameEquals(nameStart, nameEnd, LOCATION) && peek() == '{') {
+                  readLocation();
+               } else if (nameEquals(nameStart, nameEnd, ATTRIBUTES) && peek() == '{') {
+                  readAttributes();
+               } else if (nameEquals(nameStart, nameEnd, TIMESTAMP)) {
+                  double value = readCoordinate();
+                  // NaN fails the comparison, a timestamp that isn't a number is ignored
+                  if (value > 0) timestamp = (long) value;
+               } else {
+                  skipValue();
+               }
+               skipWhitespace();
+            } while (tryConsume(','));
+            expect('}');
+         }
+         skipWhitespace();
+
+         if (pos != end || id == null || Double.isNaN(latitude) || Double.isNaN(longitude)) return false;
+         sink.accept(id, Math.toRadians(latitude), Math.toRadians(longitude), attributes, timestamp);
+         return true;
+      } catch (MalformedMessage | ArrayIndexOutOfBoundsException e) {
+         return false;
+      } finally {
+         buf = null;
+      }
+   }
+
+   private void readLocation() {
+      expect('{');
+      if (tryConsume('}')) return;
+
+      do {
+         skipWhitespace();
+         int nameStart = pos + 1, nameEnd = skipString();
+         skipWhitespace();
+         expect(':');
+         skipWhitespace();
+
+         if (nameEquals(nameStart, nameEnd, LATITUDE)) {
+            latitude = readCoordinate();
+         } else if (nameEquals(nameStart, nameEnd, LONGITUDE)) {
+            longitude = readCoordinate();
+         } else {
+            skipValue();
+         }
+         skipWhitespace();
+      } while (tryConsume(','));
+      expect('}');
+   }
+
+   private void readAttributes() {
+      int vehicleClass = 0, flags = 0, capacity = 0;
+      expect('{');
+      if (!tryConsume('}')) {
+         do {
+            skipWhitespace();
+            int nameStart = pos + 1, nameEnd = skipString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+
+            if (nameEquals(nameStart, nameEnd, VEHICLE_CLASS) && peek() == '"') {
+               vehicleClass = Math.max(0, readKey(CLASS_KEYS));
+            } else if (nameEquals(nameStart, nameEnd, STATUS) && peek() == '[') {
+               flags = readStatus();
+            } else if (nameEquals(nameStart, nameEnd, CAPACITY)) {
+               double value = readCoordinate();
+               // NaN fails both comparisons
+               capacity = value >= 0 ? (int) Math.min(value, SupplyAttributes.MAX_CAPACITY) : 0;
+            } else {
+               skipValue();
+            }
+            skipWhitespace();
+         } while (tryConsume(','));
+         expect('}');
+      }
+      attributes = SupplyAttributes.pack(CLASSES[vehicleClass], flags, capacity);
+   }
+
+   private int readStatus() {
+      int flags = 0;
+      expect('[');
+      if (tryConsume(']')) return 0;
+
+      do {
+         skipWhitespace();
+         if (peek() != '"') {
+            skipValue();
+         } else {
+            int status = readKey(STATUS_KEYS);
+            if (status >= 0) flags |= STATUSES[status].bit();
+         }
+         skipWhitespace();
+      } while (tryConsume(','));
+      expect(']');
+      return flags;
+   }
+
+   /**
+    * Reads a string without allocating it.
+    * @return the index of the matching key or -1.
+    */
+   private int readKey(byte[][] keys) {
+      int start = pos + 1, stringEnd = skipString();
+      for (int i = 0; i < keys.length; ++i) {
+         if (nameEquals(start, stringEnd, keys[i])) return i;
+      }
+      return -1;
+   }
+
+   /**
+    * Reads a number, possibly quoted, or returns NaN for any other value.
+    */
+   private double readCoordinate() {
+      byte c = peek();
+      if (c == '"') {
+         int start = pos + 1, stringEnd = skipString();
+         return parseNumber(start, stringEnd - 1, true);
+      }
+      if (c == '-' || (c >= '0' && c <= '9')) {
+         int start = pos;
+         skipNumber();
+         return parseNumber(start, pos, false);
+      }
+      skipValue();
+      return Double.NaN;
+   }
+
+   private byte peek() {
+      if (pos >= end) throw MALFORMED;
+      return buf[pos];
+   }
+
+   private void expect(char c) {
+      if (pos >= end || buf[pos] != c) throw MALFORMED;
+      ++pos;
+   }
+
+   private boolean tryConsume(char c) {
+      skipWhitespace();
+      if (pos < end && buf[pos] == c) {
+         ++pos;
+         return true;
+      }
+      return false;
+   }
+
+   private void skipWhitespace() {
+      while (pos < end) {
+         byte c = buf[pos];
+         if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return;
+         ++pos;
+      }
+   }
+
+   /**
+    * Skips the string starting at the current position.
+    * @return the position right after its closing quote.
+    */
+   private int skipString() {
+      expect('"');
+      while (true) {
+         if (pos >= end) throw MALFORMED;
+         byte c = buf[pos++];
+         if (c == '"') return pos;
+         if (c == '\\') ++pos;
+      }
+   }
+
+   private boolean nameEquals(int nameStart, int nameEnd, byte[] name) {
+      // nameEnd is right after the closing quote
+      int length = nameEnd - 1 - nameStart;
+      if (length != name.length) return false;
+      for (int i = 0; i < length; ++i) {
+         if (buf[nameStart + i] != name[i]) return false;
+      }
+      return true;
+   }
+
+   private String readString() {
+      int start = pos + 1, stringEnd = skipString();
+      for (int i = start; i < stringEnd - 1; ++i) {
+         if (buf[i] == '\\') return unescape(start, stringEnd - 1);
+      }
+      return new String(buf, start, stringEnd - 1 - start, StandardCharsets.UTF_8);
+   }
+
+   private String unescape(int start, int stringEnd) {
+      StringBuilder sb = new StringBuilder(stringEnd - start);
+      int chunk = start;
+      for (int i = start; i < stringEnd; ++i) {
+         if (buf[i] != '\\') continue;
+
+         sb.append(new String(buf, chunk, i - chunk, StandardCharsets.UTF_8));
+         byte c = buf[++i];
+         switch (c) {
+            case 'b': sb.append('\b'); break;
+            case 'f': sb.append('\f'); break;
+            case 'n': sb.append('\n'); break;
+            case 'r': sb.append('\r'); break;
+            case 't': sb.append('\t'); break;
+            case 'u':
+               if (i + 4 >= stringEnd) throw MALFORMED;
+               try {
+                  sb.append((char) Integer.parseInt(new String(buf, i + 1, 4, StandardCharsets.US_ASCII), 16));
+               } catch (NumberFormatException e) {
+                  throw MALFORMED;
+               }
+               i += 4;
+               break;
+            default: sb.append((char) c);
+         }
+         chunk = i + 1;
+      }
+      sb.append(new String(buf, chunk, stringEnd - chunk, StandardCharsets.UTF_8));
+      return sb.toString();
+   }
+
+   private void skipNumber() {
+      while (pos < end) {
+         byte c = buf[pos];
+         if (!((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E')) return;
+         ++pos;
+      }
+   }
+
+   private void skipValue() {
+      byte c = peek();
+      if (c == '"') {
+         skipString();
+      } else if (c == '{' || c == '[') {
+         int depth = 0;
+         do {
+            c = peek();
+            if (c == '"') {
+               skipString();
+               continue;
+            }
+            if (c == '{' || c == '[') ++depth;
+            else if (c == '}' || c == ']') --depth;
+            ++pos;
+         } while (depth > 0);
+      } else if (c == '-' || (c >= '0' && c <= '9')) {
+         skipNumber();
+      } else if (c == 't' || c == 'f' || c == 'n') {
+         while (pos < end && buf[pos] >= 'a' && buf[pos] <= 'z') ++pos;
+      } else {
+         throw MALFORMED;
+      }
+   }
+
+   /**
+    * Parses a JSON number in [start, numberEnd). Up to 15 significant digits with a small
+    * exponent are parsed exactly without allocation, anything else falls back to the JDK.
+    */
+   private double parseNumber(int start, int numberEnd, boolean quoted) {
+      int i = start;
+      boolean negative = i < numberEnd && buf[i] == '-';
+      if (negative) ++i;
+
+      long mantissa = 0;
+      int digits = 0, scale = 0;
+      boolean anyDigit = false, dot = false;
+      for (; i < numberEnd; ++i) {
+         byte c = buf[i];
+         if (c >= '0' && c <= '9') {
+            anyDigit = true;
+            if (mantissa == 0 && c == '0') {
+               if (dot) ++scale;
+               continue;
+            }
+            if (++digits > 15) return parseSlow(start, numberEnd, quoted);
+            mantissa = mantissa * 10 + (c - '0');
+            if (dot) ++scale;
+         } else if (c == '.' && !dot) {
+            dot = true;
+         } else {
+            break;
+         }
+      }
+      if (!anyDigit) return quoted ? Double.NaN : fail();
+      if (i < numberEnd) {
+         if (buf[i] != 'e' && buf[i] != 'E') return quoted ? Double.NaN : fail();
+         return parseSlow(start, numberEnd, quoted);
+      }
+      if (scale >= POW10.length) return parseSlow(start, numberEnd, quoted);
+
+      // both operands are exact, so the single division is correctly rounded
+      double value = mantissa / POW10[scale];
+      return negative ? -value : value;
+   }
+
+   private double parseSlow(int start, int numberEnd, boolean quoted) {
+      try {
+         return Double.parseDouble(new String(buf, start, numberEnd - start, StandardCharsets.US_ASCII));
+      } catch (NumberFormatException e) {
+         return quoted ? Double.NaN : fail();
+      }
+   }
+
+   private static double fail() {
+      throw MALFORMED;
+   }
+}
@@ -0,0 +1,157 @@
+package uber.location_service.ingestion;
+
+import uber.location_service.structures.SupplyAttributes;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Decoder of the fixed-layout binary supply record, the compact alternative to the JSON
+ * message for the high rate producers. A record takes {@link #RECORD_SIZE} bytes, big-endian:
+ * <pre>
+ *  0  byte      version, {@link #VERSION} - never the first byte of a JSON message
+ *  1  byte      id length, 1..{@link #MAX_ID_LENGTH}
+ *  2  short     reserved, 0
+ *  4  int       latitude, in 1e-7 degrees
+ *  8  int       longitude, in 1e-7 degrees
+ * 12  int       packed attributes, {@link SupplyAttributes#UNCHANGED} if none
+ * 16  long      timestamp of the position, epoch millis
+ * 24  40 bytes  id, UTF-8, zero padded - a UUID fits
+ * </pre>
+ * A message carries one or more records back to back, they go to the same sink as the JSON
+ * messages. The ids are interned in a direct-mapped cache, so the records of the instances seen
+ * before are decoded without allocating. Instances keep the cache and must not be shared
+ * between threads.
+ */
+public class SupplyRecordDecoder {
+   public static final byte VERSION = (byte) 0x81;
+   public static final int RECORD_SIZE = 64;
+   public static final int MAX_ID_LENGTH = 40;
+
+   private static final int ID_LENGTH = 1, LATITUDE = 4, LONGITUDE = 8, ATTRIBUTES = 12, TIMESTAMP = 16, ID = 24;
+   private static final double SCALE = 1e7;
+   private static final int MAX_LATITUDE = 90 * (int) SCALE, MAX_LONGITUDE = 180 * (int) SCALE;
+
+   private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+   private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+   private final byte[][] idBytes;
+   private final String[] ids;
+   private final byte[] scratch = new byte[RECORD_SIZE]; // records of direct buffers are copied here
+
+   public SupplyRecordDecoder() {
+      this(1 << 14);
+   }
+
+   /**
+    * @param idCacheSize the number of ids interned, rounded up to a power of two.
+    */
+   public SupplyRecordDecoder(int idCacheSize) {
+      if (idCacheSize < 1) throw new IllegalArgumentException("Id cache size must be positive");
+
+      int size = Integer.highestOneBit(Math.max(1, idCacheSize - 1)) << 1;
+      this.idBytes = new byte[size][];
+      this.ids = new String[size];
+   }
+
+   public static boolean isRecord(byte[] message) {
+      return message.length > 0 && message[0] == VERSION;
+   }
+
+   /**
+    * @return false if the message isn't a whole number of well-formed records, the sink
+    * isn't called then.
+    */
+   public boolean decode(byte[] message, SupplyMessageDecoder.Sink sink) {
+      if (message.length == 0 || message.length % RECORD_SIZE != 0) return false;
+      for (int offset = 0; offset < message.length; offset += RECORD_SIZE) {
+         if (!isValid(message, offset)) return false;
+      }
+      for (int offset = 0; offset < message.length; offset += RECORD_SIZE) accept(message, offset, sink);
+      return true;
+   }
+
+   /**
+    * Decodes the record at the position of the buffer, which must have at least
+    * {@link #RECORD_SIZE} bytes remaining, and moves the position past it.
+    * @return false if the record is malformed, the sink isn't called then.
+    */
+   public boolean decode(ByteBuffer buf, SupplyMessageDecoder.Sink sink) {
+      final byte[] bytes;
+      final int offset;
+      if (buf.hasArray()) {
+         bytes = buf.array();
+         offset = buf.arrayOffset() + buf.position();
+         buf.position(buf.position() + RECORD_SIZE);
+      } else {
+         buf.get(scratch);
+         bytes = scratch;
+         offset = 0;
+      }
+
+      if (!isValid(bytes, offset)) return false;
+      accept(bytes, offset, sink);
+      return true;
+   }
+
+   private static boolean isValid(byte[] bytes, int offset) {
+      int idLength = bytes[offset + ID_LENGTH];
+      int latitude = (int) INT.get(bytes, offset + LATITUDE), longitude = (int) INT.get(bytes, offset + LONGITUDE);
+      return bytes[offset] == VERSION && idLength > 0 && idLength <= MAX_ID_LENGTH &&
+            latitude >= -MAX_LATITUDE && latitude <= MAX_LATITUDE &&
+            longitude >= -MAX_LONGITUDE && longitude <= MAX_LONGITUDE &&
+            SupplyAttributes.isValid((int) INT.get(bytes, offset + ATTRIBUTES));
+   }
+
+   private void accept(byte[] bytes, int offset, SupplyMessageDecoder.Sink sink) {
+      sink.accept(intern(bytes, offset + ID, bytes[offset + ID_LENGTH]),
+            Math.toRadians((int) INT.get(bytes, offset + LATITUDE) / SCALE),
+            Math.toRadians((int) INT.get(bytes, offset + LONGITUDE) / SCALE),
+            (int) INT.get(bytes, offset + ATTRIBUTES),
+            (long) LONG.get(bytes, offset + TIMESTAMP));
+   }
+
+   private String intern(byte[] bytes, int from, int length) {
+      int hash = 0;
+      for (int i = from; i < from + length; ++i) hash = 31 * hash + bytes[i];
+      int slot = (hash ^ hash >>> 16) & (ids.length - 1);
+
+      byte[] cached = idBytes[slot];
+      if (cached != null && Arrays.equals(cached, 0, cached.length, bytes, from, from + length)) return ids[slot];
+
+      // a colliding id replaces the cached one
+      cached = Arrays.copyOfRange(bytes, from, from + length);
+      idBytes[slot] = cached;
+      return ids[slot] = new String(cached, StandardCharsets.UTF_8);
+   }
+
+   /**
+    * Writes a record at the position of the buffer and moves the position past it.
+    * @param latitude in degrees.
+    * @param longitude in degrees.
+    * @param attributes packed, {@link SupplyAttributes#UNCHANGED} if none.
+    */
+   public static void encode(ByteBuffer buf, String id, double latitude, double longitude,
+                             int attributes, long timestamp) {
+      byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+      if (idBytes.length == 0 || idBytes.length > MAX_ID_LENGTH)
+         throw new IllegalArgumentException("Id must take 1 to " + MAX_ID_LENGTH + " bytes: " + id);
+      if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180)
+         throw new IllegalArgumentException("Location out of range: " + latitude + ", " + longitude);
+
+      ByteOrder order = buf.order();
+      buf.order(ByteOrder.BIG_ENDIAN)
+            .put(VERSION).put((byte) idBytes.length).putShort((short) 0)
+            .putInt((int) Math.round(latitude * SCALE))
+            .putInt((int) Math.round(longitude * SCALE))
+            .putInt(attributes)
+            .putLong(timestamp)
+            .put(idBytes)
+            .put(new byte[MAX_ID_LENGTH - idBytes.length])
+            .order(order);
+   }
+}
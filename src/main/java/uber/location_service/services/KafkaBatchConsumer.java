@@ -0,0 +1,124 @@
+package uber.location_service.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.stereotype.Service;
+import uber.location_service.configuration.KafkaBatchConfiguration;
+import uber.location_service.ingestion.ConsumedOffsets;
+import uber.location_service.ingestion.SupplyMessageDecoder;
+import uber.location_service.ingestion.SupplyRecordDecoder;
+import uber.location_service.storage.SupplyBatch;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batch ingestion mode - consumes whole poll batches, keeps only the latest position
+ * per supply id within the batch and applies the survivors in one bulk store update.
+ * The positions are ordered by their timestamps, the record timestamp stands in for
+ * the messages without one.
+ * The values are JSON messages or binary records, told apart by the first byte.
+ * supply.ingest.latency is the time from producing a record to applying it,
+ * the offset lag comes with the Kafka client metrics (kafka.consumer.fetch.manager.records.lag).
+ */
+@Service
+@ConditionalOnProperty(name = "supply-location.kafka.batch.enabled", havingValue = "true")
+public class KafkaBatchConsumer implements ConsumerSeekAware {
+   private final Logger logger = LoggerFactory.getLogger(KafkaBatchConsumer.class);
+   private final SupplyLocationImpl impl;
+   private final ConsumedOffsets consumedOffsets;
+   private final SupplyMessageDecoder decoder = new SupplyMessageDecoder();
+   private final SupplyRecordDecoder recordDecoder = new SupplyRecordDecoder();
+   // the listener container polls from a single thread, so the buffer is reused
+   private final SupplyBatch batch = new SupplyBatch(512);
+   private ConsumerRecord<String, byte[]> current;
+   private final SupplyMessageDecoder.Sink sink = (id, latitude, longitude, attributes, timestamp) ->
+         batch.put(id, latitude, longitude, attributes, KafkaConsumer.timestampOf(timestamp, current));
+
+   private final Counter receivedCounter, coalescedCounter, rejectedCounter, appliedCounter;
+   private final DistributionSummary batchSizeSummary;
+   private final Timer latencyTimer, applyTimer;
+
+   @Autowired
+   public KafkaBatchConsumer(final SupplyLocationImpl impl, final ConsumedOffsets consumedOffsets,
+                             final MeterRegistry registry) {
+      this.impl = impl;
+      this.consumedOffsets = consumedOffsets;
+      this.receivedCounter = registry.counter("supply.ingest.received");
+      this.coalescedCounter = registry.counter("supply.ingest.coalesced");
+      this.rejectedCounter = registry.counter("supply.ingest.rejected");
+      this.appliedCounter = registry.counter("supply.ingest.applied");
+      this.batchSizeSummary = registry.summary("supply.ingest.batch.size");
+      this.latencyTimer = registry.timer("supply.ingest.latency");
+      this.applyTimer = registry.timer("supply.ingest.apply");
+   }
+
+   @Override
+   public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+      consumedOffsets.seekOnAssignment(assignments, callback);
+   }
+
+   @KafkaListener(topics = "supply-location", groupId = "${spring.kafka.consumer.group-id:group_id}",
+         containerFactory = KafkaBatchConfiguration.BATCH_FACTORY)
+   public void consume(List<ConsumerRecord<String, byte[]>> records) {
+      logger.debug(String.format("#### -> Kafka consumed batch of %d messages", records.size()));
+
+      // the records of an id come from several partitions once it crosses the shard regions
+      // (see ShardPartitioner), so the latest timestamp wins rather than the last record
+      int rejected = 0;
+      for (ConsumerRecord<String, byte[]> record : records) {
+         byte[] message = record.value();
+         current = record;
+         boolean decoded = SupplyRecordDecoder.isRecord(message) ?
+               recordDecoder.decode(message, sink) : decoder.decode(message, sink);
+         if (!decoded) {
+            ++rejected;
+            logger.warn(String.format("#### -> Kafka skipped message -> %s", KafkaConsumer.describe(message)));
+         }
+      }
+
+      try {
+         final long started = System.nanoTime();
+         impl.updateSupplyBatch(batch);
+         applyTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+         markApplied(records);
+
+         final long now = System.currentTimeMillis();
+         for (ConsumerRecord<String, byte[]> record : records) {
+            if (record.timestamp() >= 0) latencyTimer.record(Math.max(0, now - record.timestamp()), TimeUnit.MILLISECONDS);
+         }
+         receivedCounter.increment(records.size());
+         appliedCounter.increment(batch.size());
+         rejectedCounter.increment(rejected);
+         coalescedCounter.increment(batch.getCoalesced());
+         batchSizeSummary.record(records.size());
+      } finally {
+         batch.clear();
+      }
+   }
+
+   /**
+    * Records the last offset of every partition in the batch.
+    */
+   private void markApplied(List<ConsumerRecord<String, byte[]>> records) {
+      ConsumerRecord<String, byte[]> last = null;
+      for (ConsumerRecord<String, byte[]> record : records) {
+         if (last != null && (last.partition() != record.partition() || !last.topic().equals(record.topic()))) {
+            consumedOffsets.applied(last.topic(), last.partition(), last.offset());
+         }
+         last = record;
+      }
+      if (last != null) consumedOffsets.applied(last.topic(), last.partition(), last.offset());
+   }
+}
@@ -1,31 +1,92 @@
 package uber.location_service.services;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
 import org.springframework.stereotype.Service;
-import uber.location_service.structures.SupplyInstance;
+import uber.location_service.ingestion.ConsumedOffsets;
+import uber.location_service.ingestion.SupplyMessageDecoder;
+import uber.location_service.ingestion.SupplyRecordDecoder;
+import uber.location_service.storage.UpdatePolicy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Service
-public class KafkaConsumer {
+@ConditionalOnProperty(name = "supply-location.kafka.batch.enabled", havingValue = "false", matchIfMissing = true)
+public class KafkaConsumer implements ConsumerSeekAware {
    private final Logger logger = LoggerFactory.getLogger(KafkaConsumer.class);
    private final SupplyLocationImpl impl;
-   private final ObjectMapper jsonMapper = new ObjectMapper();
+   private final ConsumedOffsets consumedOffsets;
+   private final SupplyMessageDecoder decoder = new SupplyMessageDecoder();
+   private final SupplyRecordDecoder recordDecoder = new SupplyRecordDecoder();
+   private final SupplyMessageDecoder.Sink sink;
+   // the listener container polls from a single thread
+   private ConsumerRecord<String, byte[]> current;
+
+   private final Counter receivedCounter, rejectedCounter;
+   private final Timer latencyTimer;
 
    @Autowired
-   public KafkaConsumer(final SupplyLocationImpl impl) {
+   public KafkaConsumer(final SupplyLocationImpl impl, final ConsumedOffsets consumedOffsets,
+                        final MeterRegistry registry) {
       this.impl = impl;
+      this.consumedOffsets = consumedOffsets;
+      this.sink = (id, latitude, longitude, attributes, timestamp) ->
+            impl.updateSupply(id, latitude, longitude, attributes, timestampOf(timestamp, current));
+      this.receivedCounter = registry.counter("supply.ingest.received");
+      this.rejectedCounter = registry.counter("supply.ingest.rejected");
+      this.latencyTimer = registry.timer("supply.ingest.latency");
+   }
+
+   @Override
+   public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+      consumedOffsets.seekOnAssignment(assignments, callback);
    }
 
-   @KafkaListener(topics = "supply-location", groupId = "group_id")
-   public void consume(String message) throws JsonProcessingException {
-      logger.debug(String.format("#### -> Kafka consumed message -> %s", message));
+   /**
+    * Takes both the JSON messages and the binary records, told apart by the first byte.
+    */
+   @KafkaListener(topics = "supply-location", groupId = "${spring.kafka.consumer.group-id:group_id}")
+   public void consume(ConsumerRecord<String, byte[]> record) {
+      byte[] message = record.value();
+      if (logger.isDebugEnabled()) {
+         logger.debug(String.format("#### -> Kafka consumed message -> %s", describe(message)));
+      }
+
+      receivedCounter.increment();
+      current = record;
+      boolean decoded = SupplyRecordDecoder.isRecord(message) ?
+            recordDecoder.decode(message, sink) : decoder.decode(message, sink);
+      if (!decoded) {
+         rejectedCounter.increment();
+         logger.warn(String.format("#### -> Kafka skipped message -> %s", describe(message)));
+      }
+      consumedOffsets.applied(record.topic(), record.partition(), record.offset());
+      if (record.timestamp() >= 0) {
+         latencyTimer.record(Math.max(0, System.currentTimeMillis() - record.timestamp()), TimeUnit.MILLISECONDS);
+      }
+   }
+
+   /**
+    * @return the timestamp of the message, the record timestamp for the messages without one.
+    */
+   static long timestampOf(long timestamp, ConsumerRecord<?, ?> record) {
+      if (timestamp != UpdatePolicy.NO_TIMESTAMP) return timestamp;
+      return record.timestamp() > 0 ? record.timestamp() : UpdatePolicy.NO_TIMESTAMP;
+   }
 
-      final SupplyInstance ins = jsonMapper.readValue(message, SupplyInstance.class);
-      ins.getLocation().transformToRadians();
-      impl.updateSupply(ins);
+   static String describe(byte[] message) {
+      return SupplyRecordDecoder.isRecord(message) ?
+            message.length + " bytes of binary records" : new String(message, StandardCharsets.UTF_8);
    }
-}
\ No newline at end of file
+}
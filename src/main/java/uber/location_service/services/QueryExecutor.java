@@ -0,0 +1,171 @@
+package uber.location_service.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+import uber.location_service.configuration.SupplyLocationProperties;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs the location queries off the servlet threads with admission control. Queries wait
+ * in a bounded queue of a dedicated pool - or run on virtual threads, bounded by the same
+ * number of permits - and the ones that don't fit are shed right away with a 503 and
+ * Retry-After. Every query gets a deadline, after which it's answered the same way and
+ * skipped if it didn't start yet. The time a query waits for a thread and the time it
+ * computes are recorded apart, as supply.query.wait and supply.query.compute per endpoint.
+ */
+@Component
+public class QueryExecutor {
+   private final Logger logger = LoggerFactory.getLogger(QueryExecutor.class);
+
+   private final ExecutorService executor;
+   private final ThreadPoolExecutor pool; // null in the virtual thread mode
+   private final Semaphore permits; // null in the pool mode
+   private final AtomicInteger pending = new AtomicInteger();
+   private final long timeoutMs;
+   private final String retryAfterSeconds;
+
+   private final MeterRegistry registry;
+   private final ConcurrentHashMap<String, Timer[]> timers = new ConcurrentHashMap<>(); // wait, compute
+
+   @Autowired
+   public QueryExecutor(final SupplyLocationProperties properties, final MeterRegistry registry) {
+      this(properties.getQuery().getThreads(), properties.getQuery().getQueueCapacity(),
+            properties.getQuery().getTimeoutMs(), properties.getQuery().getRetryAfterSeconds(),
+            properties.getQuery().isVirtualThreads(), registry);
+   }
+
+   /**
+    * @param threads 0 - one per core.
+    */
+   public QueryExecutor(int threads, int queueCapacity, long timeoutMs, int retryAfterSeconds,
+                        boolean virtualThreads, final MeterRegistry registry) {
+      if (threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+      this.timeoutMs = timeoutMs;
+      this.retryAfterSeconds = Integer.toString(retryAfterSeconds);
+      this.registry = registry;
+
+      ExecutorService virtual = virtualThreads ? newVirtualThreadExecutor() : null;
+      if (virtual != null) {
+         this.executor = virtual;
+         this.pool = null;
+         this.permits = new Semaphore(threads + queueCapacity);
+      } else {
+         this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+               new ArrayBlockingQueue<>(queueCapacity), namedThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+         this.executor = pool;
+         this.permits = null;
+      }
+
+      registry.gauge("supply.query.pending", pending);
+      if (pool != null) {
+         registry.gauge("supply.query.queue.depth", pool, p -> p.getQueue().size());
+         registry.gauge("supply.query.active", pool, ThreadPoolExecutor::getActiveCount);
+      }
+   }
+
+   private ExecutorService newVirtualThreadExecutor() {
+      // the service targets Java 11, so the Java 21 factory is looked up at runtime
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+         logger.warn("Virtual threads are not available in this JVM, using the query thread pool");
+         return null;
+      }
+   }
+
+   private static ThreadFactory namedThreadFactory() {
+      AtomicInteger counter = new AtomicInteger();
+      return r -> {
+         Thread t = new Thread(r, "supply-query-" + counter.incrementAndGet());
+         t.setDaemon(true);
+         return t;
+      };
+   }
+
+   private Timer[] timers(String endpoint) {
+      Timer[] res = timers.get(endpoint);
+      if (res != null) return res;
+      return timers.computeIfAbsent(endpoint, e -> new Timer[] {
+            registry.timer("supply.query.wait", "endpoint", e),
+            registry.timer("supply.query.compute", "endpoint", e)});
+   }
+
+   /**
+    * Schedules the query, its result is answered with 200 OK.
+    * @param endpoint tags the rejection and timeout metrics.
+    */
+   public DeferredResult<ResponseEntity<Object>> submit(String endpoint, Supplier<Object> query) {
+      DeferredResult<ResponseEntity<Object>> output = new DeferredResult<>(timeoutMs);
+      output.onTimeout(() -> {
+         registry.counter("supply.query.timeouts", "endpoint", endpoint).increment();
+         output.setResult(unavailable("Query deadline exceeded"));
+      });
+
+      if (permits != null && !permits.tryAcquire()) {
+         return reject(endpoint, output);
+      }
+
+      final Timer[] timers = timers(endpoint);
+      final long submitted = System.nanoTime();
+      pending.incrementAndGet();
+      try {
+         executor.execute(() -> {
+            pending.decrementAndGet();
+            final long started = System.nanoTime();
+            timers[0].record(started - submitted, TimeUnit.NANOSECONDS);
+            try {
+               // expired while queued - nobody waits for the result anymore
+               if (output.isSetOrExpired()) return;
+               Object result = query.get();
+               timers[1].record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+               output.setResult(new ResponseEntity<>(result, HttpStatus.OK));
+            } catch (RuntimeException e) {
+               output.setErrorResult(e);
+            } finally {
+               if (permits != null) permits.release();
+            }
+         });
+      } catch (RejectedExecutionException e) {
+         pending.decrementAndGet();
+         return reject(endpoint, output);
+      }
+      return output;
+   }
+
+   private DeferredResult<ResponseEntity<Object>> reject(String endpoint, DeferredResult<ResponseEntity<Object>> output) {
+      registry.counter("supply.query.rejected", "endpoint", endpoint).increment();
+      output.setResult(unavailable("Too many queries in flight"));
+      return output;
+   }
+
+   private ResponseEntity<Object> unavailable(String message) {
+      Map<String, Object> body = new HashMap<>();
+      body.put("timestamp", LocalDateTime.now());
+      body.put("message", message);
+
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+            .body(body);
+   }
+
+   @PreDestroy
+   public void shutdown() {
+      executor.shutdownNow();
+   }
+}
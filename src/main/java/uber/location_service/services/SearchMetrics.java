@@ -0,0 +1,35 @@
+package uber.location_service.services;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import uber.location_service.algo.SearchObserver;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Exports the work of the searches - supply.search.examined, the instances a search looked at,
+ * and supply.search.doublings, the times it had to double its distance, tagged by the kind.
+ */
+class SearchMetrics implements SearchObserver {
+   private final MeterRegistry registry;
+   private final ConcurrentHashMap<String, DistributionSummary> examined = new ConcurrentHashMap<>();
+   private final ConcurrentHashMap<String, DistributionSummary> doublings = new ConcurrentHashMap<>();
+
+   SearchMetrics(MeterRegistry registry) {
+      this.registry = registry;
+   }
+
+   private DistributionSummary summary(ConcurrentHashMap<String, DistributionSummary> summaries,
+                                       String name, String kind) {
+      // get first, so the registered summaries are found without allocating
+      DistributionSummary summary = summaries.get(kind);
+      if (summary != null) return summary;
+      return summaries.computeIfAbsent(kind, k -> registry.summary(name, "kind", k));
+   }
+
+   @Override
+   public void searched(String kind, int examined, int doublings) {
+      summary(this.examined, "supply.search.examined", kind).record(examined);
+      summary(this.doublings, "supply.search.doublings", kind).record(doublings);
+   }
+}
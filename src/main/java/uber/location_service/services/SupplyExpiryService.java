@@ -0,0 +1,63 @@
+package uber.location_service.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import uber.location_service.configuration.SupplyLocationProperties;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically drops the supply instances that weren't updated within the time to live,
+ * the store finds them through its timing wheel without scanning.
+ */
+@Service
+public class SupplyExpiryService {
+   private final Logger logger = LoggerFactory.getLogger(SupplyExpiryService.class);
+   private final SupplyLocationImpl impl;
+   private final ScheduledExecutorService scheduler;
+   private final Counter expiredCounter;
+
+   @Autowired
+   public SupplyExpiryService(
+         final SupplyLocationImpl impl, final MeterRegistry registry, final SupplyLocationProperties properties) {
+      final long ttlSeconds = properties.getExpiry().getTtlSeconds();
+      final long intervalMs = properties.getExpiry().getIntervalMs();
+      this.impl = impl;
+      this.expiredCounter = registry.counter("supply.store.expired");
+      registry.gauge("supply.store.live", impl, SupplyLocationImpl::getSupplyCount);
+
+      if (ttlSeconds <= 0) {
+         this.scheduler = null;
+         return;
+      }
+      this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "supply-expiry");
+         t.setDaemon(true);
+         return t;
+      });
+      scheduler.scheduleWithFixedDelay(this::expire, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+   }
+
+   void expire() {
+      try {
+         int expired = impl.expireSupply();
+         expiredCounter.increment(expired);
+         if (expired > 0) logger.debug(String.format("#### -> Expired %d supply instances", expired));
+      } catch (RuntimeException e) {
+         // an exception would cancel the periodic task
+         logger.error("#### -> Supply expiry failed", e);
+      }
+   }
+
+   @PreDestroy
+   public void shutdown() {
+      if (scheduler != null) scheduler.shutdownNow();
+   }
+}
@@ -0,0 +1,11 @@
+package uber.location_service.services;
+
+/**
+ * Receives the changes of the supply store after they're applied, positions in radians.
+ * Called on the ingesting threads, so the listeners have to be cheap.
+ */
+public interface SupplyListener {
+   void updated(String id, double latitude, double longitude);
+
+   void removed(String id);
+}
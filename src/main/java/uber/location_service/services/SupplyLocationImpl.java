@@ -1,44 +1,366 @@
 package uber.location_service.services;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import uber.location_service.algo.AlgoInterface;
+import uber.location_service.algo.DistanceKernel;
+import uber.location_service.algo.GeoGrid;
+import uber.location_service.algo.ParallelScan;
+import uber.location_service.algo.SearchObserver;
+import uber.location_service.algo.SupplyIndex;
+import uber.location_service.cache.QueryResultCache;
+import uber.location_service.configuration.SupplyLocationProperties;
+import uber.location_service.storage.ArraySupplyStore;
+import uber.location_service.storage.CellVersions;
+import uber.location_service.storage.EpochSupplyStore;
+import uber.location_service.storage.MapSupplyStore;
+import uber.location_service.storage.SupplyBatch;
+import uber.location_service.storage.SupplyDensity;
+import uber.location_service.storage.SupplyStore;
+import uber.location_service.storage.UpdatePolicy;
+import uber.location_service.structures.DensityCell;
 import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.NearestSupplyInstance;
+import uber.location_service.structures.SupplyAttributes;
+import uber.location_service.structures.SupplyFilter;
 import uber.location_service.structures.SupplyInstance;
+import uber.location_service.structures.SupplyPositions;
+import uber.location_service.structures.SupplyQuery;
 
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class SupplyLocationImpl {
    private final AlgoInterface algoInterface;
-   protected ConcurrentHashMap<String, SupplyInstance> lhm;
+   protected SupplyStore store;
+   private final QueryResultCache cache; // null when disabled
+   private final SupplyDensity density; // null when disabled
+   private final List<SupplyListener> listeners = new CopyOnWriteArrayList<>();
+   private final Counter[] outcomeCounters; // by outcome, null without a registry
 
-   public SupplyLocationImpl() {
-      this.algoInterface = new AlgoInterface();
-      this.lhm = new ConcurrentHashMap<>(100);
+   /**
+    * Without the metrics.
+    */
+   public SupplyLocationImpl(SupplyLocationProperties properties) {
+      this(properties, null);
+   }
+
+   @Autowired
+   public SupplyLocationImpl(final SupplyLocationProperties properties, final MeterRegistry registry) {
+      final SupplyLocationProperties.Radius radius = properties.getRadius();
+      final SupplyLocationProperties.Cache cacheProperties = properties.getCache();
+      final SupplyLocationProperties.Density densityProperties = properties.getDensity();
+      this.algoInterface = new AlgoInterface(radius.getMinDistanceKm(), radius.getMaxDistanceKm(),
+            radius.getMinCandidates(), registry == null ? SearchObserver.NONE : new SearchMetrics(registry),
+            ParallelScan.create(properties.getParallel().getThreads(), properties.getParallel().getMinEntries()));
+      this.store = createStore(properties.getStore(), new GeoGrid(properties.getIndex().getCellSizeDegrees()),
+            TimeUnit.SECONDS.toMillis(properties.getExpiry().getTtlSeconds()),
+            new UpdatePolicy(properties.getUpdate().getMinMovementMeters()), properties.getEpoch(), registry);
+      if (cacheProperties.getMaxEntries() > 0) {
+         CellVersions versions = new CellVersions(new GeoGrid(cacheProperties.getCellSizeDegrees()), 1 << 18);
+         store.setCellVersions(versions);
+         this.cache = new QueryResultCache(versions, cacheProperties.getMaxEntries(),
+               cacheProperties.getQuantumDegrees(), cacheProperties.getMaxCells(), registry);
+      } else {
+         this.cache = null;
+      }
+      if (densityProperties.getLevels() > 0) {
+         this.density = new SupplyDensity(new GeoGrid(densityProperties.getCellSizeDegrees()),
+               densityProperties.getLevels());
+         store.setDensity(density);
+      } else {
+         this.density = null;
+      }
+
+      if (registry != null) {
+         this.outcomeCounters = new Counter[SupplyStore.Outcome.values().length];
+         for (SupplyStore.Outcome outcome : SupplyStore.Outcome.values()) {
+            outcomeCounters[outcome.ordinal()] = registry.counter("supply.store.updates",
+                  "outcome", outcome.name().toLowerCase(Locale.ROOT));
+         }
+      } else {
+         this.outcomeCounters = null;
+      }
+   }
+
+   private static SupplyStore createStore(String storeType, GeoGrid grid, long ttlMs, UpdatePolicy policy,
+                                          SupplyLocationProperties.Epoch epoch, MeterRegistry registry) {
+      switch (storeType) {
+         case "map":
+            return new MapSupplyStore(grid, ttlMs, System::currentTimeMillis, policy);
+         case "array":
+            return new ArraySupplyStore(grid, 1024, ttlMs, System::currentTimeMillis, policy);
+         case "epoch":
+            return new EpochSupplyStore(grid, 1024, ttlMs, System::currentTimeMillis, policy,
+                  epoch.getPublishIntervalMs(), epoch.getMaxPendingUpdates(), registry);
+         default:
+            throw new IllegalArgumentException("Unknown supply store type: " + storeType);
+      }
+   }
+
+   public void addSupplyListener(SupplyListener listener) {
+      listeners.add(listener);
    }
 
    public void  updateSupply(SupplyInstance val) {
-      lhm.put(val.getId(), val);
+      updateSupply(val.getId(), val.getLocation().getLatitude(), val.getLocation().getLongitude(),
+            val.packedAttributes(), val.getTimestamp());
    }
 
-   public List<SupplyInstance> getRadiusSupply(GeoPoint location) {
-      List<SupplyInstance> res = algoInterface.getRadiusSupply(lhm, location);
-      for (SupplyInstance ins : res) ins.getLocation().transformToDegrees();
-      return res;
+   /**
+    * @param latitude the latitude, in radians.
+    * @param longitude the longitude, in radians.
+    */
+   public void updateSupply(String id, double latitude, double longitude) {
+      updateSupply(id, latitude, longitude, SupplyAttributes.UNCHANGED);
+   }
+
+   /**
+    * @param attributes packed, {@link SupplyAttributes#UNCHANGED} keeps the stored ones.
+    */
+   public void updateSupply(String id, double latitude, double longitude, int attributes) {
+      updateSupply(id, latitude, longitude, attributes, UpdatePolicy.NO_TIMESTAMP);
+   }
+
+   /**
+    * The listeners hear only of the updates that moved the instance, see {@link UpdatePolicy}.
+    * @param timestamp of the position, {@link UpdatePolicy#NO_TIMESTAMP} if not known.
+    */
+   public void updateSupply(String id, double latitude, double longitude, int attributes, long timestamp) {
+      SupplyStore.Outcome outcome = store.update(id, latitude, longitude, attributes, timestamp);
+      if (outcomeCounters != null) outcomeCounters[outcome.ordinal()].increment();
+      if (outcome != SupplyStore.Outcome.APPLIED) return;
+      for (SupplyListener l : listeners) l.updated(id, latitude, longitude);
    }
 
-   public List<SupplyInstance> getClosestSupply(GeoPoint location) {
-      List<SupplyInstance> res = algoInterface.getClosestSupply(lhm, location);
-      for (SupplyInstance ins : res) ins.getLocation().transformToDegrees();
+   /**
+    * @param batch coalesced updates, applied in one bulk operation.
+    */
+   public void updateSupplyBatch(SupplyBatch batch) {
+      store.updateAll(batch);
+      if (outcomeCounters != null) {
+         int[] counts = new int[outcomeCounters.length];
+         for (int i = 0; i < batch.size(); ++i) ++counts[batch.getOutcome(i).ordinal()];
+         // the ones dropped while coalescing never reached the store
+         counts[SupplyStore.Outcome.STALE.ordinal()] += batch.getStale();
+         for (int o = 0; o < counts.length; ++o) outcomeCounters[o].increment(counts[o]);
+      }
+      for (SupplyListener l : listeners) {
+         for (int i = 0; i < batch.size(); ++i) {
+            if (batch.getOutcome(i) == SupplyStore.Outcome.APPLIED)
+               l.updated(batch.getId(i), batch.getLatitude(i), batch.getLongitude(i));
+         }
+      }
+   }
+
+   private List<SupplyInstance> computeRadiusSupply(GeoPoint location, SupplyFilter filter) {
+      return algoInterface.getRadiusSupply(store, location, filter);
+   }
+
+   private List<NearestSupplyInstance> computeClosestSupply(GeoPoint location, int k, SupplyFilter filter) {
+      return algoInterface.getClosestSupply(store, location, k, Math.PI * AlgoInterface.earthRadius, filter);
+   }
+
+   private static double distanceTo(DistanceKernel kernel, SupplyInstance ins) {
+      double latitude = ins.getLocation().getLatitude(), longitude = ins.getLocation().getLongitude();
+      double cosLat = Math.cos(latitude);
+      return kernel.distanceOf(kernel.chord2(cosLat * Math.cos(longitude), cosLat * Math.sin(longitude), Math.sin(latitude)));
+   }
+
+   /**
+    * The candidates ordered by the distance to the location.
+    */
+   private static List<NearestSupplyInstance> rank(GeoPoint location, List<SupplyInstance> candidates) {
+      DistanceKernel kernel = new DistanceKernel(location, AlgoInterface.earthRadius);
+      List<NearestSupplyInstance> res = new ArrayList<>(candidates.size());
+      for (SupplyInstance ins : candidates) res.add(new NearestSupplyInstance(ins, distanceTo(kernel, ins)));
+      res.sort(Comparator.comparingDouble(NearestSupplyInstance::getDistance));
       return res;
    }
 
+   /**
+    * The distance the expanding search stops at, given the distance to the minRadiusCandidates-th
+    * closest instance.
+    */
+   private double expandedDistance(double candidatesDistance) {
+      double distance = Math.min(algoInterface.getMinSearchDistance(), algoInterface.getMaxSearchDistance());
+      while (distance < candidatesDistance && distance < algoInterface.getMaxSearchDistance())
+         distance = Math.min(distance * 2, algoInterface.getMaxSearchDistance());
+      return distance;
+   }
+
+   /**
+    * The results are immutable.
+    */
+   public List<SupplyInstance> getRadiusSupply(GeoPoint location) {
+      return getRadiusSupply(location, SupplyFilter.ANY);
+   }
+
+   /**
+    * Only the instances matching the filter are searched for.
+    */
+   public List<SupplyInstance> getRadiusSupply(GeoPoint location, SupplyFilter filter) {
+      if (cache == null) return computeRadiusSupply(location, filter);
+
+      final int minCandidates = algoInterface.getMinRadiusCandidates();
+      final double snapDistance = cache.getSnapDistance();
+      return cache.get("radius", 0, filter, location,
+            snapped -> {
+               // enough candidates around the snapped point are enough around the location too
+               double candidatesDistance = 0;
+               if (minCandidates > 0) {
+                  List<NearestSupplyInstance> nearest = computeClosestSupply(snapped, minCandidates, filter);
+                  candidatesDistance = nearest.size() < minCandidates ?
+                        Double.POSITIVE_INFINITY : nearest.get(minCandidates - 1).getDistance();
+               }
+               return expandedDistance(candidatesDistance + snapDistance) + snapDistance;
+            },
+            (snapped, distance) -> getSupplyWithin(snapped, distance, filter),
+            (loc, candidates) -> {
+               // replays the expanding search at the location
+               List<NearestSupplyInstance> ranked = rank(loc, candidates);
+               double distance = Math.min(algoInterface.getMinSearchDistance(), algoInterface.getMaxSearchDistance());
+               int found = 0;
+               while (true) {
+                  while (found < ranked.size() && ranked.get(found).getDistance() <= distance) ++found;
+                  if (found >= minCandidates || distance >= algoInterface.getMaxSearchDistance()) break;
+                  distance = Math.min(distance * 2, algoInterface.getMaxSearchDistance());
+               }
+               String[] ids = new String[found];
+               double[] latitudes = new double[found], longitudes = new double[found];
+               for (int i = 0; i < found; ++i) {
+                  ids[i] = ranked.get(i).getId();
+                  latitudes[i] = ranked.get(i).getLocation().getLatitude();
+                  longitudes[i] = ranked.get(i).getLocation().getLongitude();
+               }
+               return SupplyPositions.of(ids, latitudes, longitudes, found);
+            },
+            loc -> computeRadiusSupply(loc, filter));
+   }
+
+   public List<NearestSupplyInstance> getClosestSupply(GeoPoint location, int k) {
+      return getClosestSupply(location, k, SupplyFilter.ANY);
+   }
+
+   /**
+    * Only the instances matching the filter are searched for.
+    */
+   public List<NearestSupplyInstance> getClosestSupply(GeoPoint location, int k, SupplyFilter filter) {
+      if (cache == null) return computeClosestSupply(location, k, filter);
+
+      final double snapDistance = cache.getSnapDistance();
+      return cache.get("closest", k, filter, location,
+            snapped -> {
+               // the k closest to the location are within the k-th distance of the snapped point
+               // and twice the snapping error of it
+               List<NearestSupplyInstance> nearest = computeClosestSupply(snapped, k, filter);
+               return nearest.size() < k ?
+                     Double.POSITIVE_INFINITY : nearest.get(k - 1).getDistance() + 2 * snapDistance;
+            },
+            (snapped, distance) -> getSupplyWithin(snapped, distance, filter),
+            (loc, candidates) -> {
+               List<NearestSupplyInstance> ranked = rank(loc, candidates);
+               return ranked.size() > k ? new ArrayList<>(ranked.subList(0, k)) : ranked;
+            },
+            loc -> computeClosestSupply(loc, k, filter));
+   }
+
+   /**
+    * The k closest supply instances matching the filter no further than maxDistance (in km).
+    */
+   public List<NearestSupplyInstance> getClosestSupply(GeoPoint location, int k, double maxDistance,
+                                                       SupplyFilter filter) {
+      return algoInterface.getClosestSupply(store, location, k, maxDistance, filter);
+   }
+
+   /**
+    * All supply instances matching the filter within the distance (in km).
+    */
+   public List<SupplyInstance> getSupplyWithin(GeoPoint location, double distance, SupplyFilter filter) {
+      return algoInterface.getSupplyWithin(store, location, distance, filter);
+   }
+
+   public AlgoInterface getAlgoInterface() {
+      return algoInterface;
+   }
+
+   /**
+    * @param queries with the locations in radians.
+    */
+   public List<List<? extends SupplyInstance>> getBatchSupply(List<SupplyQuery> queries) {
+      return algoInterface.getBatchSupply(store, queries);
+   }
+
    public GeoPoint  getSupplyLocation(String id) {
-      SupplyInstance ins = lhm.getOrDefault(id, null);
-      if (ins == null) {
-         return null;
+      return store.getLocation(id);
+   }
+
+   /**
+    * @return the latest timestamp (epoch millis) of the updates of the id,
+    * {@link UpdatePolicy#NO_TIMESTAMP} if none carried one, -1 if the id is unknown.
+    */
+   public long getSupplyTimestamp(String id) {
+      return store.getTimestamp(id);
+   }
+
+   /**
+    * @return read access to the stored positions, in radians.
+    */
+   public SupplyIndex getSupplyIndex() {
+      return store;
+   }
+
+   public int getSupplyCount() {
+      return store.size();
+   }
+
+   /**
+    * @return the supply counts per cell, null when not kept.
+    */
+   public SupplyDensity getSupplyDensity() {
+      return density;
+   }
+
+   /**
+    * @return the non-empty cells of the density level covering the [min, max] bounding box.
+    */
+   public List<DensityCell> getSupplyDensity(GeoPoint min, GeoPoint max, int level) {
+      if (density == null) throw new IllegalStateException("Supply density is not kept");
+      return density.counts(min, max, level);
+   }
+
+   /**
+    * Makes every update applied so far visible to the queries, see {@link SupplyStore#publish()}.
+    */
+   public void publishSupply() {
+      store.publish();
+   }
+
+   @PreDestroy
+   public void shutdown() {
+      if (store instanceof EpochSupplyStore) ((EpochSupplyStore) store).shutdown();
+      algoInterface.getParallelScan().close();
+   }
+
+   /**
+    * @return the number of supply instances removed as not updated within the time to live.
+    */
+   public int expireSupply() {
+      if (listeners.isEmpty()) return store.expire();
+
+      List<String> removed = new ArrayList<>();
+      int count = store.expire(removed::add);
+      for (SupplyListener l : listeners) {
+         for (String id : removed) l.removed(id);
       }
-      return ins.getLocation();
+      return count;
    }
 }
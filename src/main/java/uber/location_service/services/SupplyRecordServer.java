@@ -0,0 +1,187 @@
+package uber.location_service.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import uber.location_service.configuration.SupplyLocationProperties;
+import uber.location_service.ingestion.SupplyMessageDecoder;
+import uber.location_service.ingestion.SupplyRecordDecoder;
+import uber.location_service.storage.SupplyBatch;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plain TCP ingestion of the binary supply records (see {@link SupplyRecordDecoder}) for the
+ * producers next to the service, such as the driver gateway. A single selector thread reads
+ * the connections into their own direct buffers, decodes the records in place and applies
+ * what every read brought in one bulk update, keeping only the latest position per id.
+ * There are no responses, a connection sending a malformed record is closed.
+ */
+@Service
+@ConditionalOnProperty(name = "supply-location.binary.enabled", havingValue = "true")
+public class SupplyRecordServer {
+   private final Logger logger = LoggerFactory.getLogger(SupplyRecordServer.class);
+   private final SupplyLocationImpl impl;
+   private final int bufferBytes;
+   private final Selector selector;
+   private final ServerSocketChannel server;
+   private final Thread thread;
+   private volatile boolean running = true;
+
+   // used by the selector thread only
+   private final SupplyRecordDecoder decoder = new SupplyRecordDecoder(1 << 16);
+   private final SupplyBatch batch = new SupplyBatch(1024);
+   private final SupplyMessageDecoder.Sink sink;
+   private long now;
+
+   private final Counter receivedCounter, coalescedCounter, rejectedCounter, appliedCounter;
+   private final Timer latencyTimer, applyTimer;
+
+   @Autowired
+   public SupplyRecordServer(final SupplyLocationImpl impl, final MeterRegistry registry,
+                             final SupplyLocationProperties properties) throws IOException {
+      this(impl, registry, properties.getBinary().getPort(), properties.getBinary().getBufferBytes());
+   }
+
+   /**
+    * @param port 0 - any free one, see {@link #getPort()}.
+    */
+   public SupplyRecordServer(final SupplyLocationImpl impl, final MeterRegistry registry,
+                             int port, int bufferBytes) throws IOException {
+      if (bufferBytes < SupplyRecordDecoder.RECORD_SIZE)
+         throw new IllegalArgumentException("Buffer must hold at least one record");
+
+      this.impl = impl;
+      this.bufferBytes = bufferBytes;
+      this.receivedCounter = registry.counter("supply.ingest.received");
+      this.coalescedCounter = registry.counter("supply.ingest.coalesced");
+      this.rejectedCounter = registry.counter("supply.ingest.rejected");
+      this.appliedCounter = registry.counter("supply.ingest.applied");
+      this.latencyTimer = registry.timer("supply.ingest.latency");
+      this.applyTimer = registry.timer("supply.ingest.apply");
+      this.sink = (id, latitude, longitude, attributes, timestamp) -> {
+         batch.put(id, latitude, longitude, attributes, timestamp);
+         if (timestamp > 0) latencyTimer.record(Math.max(0, now - timestamp), TimeUnit.MILLISECONDS);
+      };
+
+      this.selector = Selector.open();
+      this.server = ServerSocketChannel.open();
+      server.bind(new InetSocketAddress(port));
+      server.configureBlocking(false);
+      server.register(selector, SelectionKey.OP_ACCEPT);
+
+      this.thread = new Thread(this::run, "supply-records");
+      thread.setDaemon(true);
+      thread.start();
+      logger.info(String.format("#### -> Accepting binary supply records on port %d", getPort()));
+   }
+
+   public int getPort() {
+      return server.socket().getLocalPort();
+   }
+
+   private void run() {
+      while (running) {
+         try {
+            selector.select();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+               SelectionKey key = keys.next();
+               keys.remove();
+               if (!key.isValid()) continue;
+               if (key.isAcceptable()) accept();
+               else if (key.isReadable()) read(key);
+            }
+         } catch (IOException | RuntimeException e) {
+            logger.error("#### -> Binary supply ingestion failed", e);
+         }
+      }
+
+      for (SelectionKey key : selector.keys()) close(key);
+      try {
+         selector.close();
+      } catch (IOException ignored) {
+      }
+   }
+
+   private static void close(SelectionKey key) {
+      key.cancel();
+      try {
+         key.channel().close();
+      } catch (IOException ignored) {
+      }
+   }
+
+   private void accept() throws IOException {
+      SocketChannel channel = server.accept();
+      if (channel == null) return;
+      channel.configureBlocking(false);
+      channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocateDirect(bufferBytes));
+   }
+
+   private void read(SelectionKey key) {
+      SocketChannel channel = (SocketChannel) key.channel();
+      ByteBuffer buf = (ByteBuffer) key.attachment();
+      boolean open;
+      int received = 0, rejected = 0;
+      try {
+         open = channel.read(buf) >= 0;
+         buf.flip();
+         now = System.currentTimeMillis();
+         while (open && buf.remaining() >= SupplyRecordDecoder.RECORD_SIZE) {
+            ++received;
+            if (!decoder.decode(buf, sink)) {
+               ++rejected;
+               open = false;
+            }
+         }
+         // a partial record waits for the rest
+         buf.compact();
+      } catch (IOException e) {
+         open = false;
+      }
+
+      try {
+         if (batch.size() > 0) {
+            final long started = System.nanoTime();
+            impl.updateSupplyBatch(batch);
+            applyTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            appliedCounter.increment(batch.size());
+            coalescedCounter.increment(batch.getCoalesced());
+         }
+         receivedCounter.increment(received);
+         rejectedCounter.increment(rejected);
+      } finally {
+         batch.clear();
+      }
+
+      if (!open) {
+         if (rejected > 0) logger.warn(String.format("#### -> Closing %s after a malformed record", channel));
+         close(key);
+      }
+   }
+
+   /**
+    * The selector thread closes the connections and the listening socket on its way out.
+    */
+   @PreDestroy
+   public void shutdown() throws InterruptedException {
+      running = false;
+      selector.wakeup();
+      thread.join(TimeUnit.SECONDS.toMillis(5));
+   }
+}
@@ -0,0 +1,52 @@
+package uber.location_service.sharding;
+
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.NearestSupplyInstance;
+import uber.location_service.structures.SupplyAttributes;
+import uber.location_service.structures.SupplyFilter;
+import uber.location_service.structures.SupplyInstance;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A shard held by another node, queried through its {@link ShardController} endpoints.
+ */
+public class HttpShardClient implements ShardClient {
+   private final RestTemplate restTemplate;
+   private final String baseUrl;
+
+   public HttpShardClient(RestTemplate restTemplate, String baseUrl) {
+      this.restTemplate = restTemplate;
+      this.baseUrl = baseUrl;
+   }
+
+   private UriComponentsBuilder uri(String path, GeoPoint location, SupplyFilter filter) {
+      UriComponentsBuilder uri = UriComponentsBuilder.fromHttpUrl(baseUrl).path(path)
+            .queryParam("latitude", location.getLatitudeDegrees())
+            .queryParam("longitude", location.getLongitudeDegrees());
+      if (filter.isAny()) return uri;
+
+      for (SupplyAttributes.VehicleClass c : filter.getVehicleClasses()) uri.queryParam("vehicle-class", c.key());
+      for (SupplyAttributes.Status s : filter.getStatus()) uri.queryParam("status", s.key());
+      return uri.queryParam("min-capacity", filter.getMinCapacity());
+   }
+
+   @Override
+   public List<NearestSupplyInstance> nearest(GeoPoint location, int k, double maxDistance, SupplyFilter filter) {
+      NearestSupplyInstance[] res = restTemplate.getForObject(
+            uri("/shard/nearest", location, filter).queryParam("k", k).queryParam("max-distance-km", maxDistance)
+                  .build().toUri(), NearestSupplyInstance[].class);
+      return res == null ? List.of() : Arrays.asList(res);
+   }
+
+   @Override
+   public List<SupplyInstance> within(GeoPoint location, double distance, SupplyFilter filter) {
+      SupplyInstance[] res = restTemplate.getForObject(
+            uri("/shard/within", location, filter).queryParam("distance-km", distance)
+                  .build().toUri(), SupplyInstance[].class);
+      return res == null ? List.of() : Arrays.asList(res);
+   }
+}
@@ -0,0 +1,48 @@
+package uber.location_service.sharding;
+
+import uber.location_service.services.SupplyLocationImpl;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.NearestSupplyInstance;
+import uber.location_service.structures.SupplyFilter;
+import uber.location_service.structures.SupplyInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The shard held by this node, queried in-process. The results carry the latest timestamp of the
+ * instances, which tells the current copy of an instance from the one left behind in another shard.
+ * Unlike the time the shard received an update, the timestamp compares across the nodes.
+ */
+public class LocalShardClient implements ShardClient {
+   private final SupplyLocationImpl impl;
+
+   public LocalShardClient(SupplyLocationImpl impl) {
+      this.impl = impl;
+   }
+
+   /**
+    * @return the timestamp, 0 for an instance without one or removed since it was found.
+    */
+   private long timestamp(SupplyInstance ins) {
+      return Math.max(0, impl.getSupplyTimestamp(ins.getId()));
+   }
+
+   @Override
+   public List<NearestSupplyInstance> nearest(GeoPoint location, int k, double maxDistance, SupplyFilter filter) {
+      List<NearestSupplyInstance> found = impl.getClosestSupply(location, k, maxDistance, filter);
+      List<NearestSupplyInstance> res = new ArrayList<>(found.size());
+      for (NearestSupplyInstance ins : found) {
+         res.add(new NearestSupplyInstance(ins.getId(), ins.getLocation(), ins.getDistance(), timestamp(ins)));
+      }
+      return res;
+   }
+
+   @Override
+   public List<SupplyInstance> within(GeoPoint location, double distance, SupplyFilter filter) {
+      List<SupplyInstance> found = impl.getSupplyWithin(location, distance, filter);
+      List<SupplyInstance> res = new ArrayList<>(found.size());
+      for (SupplyInstance ins : found) res.add(new SupplyInstance(ins.getId(), ins.getLocation(), null, timestamp(ins)));
+      return res;
+   }
+}
@@ -0,0 +1,174 @@
+package uber.location_service.sharding;
+
+import uber.location_service.algo.AlgoInterface;
+import uber.location_service.algo.GeoAlgorithms;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.NearestSupplyInstance;
+import uber.location_service.structures.SupplyFilter;
+import uber.location_service.structures.SupplyInstance;
+import uber.location_service.structures.SupplyQuery;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+/**
+ * Answers the queries of a sharded deployment by asking only the shards whose regions
+ * intersect the searched area. The nearest search asks the shard owning the location first,
+ * its k-th distance then bounds the area to ask the other shards about. The radius search
+ * doubles the distance like the single node one, asking the intersecting shards every step.
+ * Results of several shards are merged by distance and deduplicated by id - an instance that
+ * moved to another shard is left behind in the old one until it expires, so the copy with
+ * the latest timestamp wins. When the copies leave fewer than k nearest, the shards around
+ * are asked again within twice the distance.
+ */
+public class ScatterGatherService {
+   private final ShardMap shardMap;
+   private final ShardClient[] shards;
+   private final int localShard; // -1 if this node holds no shard
+   private final AlgoInterface algo;
+   private final ExecutorService fanOut;
+
+   /**
+    * @param shards the client of every shard, by shard id.
+    * @param algo the radius search rule.
+    */
+   public ScatterGatherService(ShardMap shardMap, List<ShardClient> shards, int localShard,
+                               AlgoInterface algo, ExecutorService fanOut) {
+      if (shards.size() != shardMap.getShardCount())
+         throw new IllegalArgumentException("Expected a client for each of " + shardMap.getShardCount() + " shards");
+
+      this.shardMap = shardMap;
+      this.shards = shards.toArray(new ShardClient[0]);
+      this.localShard = localShard;
+      this.algo = algo;
+      this.fanOut = fanOut;
+   }
+
+   private BitSet shardsWithin(GeoPoint location, double distance) {
+      GeoPoint[] box = GeoAlgorithms.boundingCoordinates(location, distance, AlgoInterface.earthRadius);
+      return shardMap.shardsIntersecting(box[0], box[1]);
+   }
+
+   /**
+    * Runs the query on the shards in parallel, the local shard on the calling thread.
+    */
+   private <T> List<T> gather(BitSet shardIds, Function<ShardClient, List<T>> query) {
+      List<CompletableFuture<List<T>>> remote = new ArrayList<>();
+      for (int s = shardIds.nextSetBit(0); s >= 0; s = shardIds.nextSetBit(s + 1)) {
+         if (s == localShard) continue;
+         ShardClient client = shards[s];
+         remote.add(CompletableFuture.supplyAsync(() -> query.apply(client), fanOut));
+      }
+
+      List<T> res = new ArrayList<>();
+      if (localShard >= 0 && shardIds.get(localShard)) res.addAll(query.apply(shards[localShard]));
+      try {
+         for (CompletableFuture<List<T>> f : remote) res.addAll(f.join());
+      } catch (CompletionException e) {
+         if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+         throw e;
+      }
+      return res;
+   }
+
+   /**
+    * Keeps the freshest copy of every id, in the order of the list.
+    */
+   private static <T extends SupplyInstance> List<T> freshestById(List<T> list) {
+      Map<String, T> freshest = new HashMap<>();
+      for (T ins : list) freshest.merge(ins.getId(), ins, (a, b) -> b.getTimestamp() > a.getTimestamp() ? b : a);
+      if (freshest.size() == list.size()) return list;
+
+      List<T> res = new ArrayList<>(freshest.size());
+      for (T ins : list) {
+         if (freshest.get(ins.getId()) == ins) res.add(ins);
+      }
+      return res;
+   }
+
+   public List<NearestSupplyInstance> getClosestSupply(GeoPoint location, int k) {
+      return getClosestSupply(location, k, SupplyFilter.ANY);
+   }
+
+   private static List<NearestSupplyInstance> closestFreshest(List<NearestSupplyInstance> found) {
+      found.sort(Comparator.comparingDouble(NearestSupplyInstance::getDistance));
+      return freshestById(found);
+   }
+
+   /**
+    * @param location in radians.
+    * @param filter passed down to the shards, which check it within their scans.
+    */
+   public List<NearestSupplyInstance> getClosestSupply(GeoPoint location, int k, SupplyFilter filter) {
+      final int home = shardMap.shardOf(location);
+      final BitSet homeOnly = new BitSet();
+      homeOnly.set(home);
+      final double maxDistance = Math.PI * AlgoInterface.earthRadius;
+
+      List<NearestSupplyInstance> found = gather(homeOnly, c -> c.nearest(location, k, maxDistance, filter));
+      double bound = found.size() == k ? found.get(k - 1).getDistance() : maxDistance;
+      final double homeBound = bound;
+      BitSet others = shardsWithin(location, homeBound);
+      others.clear(home);
+      if (!others.isEmpty()) found.addAll(gather(others, c -> c.nearest(location, k, homeBound, filter)));
+      List<NearestSupplyInstance> res = closestFreshest(found);
+
+      // every dropped copy took the place of another instance, so each shard is asked for as many more
+      int perShard = k;
+      while (res.size() < k) {
+         final int want = k + found.size() - res.size();
+         if (bound >= maxDistance && want <= perShard) break;
+
+         perShard = want;
+         final double d = bound = Math.min(Math.max(bound * 2, algo.getMinSearchDistance()), maxDistance);
+         found = gather(shardsWithin(location, d), c -> c.nearest(location, want, d, filter));
+         res = closestFreshest(found);
+      }
+      return res.size() > k ? new ArrayList<>(res.subList(0, k)) : res;
+   }
+
+   public List<SupplyInstance> getRadiusSupply(GeoPoint location) {
+      return getRadiusSupply(location, SupplyFilter.ANY);
+   }
+
+   /**
+    * @param location in radians.
+    */
+   public List<SupplyInstance> getRadiusSupply(GeoPoint location, SupplyFilter filter) {
+      double distance = Math.min(algo.getMinSearchDistance(), algo.getMaxSearchDistance());
+      while (true) {
+         final double d = distance;
+         List<SupplyInstance> res = freshestById(gather(shardsWithin(location, d), c -> c.within(location, d, filter)));
+         if (res.size() >= algo.getMinRadiusCandidates() || d >= algo.getMaxSearchDistance()) return res;
+         distance = Math.min(d * 2, algo.getMaxSearchDistance());
+      }
+   }
+
+   /**
+    * @param queries with the locations in radians.
+    */
+   public List<List<? extends SupplyInstance>> getBatchSupply(List<SupplyQuery> queries) {
+      List<List<? extends SupplyInstance>> res = new ArrayList<>(queries.size());
+      for (SupplyQuery q : queries) {
+         switch (q.getMode()) {
+            case CLOSEST:
+               res.add(getClosestSupply(q.getLocation(), 1, q.getFilter()));
+               break;
+            case K_NEAREST:
+               res.add(getClosestSupply(q.getLocation(), q.getK(), q.getFilter()));
+               break;
+            case RADIUS:
+               res.add(getRadiusSupply(q.getLocation(), q.getFilter()));
+               break;
+         }
+      }
+      return res;
+   }
+
+   public void shutdown() {
+      fanOut.shutdownNow();
+   }
+}
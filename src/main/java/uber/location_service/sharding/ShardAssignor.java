@@ -0,0 +1,55 @@
+package uber.location_service.sharding;
+
+import org.apache.kafka.clients.consumer.internals.AbstractPartitionAssignor;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.*;
+
+/**
+ * Consumer side of the shard routing - the members of the group get only the partitions
+ * of their shard, partition % shardCount == shardId, so a node ingests only its own regions.
+ * Every node of a shard holds the whole shard and so needs a group of its own. Configured by
+ * the supply-location.shard.id and supply-location.shard.count consumer properties.
+ */
+public class ShardAssignor extends AbstractPartitionAssignor implements Configurable {
+   public static final String SHARD_ID_CONFIG = "supply-location.shard.id";
+
+   private int shardId, shardCount;
+
+   @Override
+   public void configure(Map<String, ?> configs) {
+      shardId = Integer.parseInt(String.valueOf(configs.get(SHARD_ID_CONFIG)));
+      shardCount = Integer.parseInt(String.valueOf(configs.get(ShardPartitioner.SHARD_COUNT_CONFIG)));
+      if (shardId < 0 || shardId >= shardCount) throw new IllegalArgumentException("Invalid shard id " + shardId);
+   }
+
+   @Override
+   public String name() {
+      return "supply-location-shard";
+   }
+
+   @Override
+   public Map<String, List<TopicPartition>> assign(
+         Map<String, Integer> partitionsPerTopic, Map<String, Subscription> subscriptions) {
+      Map<String, List<TopicPartition>> assignment = new HashMap<>();
+      List<String> members = new ArrayList<>(subscriptions.keySet());
+      Collections.sort(members);
+      for (String member : members) assignment.put(member, new ArrayList<>());
+
+      for (Map.Entry<String, Integer> topic : partitionsPerTopic.entrySet()) {
+         List<String> subscribed = new ArrayList<>();
+         for (String member : members) {
+            if (subscriptions.get(member).topics().contains(topic.getKey())) subscribed.add(member);
+         }
+         if (subscribed.isEmpty()) continue;
+
+         int next = 0;
+         for (int partition = shardId; partition < topic.getValue(); partition += shardCount) {
+            assignment.get(subscribed.get(next++ % subscribed.size()))
+                  .add(new TopicPartition(topic.getKey(), partition));
+         }
+      }
+      return assignment;
+   }
+}
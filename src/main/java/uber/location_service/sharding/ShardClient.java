@@ -0,0 +1,18 @@
+package uber.location_service.sharding;
+
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.NearestSupplyInstance;
+import uber.location_service.structures.SupplyFilter;
+import uber.location_service.structures.SupplyInstance;
+
+import java.util.List;
+
+/**
+ * Queries a single shard for the instances matching the filter, distances are in km.
+ * The timestamp of every instance is the latest timestamp of its updates in the shard.
+ */
+public interface ShardClient {
+   List<NearestSupplyInstance> nearest(GeoPoint location, int k, double maxDistance, SupplyFilter filter);
+
+   List<SupplyInstance> within(GeoPoint location, double distance, SupplyFilter filter);
+}
@@ -0,0 +1,52 @@
+package uber.location_service.sharding;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import uber.location_service.services.SupplyLocationImpl;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyFilter;
+
+import java.util.List;
+
+/**
+ * Shard-local queries the other nodes fan out to, answered from this node's store only
+ * (see {@link LocalShardClient}). Coordinates are in degrees, distances in km, the filter
+ * parameters are the same as of the public queries.
+ */
+@RestController
+@ConditionalOnProperty(name = "supply-location.shard.enabled", havingValue = "true")
+public class ShardController {
+   private final LocalShardClient shard;
+
+   @Autowired
+   public ShardController(final SupplyLocationImpl impl) {
+      this.shard = new LocalShardClient(impl);
+   }
+
+   @GetMapping(path="/shard/nearest")
+   public ResponseEntity<Object> nearest(
+         @RequestParam("latitude") double latitude, @RequestParam("longitude") double longitude,
+         @RequestParam("k") int k, @RequestParam("max-distance-km") double maxDistance,
+         @RequestParam(value = "vehicle-class", required = false) List<String> vehicleClasses,
+         @RequestParam(value = "status", required = false) List<String> status,
+         @RequestParam(value = "min-capacity", defaultValue = "0") int minCapacity) {
+      return new ResponseEntity<>(shard.nearest(GeoPoint.fromDegrees(latitude, longitude), k, maxDistance,
+            SupplyFilter.parse(vehicleClasses, status, minCapacity)), HttpStatus.OK);
+   }
+
+   @GetMapping(path="/shard/within")
+   public ResponseEntity<Object> within(
+         @RequestParam("latitude") double latitude, @RequestParam("longitude") double longitude,
+         @RequestParam("distance-km") double distance,
+         @RequestParam(value = "vehicle-class", required = false) List<String> vehicleClasses,
+         @RequestParam(value = "status", required = false) List<String> status,
+         @RequestParam(value = "min-capacity", defaultValue = "0") int minCapacity) {
+      return new ResponseEntity<>(shard.within(GeoPoint.fromDegrees(latitude, longitude), distance,
+            SupplyFilter.parse(vehicleClasses, status, minCapacity)), HttpStatus.OK);
+   }
+}
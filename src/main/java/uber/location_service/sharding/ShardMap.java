@@ -0,0 +1,57 @@
+package uber.location_service.sharding;
+
+import uber.location_service.algo.GeoGrid;
+import uber.location_service.structures.GeoPoint;
+
+import java.util.BitSet;
+
+/**
+ * Geographic ownership of the supply - the world is split into square regions and every
+ * region belongs to one of the shards. Regions are spread over the shards by a hash, so
+ * a dense area doesn't load a single shard with its whole neighbourhood. Kafka partitions
+ * follow the same split, partition p carries the regions of shard p % shardCount.
+ */
+public class ShardMap {
+   private final GeoGrid regions;
+   private final int shardCount;
+
+   public ShardMap(int shardCount, double regionDegrees) {
+      if (shardCount < 1) throw new IllegalArgumentException("Shard count must be positive");
+
+      this.regions = new GeoGrid(regionDegrees);
+      this.shardCount = shardCount;
+   }
+
+   public int getShardCount() {
+      return shardCount;
+   }
+
+   private int shardOfRegion(int region) {
+      return Math.floorMod(region * 0x9E3779B9, shardCount);
+   }
+
+   /**
+    * @param latitude the latitude, in radians.
+    * @param longitude the longitude, in radians.
+    */
+   public int shardOf(double latitude, double longitude) {
+      return shardOfRegion(regions.cellOf(latitude, longitude));
+   }
+
+   public int shardOf(GeoPoint location) {
+      return shardOf(location.getLatitude(), location.getLongitude());
+   }
+
+   public int shardOfPartition(int partition) {
+      return partition % shardCount;
+   }
+
+   /**
+    * @return the shards owning any region of the [min, max] bounding box.
+    */
+   public BitSet shardsIntersecting(GeoPoint min, GeoPoint max) {
+      BitSet shards = new BitSet(shardCount);
+      regions.coveringRange(min, max).forEach(region -> shards.set(shardOfRegion(region)));
+      return shards;
+   }
+}
@@ -0,0 +1,65 @@
+package uber.location_service.sharding;
+
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.utils.Utils;
+import uber.location_service.ingestion.SupplyMessageDecoder;
+import uber.location_service.ingestion.SupplyRecordDecoder;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Producer side of the shard routing - a supply message goes to a partition of the shard
+ * owning its location, picked among the shard's partitions by the record key (the supply id),
+ * so the updates of an id stay in order while it stays in the shard. Configured by the
+ * supply-location.shard.count and supply-location.shard.region-degrees producer properties,
+ * the topic needs a multiple of shard count partitions.
+ *
+ * A value of several binary records goes by its first one, so the producers batch the records
+ * of a region together. An instance moving to another shard is left behind in the old one
+ * until it expires, so sharding needs supply-location.expiry.ttl-seconds, and the queries
+ * prefer the copy with the latest timestamp (see {@link ScatterGatherService}).
+ */
+public class ShardPartitioner implements Partitioner {
+   public static final String SHARD_COUNT_CONFIG = "supply-location.shard.count";
+   public static final String REGION_DEGREES_CONFIG = "supply-location.shard.region-degrees";
+
+   private final ThreadLocal<SupplyMessageDecoder> decoders = ThreadLocal.withInitial(SupplyMessageDecoder::new);
+   // routing needs no ids, a single interned one does
+   private final ThreadLocal<SupplyRecordDecoder> recordDecoders = ThreadLocal.withInitial(() -> new SupplyRecordDecoder(1));
+   private ShardMap shardMap;
+
+   @Override
+   public void configure(Map<String, ?> configs) {
+      shardMap = new ShardMap(
+            Integer.parseInt(String.valueOf(configs.get(SHARD_COUNT_CONFIG))),
+            Double.parseDouble(String.valueOf(configs.get(REGION_DEGREES_CONFIG))));
+   }
+
+   @Override
+   public int partition(String topic, Object key, byte[] keyBytes, Object value, byte[] valueBytes, Cluster cluster) {
+      final int shardCount = shardMap.getShardCount();
+      final int partitionsPerShard = cluster.partitionCountForTopic(topic) / shardCount;
+      if (partitionsPerShard == 0)
+         throw new IllegalStateException("Topic " + topic + " has fewer partitions than shards");
+
+      int[] shard = {0};
+      // undecodable messages land anywhere, the consumer rejects them
+      if (SupplyRecordDecoder.isRecord(valueBytes)) {
+         if (valueBytes.length >= SupplyRecordDecoder.RECORD_SIZE) {
+            recordDecoders.get().decode(ByteBuffer.wrap(valueBytes, 0, SupplyRecordDecoder.RECORD_SIZE),
+                  (id, latitude, longitude, attributes, timestamp) -> shard[0] = shardMap.shardOf(latitude, longitude));
+         }
+      } else {
+         decoders.get().decode(valueBytes, (id, latitude, longitude, attributes, timestamp) -> shard[0] = shardMap.shardOf(latitude, longitude));
+      }
+
+      int slot = keyBytes == null ? 0 : Utils.toPositive(Utils.murmur2(keyBytes)) % partitionsPerShard;
+      return shard[0] + shardCount * slot;
+   }
+
+   @Override
+   public void close() {
+   }
+}
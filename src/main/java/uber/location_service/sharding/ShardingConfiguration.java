@@ -0,0 +1,82 @@
+package uber.location_service.sharding;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.MicrometerConsumerListener;
+import org.springframework.web.client.RestTemplate;
+import uber.location_service.configuration.SupplyLocationProperties;
+import uber.location_service.services.SupplyLocationImpl;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sharding mode - this node ingests and holds the regions of shard-id only, and answers
+ * the queries by fanning out to the nodes listed in shard.nodes (by shard id, this node's
+ * own entry is queried in-process). Each node needs its own kafka.group-id, and the supply
+ * has to expire, or the instances that moved to other shards stay in the old ones for good.
+ */
+@Configuration
+@ConditionalOnProperty(name = "supply-location.shard.enabled", havingValue = "true")
+public class ShardingConfiguration {
+   @Bean
+   public ShardMap shardMap(SupplyLocationProperties properties) {
+      if (properties.getExpiry().getTtlSeconds() <= 0)
+         throw new IllegalArgumentException("Sharding needs supply-location.expiry.ttl-seconds to be positive");
+      return new ShardMap(properties.getShard().getCount(), properties.getShard().getRegionDegrees());
+   }
+
+   /**
+    * Replaces the auto-configured consumer factory, so every listener container
+    * is assigned only the partitions of this shard.
+    */
+   @Bean
+   public ConsumerFactory<Object, Object> kafkaConsumerFactory(
+         KafkaProperties kafkaProperties, ShardMap shardMap, MeterRegistry registry,
+         SupplyLocationProperties properties) {
+      Map<String, Object> props = kafkaProperties.buildConsumerProperties();
+      props.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, ShardAssignor.class.getName());
+      props.put(ShardAssignor.SHARD_ID_CONFIG, properties.getShard().getId());
+      props.put(ShardPartitioner.SHARD_COUNT_CONFIG, shardMap.getShardCount());
+      DefaultKafkaConsumerFactory<Object, Object> factory = new DefaultKafkaConsumerFactory<>(props);
+      factory.addListener(new MicrometerConsumerListener<>(registry));
+      return factory;
+   }
+
+   @Bean
+   public ScatterGatherService scatterGatherService(
+         ShardMap shardMap, SupplyLocationImpl impl, RestTemplateBuilder restTemplateBuilder,
+         SupplyLocationProperties properties) {
+      final int shardId = properties.getShard().getId();
+      final String[] nodes = properties.getShard().getNodes();
+      final Duration timeout = Duration.ofMillis(properties.getShard().getTimeoutMs());
+      RestTemplate restTemplate = restTemplateBuilder
+            .setConnectTimeout(timeout)
+            .setReadTimeout(timeout)
+            .build();
+
+      List<ShardClient> clients = new ArrayList<>();
+      for (int i = 0; i < nodes.length; ++i) {
+         clients.add(i == shardId ? new LocalShardClient(impl) : new HttpShardClient(restTemplate, nodes[i].trim()));
+      }
+
+      AtomicInteger counter = new AtomicInteger();
+      return new ScatterGatherService(shardMap, clients, shardId, impl.getAlgoInterface(),
+            Executors.newCachedThreadPool(r -> {
+               Thread t = new Thread(r, "supply-shard-fan-out-" + counter.incrementAndGet());
+               t.setDaemon(true);
+               return t;
+            }));
+   }
+}
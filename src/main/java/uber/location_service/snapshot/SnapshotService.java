@@ -0,0 +1,117 @@
+package uber.location_service.snapshot;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import uber.location_service.configuration.SupplyLocationProperties;
+import uber.location_service.ingestion.ConsumedOffsets;
+import uber.location_service.services.SupplyLocationImpl;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warm restart - the store is restored from the last snapshot before the Kafka listeners
+ * start, and they continue from the offsets the snapshot covers instead of replaying the
+ * whole topic. Snapshots are written periodically in the background and on shutdown.
+ * Restored instances count as seen at the restore time by the expiry.
+ */
+@Service
+public class SnapshotService {
+   private final Logger logger = LoggerFactory.getLogger(SnapshotService.class);
+   private final SupplyLocationImpl impl;
+   private final ConsumedOffsets consumedOffsets;
+   private final Path path;
+   private final ScheduledExecutorService scheduler; // null when snapshots are disabled
+   private final Timer writeTimer;
+
+   @Autowired
+   public SnapshotService(
+         final SupplyLocationImpl impl, final ConsumedOffsets consumedOffsets, final MeterRegistry registry,
+         final SupplyLocationProperties properties) {
+      final SupplyLocationProperties.Snapshot snapshot = properties.getSnapshot();
+      this.impl = impl;
+      this.consumedOffsets = consumedOffsets;
+      this.path = Paths.get(snapshot.getPath());
+      this.writeTimer = registry.timer("supply.snapshot.write");
+
+      if (!snapshot.isEnabled()) {
+         this.scheduler = null;
+         return;
+      }
+      restore();
+
+      this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "supply-snapshot");
+         t.setDaemon(true);
+         return t;
+      });
+      scheduler.scheduleWithFixedDelay(this::snapshotQuietly, snapshot.getIntervalSeconds(), snapshot.getIntervalSeconds(),
+            TimeUnit.SECONDS);
+   }
+
+   private void restore() {
+      if (!Files.exists(path)) {
+         logger.info(String.format("#### -> No supply snapshot at %s, starting empty", path));
+         return;
+      }
+
+      long start = System.nanoTime();
+      try {
+         Map<TopicPartition, Long> offsets = SupplySnapshot.read(path, impl::updateSupplyBatch);
+         impl.publishSupply();
+         consumedOffsets.restore(offsets);
+         logger.info(String.format("#### -> Restored %d supply instances from %s in %d ms, offsets %s",
+               impl.getSupplyCount(), path, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), offsets));
+      } catch (IOException e) {
+         logger.warn(String.format("#### -> Ignoring unreadable supply snapshot %s", path), e);
+      }
+   }
+
+   /**
+    * @return the number of written supply instances.
+    */
+   public synchronized long snapshot() throws IOException {
+      // taken before the store is scanned, so the replay covers every update racing with the scan
+      Map<TopicPartition, Long> offsets = consumedOffsets.current();
+      // and the updates consumed up to them are made visible to the scan
+      impl.publishSupply();
+
+      long start = System.nanoTime();
+      Path parent = path.toAbsolutePath().getParent();
+      if (parent != null) Files.createDirectories(parent);
+      long count = SupplySnapshot.write(path, impl.getSupplyIndex(), offsets);
+      writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      return count;
+   }
+
+   private void snapshotQuietly() {
+      try {
+         long count = snapshot();
+         logger.debug(String.format("#### -> Wrote %d supply instances to %s", count, path));
+      } catch (IOException | RuntimeException e) {
+         // an exception would cancel the periodic task
+         logger.error(String.format("#### -> Supply snapshot to %s failed", path), e);
+      }
+   }
+
+   @PreDestroy
+   public void shutdown() throws InterruptedException {
+      if (scheduler == null) return;
+
+      scheduler.shutdown();
+      scheduler.awaitTermination(30, TimeUnit.SECONDS);
+      snapshotQuietly();
+   }
+}
@@ -0,0 +1,167 @@
+package uber.location_service.snapshot;
+
+import org.apache.kafka.common.TopicPartition;
+import uber.location_service.algo.SupplyIndex;
+import uber.location_service.storage.SupplyBatch;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyAttributes;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Binary snapshot of the supply positions together with the Kafka offsets it covers.
+ * Layout (big endian): magic, creation time, the offsets as [topic, partition, offset],
+ * the entry count and the entries as [id, latitude, longitude, attributes] with the
+ * coordinates in radians and the attributes packed, where strings are a 2 byte length
+ * followed by UTF-8 bytes. Snapshots of the first version, without the attributes, are
+ * still read.
+ *
+ * The store is written in latitude bands, so writers are blocked for one band at a time,
+ * and the offsets are taken before the first band. Updates racing with the write may be
+ * seen partly, but replaying the topic from the recorded offsets applies them again.
+ */
+public final class SupplySnapshot {
+   private static final long MAGIC = 0x534c534e41500002L; // "SLSNAP" and the format version
+   private static final long MAGIC_V1 = 0x534c534e41500001L;
+   private static final double BAND = Math.toRadians(10d);
+   private static final int LOAD_BATCH_SIZE = 8192;
+
+   private SupplySnapshot() {
+   }
+
+   /**
+    * Writes the snapshot into a temporary file first and then moves it over the path.
+    * @return the number of written entries.
+    */
+   public static long write(Path path, SupplyIndex index, Map<TopicPartition, Long> offsets) throws IOException {
+      final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+      final long count;
+
+      try (FileChannel channel = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+         DataOutputStream out = new DataOutputStream(
+               new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+         out.writeLong(MAGIC);
+         out.writeLong(System.currentTimeMillis());
+         out.writeInt(offsets.size());
+         for (Map.Entry<TopicPartition, Long> e : offsets.entrySet()) {
+            writeString(out, e.getKey().topic());
+            out.writeInt(e.getKey().partition());
+            out.writeLong(e.getValue());
+         }
+
+         final long countPosition = out.size();
+         out.writeLong(0L); // patched once the entries are written
+         count = writeEntries(out, index);
+         out.flush();
+
+         channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, count), countPosition);
+         channel.force(true);
+      }
+      Files.move(tmp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+      return count;
+   }
+
+   private static long writeEntries(DataOutputStream out, SupplyIndex index) throws IOException {
+      // cells are written once even if a band's covering reaches into the neighbouring one
+      final Set<Integer> writtenCells = new HashSet<>();
+      final long[] count = new long[1];
+
+      try {
+         for (double lat = -Math.PI / 2; lat < Math.PI / 2; lat += BAND) {
+            index.forEachInBox(
+                  GeoPoint.fromRadians(lat, -Math.PI),
+                  GeoPoint.fromRadians(Math.min(lat + BAND, Math.PI / 2), Math.PI),
+                  writtenCells::add,
+                  (id, latitude, longitude, x, y, z, attributes) -> {
+                     try {
+                        writeString(out, id);
+                        out.writeDouble(latitude);
+                        out.writeDouble(longitude);
+                        out.writeInt(attributes);
+                        ++count[0];
+                     } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                     }
+                  });
+         }
+      } catch (UncheckedIOException e) {
+         throw e.getCause();
+      }
+      return count[0];
+   }
+
+   private static void writeString(DataOutputStream out, String s) throws IOException {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      if (bytes.length > 0xffff) throw new IOException("String too long for a snapshot: " + s.length());
+      out.writeShort(bytes.length);
+      out.write(bytes);
+   }
+
+   /**
+    * Maps the snapshot into memory and passes its entries to the sink in batches.
+    * @return the Kafka offsets covered by the snapshot.
+    */
+   public static Map<TopicPartition, Long> read(Path path, Consumer<SupplyBatch> sink) throws IOException {
+      try (FileChannel channel = FileChannel.open(path, READ)) {
+         if (channel.size() > Integer.MAX_VALUE) throw new IOException("Snapshot is too large to map: " + path);
+
+         MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         final long magic = buf.getLong();
+         if (magic != MAGIC && magic != MAGIC_V1) throw new IOException("Not a supply snapshot: " + path);
+         buf.getLong(); // creation time
+
+         byte[] bytes = new byte[64];
+         Map<TopicPartition, Long> offsets = new HashMap<>();
+         for (int i = buf.getInt(); i > 0; --i) {
+            String topic = readString(buf, bytes = ensure(bytes, buf));
+            offsets.put(new TopicPartition(topic, buf.getInt()), buf.getLong());
+         }
+
+         SupplyBatch batch = new SupplyBatch(LOAD_BATCH_SIZE);
+         for (long i = buf.getLong(); i > 0; --i) {
+            String id = readString(buf, bytes = ensure(bytes, buf));
+            double latitude = buf.getDouble(), longitude = buf.getDouble();
+            batch.put(id, latitude, longitude, magic == MAGIC ? buf.getInt() : SupplyAttributes.NONE);
+            if (batch.size() == LOAD_BATCH_SIZE) {
+               sink.accept(batch);
+               batch.clear();
+            }
+         }
+         if (batch.size() > 0) sink.accept(batch);
+         return offsets;
+      } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+         throw new IOException("Truncated supply snapshot: " + path, e);
+      }
+   }
+
+   /**
+    * @return a buffer that fits the string starting at the current position.
+    */
+   private static byte[] ensure(byte[] bytes, ByteBuffer buf) {
+      int length = buf.getShort(buf.position()) & 0xffff;
+      return length <= bytes.length ? bytes : new byte[length];
+   }
+
+   private static String readString(ByteBuffer buf, byte[] bytes) {
+      int length = buf.getShort() & 0xffff;
+      buf.get(bytes, 0, length);
+      return new String(bytes, 0, length, StandardCharsets.UTF_8);
+   }
+}
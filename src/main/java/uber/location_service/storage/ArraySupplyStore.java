@@ -0,0 +1,588 @@
+package uber.location_service.storage;
+
+import uber.location_service.algo.CellAttributes;
+import uber.location_service.algo.CellRange;
+import uber.location_service.algo.GeoGrid;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyAttributes;
+import uber.location_service.structures.SupplyFilter;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.LongSupplier;
+
+/**
+ * Structure-of-arrays store - ids are interned to int slots and every grid cell keeps
+ * the positions of its instances in primitive arrays, so scans run over contiguous memory
+ * and a supply instance costs no objects besides its id. Freed slots are reused.
+ * The cells count the attributes of their instances, so the filtered scans skip the
+ * cells without a matching one. An absorbed update (see {@link UpdatePolicy}) only touches
+ * the per slot times. Writers are serialized by the write lock, scans share the read lock
+ * one cell at a time - the cells of the box are listed under it, then every cell is visited
+ * under it in turn, so the writers wait for at most one cell of a long scan. The visitors
+ * must not update the store. As with {@link uber.location_service.algo.GridIndex}, a scan
+ * sees each cell as of its visit.
+ */
+public class ArraySupplyStore implements SupplyStore {
+   private static class Cell {
+      int size;
+      int[] slots = new int[4];
+      double[] latitudes = new double[4], longitudes = new double[4];
+      double[] xs = new double[4], ys = new double[4], zs = new double[4];
+      int[] attributes = new int[4];
+      final CellAttributes summary = new CellAttributes();
+
+      int add(int slot, double latitude, double longitude, double x, double y, double z, int attributes) {
+         if (size == slots.length) {
+            int capacity = size * 2;
+            slots = Arrays.copyOf(slots, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            zs = Arrays.copyOf(zs, capacity);
+            this.attributes = Arrays.copyOf(this.attributes, capacity);
+         }
+         slots[size] = slot;
+         this.attributes[size] = attributes;
+         summary.add(attributes);
+         setPosition(size, latitude, longitude, x, y, z);
+         return size++;
+      }
+
+      void set(int pos, double latitude, double longitude, double x, double y, double z, int attributes) {
+         summary.replace(this.attributes[pos], attributes);
+         this.attributes[pos] = attributes;
+         setPosition(pos, latitude, longitude, x, y, z);
+      }
+
+      private void setPosition(int pos, double latitude, double longitude, double x, double y, double z) {
+         latitudes[pos] = latitude;
+         longitudes[pos] = longitude;
+         xs[pos] = x;
+         ys[pos] = y;
+         zs[pos] = z;
+      }
+
+      /**
+       * Moves the last entry into the freed position.
+       * @return the slot that moved or -1 if the removed entry was the last one.
+       */
+      int removeAt(int pos) {
+         summary.remove(attributes[pos]);
+         int last = --size;
+         if (pos == last) return -1;
+
+         slots[pos] = slots[last];
+         latitudes[pos] = latitudes[last];
+         longitudes[pos] = longitudes[last];
+         xs[pos] = xs[last];
+         ys[pos] = ys[last];
+         zs[pos] = zs[last];
+         attributes[pos] = attributes[last];
+         return slots[pos];
+      }
+   }
+
+   /**
+    * Immutable copy of a cell, as {@link EpochSupplyStore} publishes it.
+    */
+   static final class FrozenCell {
+      final int size;
+      private final String[] ids;
+      private final double[] latitudes, longitudes, xs, ys, zs;
+      private final int[] attributes;
+      private final long presence;
+
+      private FrozenCell(Cell cell, String[] idsBySlot) {
+         this.size = cell.size;
+         this.ids = new String[size];
+         for (int i = 0; i < size; ++i) ids[i] = idsBySlot[cell.slots[i]];
+         this.latitudes = Arrays.copyOf(cell.latitudes, size);
+         this.longitudes = Arrays.copyOf(cell.longitudes, size);
+         this.xs = Arrays.copyOf(cell.xs, size);
+         this.ys = Arrays.copyOf(cell.ys, size);
+         this.zs = Arrays.copyOf(cell.zs, size);
+         this.attributes = Arrays.copyOf(cell.attributes, size);
+         long bits = 0;
+         for (int i = 0; i < size; ++i) bits |= SupplyFilter.presenceOf(attributes[i]);
+         this.presence = bits;
+      }
+
+      boolean mayMatch(SupplyFilter filter) {
+         return filter.isAny() || filter.mayMatch(presence);
+      }
+
+      void visit(SupplyFilter filter, EntryVisitor visitor) {
+         final boolean any = filter.isAny();
+         for (int i = 0; i < size; ++i) {
+            if (any || filter.test(attributes[i])) {
+               visitor.visit(ids[i], latitudes[i], longitudes[i], xs[i], ys[i], zs[i], attributes[i]);
+            }
+         }
+      }
+   }
+
+   /**
+    * The occupied cells of a box and their sizes, listed under the lock.
+    */
+   private static final class CellList {
+      int[] ids = new int[16], sizes = new int[16];
+      int size;
+
+      void add(int cellId, int cellSize) {
+         if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            sizes = Arrays.copyOf(sizes, size * 2);
+         }
+         ids[size] = cellId;
+         sizes[size++] = cellSize;
+      }
+   }
+
+   /**
+    * Open addressing (linear probing) table of the non-empty cells by id, without boxing.
+    */
+   private static final class CellTable {
+      int[] keys = new int[128];
+      Cell[] cells = new Cell[128]; // null - a free slot
+      int size;
+
+      private static int slot(int cellId, int mask) {
+         int h = cellId * 0x9E3779B9;
+         return (h ^ (h >>> 16)) & mask;
+      }
+
+      Cell get(int cellId) {
+         final int mask = keys.length - 1;
+         for (int i = slot(cellId, mask); ; i = (i + 1) & mask) {
+            if (cells[i] == null) return null;
+            if (keys[i] == cellId) return cells[i];
+         }
+      }
+
+      Cell getOrAdd(int cellId) {
+         final int mask = keys.length - 1;
+         int i = slot(cellId, mask);
+         for (; cells[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == cellId) return cells[i];
+         }
+         if ((size + 1) * 2 > keys.length) {
+            resize(keys.length << 1);
+            return getOrAdd(cellId);
+         }
+         keys[i] = cellId;
+         ++size;
+         return cells[i] = new Cell();
+      }
+
+      /**
+       * Backward shift deletion, so the probe sequences stay intact without tombstones.
+       */
+      void remove(int cellId) {
+         final int mask = keys.length - 1;
+         int i = slot(cellId, mask);
+         while (cells[i] != null && keys[i] != cellId) i = (i + 1) & mask;
+         if (cells[i] == null) return;
+
+         for (int j = (i + 1) & mask; cells[j] != null; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            // the entry at j may fill the hole at i if its home isn't cyclically within (i, j]
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+               keys[i] = keys[j];
+               cells[i] = cells[j];
+               i = j;
+            }
+         }
+         cells[i] = null;
+         --size;
+      }
+
+      private void resize(int capacity) {
+         int[] oldKeys = keys;
+         Cell[] oldCells = cells;
+         keys = new int[capacity];
+         cells = new Cell[capacity];
+         final int mask = capacity - 1;
+         for (int j = 0; j < oldKeys.length; ++j) {
+            if (oldCells[j] == null) continue;
+            int i = slot(oldKeys[j], mask);
+            while (cells[i] != null) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            cells[i] = oldCells[j];
+         }
+      }
+   }
+
+   private final GeoGrid grid;
+   private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+   private final IdSlotMap slotsById;
+   private final CellTable cells;
+   private final SupplyExpiry expiry;
+   private final UpdatePolicy policy;
+   private CellVersions versions; // null unless results are cached
+   private SupplyDensity density; // null unless counted
+   private IntConsumer cellListener; // null unless published by an EpochSupplyStore
+
+   // indexed by slot
+   private String[] ids;
+   private int[] cellOfSlot, posInCell;
+   private long[] lastSeen, timestamps;
+   private int slotCount;
+
+   private int[] freeSlots;
+   private int freeCount;
+
+   public ArraySupplyStore(GeoGrid grid) {
+      this(grid, 1024);
+   }
+
+   public ArraySupplyStore(GeoGrid grid, int expectedSize) {
+      this(grid, expectedSize, 0, System::currentTimeMillis);
+   }
+
+   /**
+    * @param ttlMs the time to live of an instance since its last update, 0 - forever.
+    * @param clock the current time in milliseconds.
+    */
+   public ArraySupplyStore(GeoGrid grid, int expectedSize, long ttlMs, LongSupplier clock) {
+      this(grid, expectedSize, ttlMs, clock, UpdatePolicy.NONE);
+   }
+
+   public ArraySupplyStore(GeoGrid grid, int expectedSize, long ttlMs, LongSupplier clock, UpdatePolicy policy) {
+      this.grid = grid;
+      this.expiry = new SupplyExpiry(ttlMs, clock);
+      this.policy = policy;
+      this.slotsById = new IdSlotMap(expectedSize);
+      this.cells = new CellTable();
+      this.ids = new String[expectedSize];
+      this.cellOfSlot = new int[expectedSize];
+      this.posInCell = new int[expectedSize];
+      this.lastSeen = new long[expectedSize];
+      this.timestamps = new long[expectedSize];
+      this.freeSlots = new int[16];
+   }
+
+   private int allocateSlot() {
+      if (freeCount > 0) return freeSlots[--freeCount];
+
+      if (slotCount == ids.length) {
+         int capacity = Math.max(16, slotCount + (slotCount >> 1));
+         ids = Arrays.copyOf(ids, capacity);
+         cellOfSlot = Arrays.copyOf(cellOfSlot, capacity);
+         posInCell = Arrays.copyOf(posInCell, capacity);
+         lastSeen = Arrays.copyOf(lastSeen, capacity);
+         timestamps = Arrays.copyOf(timestamps, capacity);
+      }
+      return slotCount++;
+   }
+
+   private void releaseSlot(int slot) {
+      ids[slot] = null;
+      if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+      freeSlots[freeCount++] = slot;
+   }
+
+   private void addToCell(int slot, int cellId,
+                          double latitude, double longitude, double x, double y, double z, int attributes) {
+      changed(cellId);
+      Cell cell = cells.getOrAdd(cellId);
+      cellOfSlot[slot] = cellId;
+      posInCell[slot] = cell.add(slot, latitude, longitude, x, y, z, attributes);
+   }
+
+   private void removeFromCell(int slot) {
+      changed(cellOfSlot[slot]);
+      Cell cell = cells.get(cellOfSlot[slot]);
+      int moved = cell.removeAt(posInCell[slot]);
+      if (moved >= 0) posInCell[moved] = posInCell[slot];
+      if (cell.size == 0) cells.remove(cellOfSlot[slot]);
+   }
+
+   private Outcome apply(String id, double latitude, double longitude, double x, double y, double z,
+                         int attributes, long timestamp, long now) {
+      final int cellId = grid.cellOf(latitude, longitude);
+
+      int slot = slotsById.get(id);
+      if (slot == IdSlotMap.NO_SLOT) {
+         slot = allocateSlot();
+         ids[slot] = id;
+         slotsById.put(id, slot);
+         expiry.track(id, now);
+         if (attributes == SupplyAttributes.UNCHANGED) attributes = SupplyAttributes.NONE;
+         addToCell(slot, cellId, latitude, longitude, x, y, z, attributes);
+         if (density != null) density.added(latitude, longitude);
+         timestamps[slot] = timestamp;
+      } else {
+         if (UpdatePolicy.isStale(timestamps[slot], timestamp)) return Outcome.STALE;
+         timestamps[slot] = UpdatePolicy.latest(timestamps[slot], timestamp);
+
+         Cell cell = cells.get(cellOfSlot[slot]);
+         final int pos = posInCell[slot];
+         if (attributes == SupplyAttributes.UNCHANGED) attributes = cell.attributes[pos];
+         if (cellOfSlot[slot] == cellId && attributes == cell.attributes[pos] &&
+               policy.isAbsorbed(cell.xs[pos], cell.ys[pos], cell.zs[pos], x, y, z)) {
+            lastSeen[slot] = now;
+            return Outcome.ABSORBED;
+         }
+
+         if (density != null) density.moved(cell.latitudes[pos], cell.longitudes[pos], latitude, longitude);
+         if (versions != null) bumpSlot(slot);
+         if (cellOfSlot[slot] == cellId) {
+            changed(cellId);
+            cell.set(pos, latitude, longitude, x, y, z, attributes);
+         } else {
+            removeFromCell(slot);
+            addToCell(slot, cellId, latitude, longitude, x, y, z, attributes);
+         }
+      }
+      lastSeen[slot] = now;
+      if (versions != null) versions.bump(latitude, longitude);
+      return Outcome.APPLIED;
+   }
+
+   private void changed(int cellId) {
+      if (cellListener != null) cellListener.accept(cellId);
+   }
+
+   /**
+    * Receives the id of every cell a writer changes, under the write lock.
+    */
+   void setCellListener(IntConsumer listener) {
+      this.cellListener = listener;
+   }
+
+   /**
+    * Runs the action with the writers blocked.
+    */
+   void underReadLock(Runnable action) {
+      lock.readLock().lock();
+      try {
+         action.run();
+      } finally {
+         lock.readLock().unlock();
+      }
+   }
+
+   /**
+    * Must be called under the lock, see {@link #underReadLock}.
+    * @return a copy of the cell, null if it is empty.
+    */
+   FrozenCell freeze(int cellId) {
+      Cell cell = cells.get(cellId);
+      return cell == null ? null : new FrozenCell(cell, ids);
+   }
+
+   private void bumpSlot(int slot) {
+      Cell cell = cells.get(cellOfSlot[slot]);
+      versions.bump(cell.latitudes[posInCell[slot]], cell.longitudes[posInCell[slot]]);
+   }
+
+   private void uncountSlot(int slot) {
+      Cell cell = cells.get(cellOfSlot[slot]);
+      density.removed(cell.latitudes[posInCell[slot]], cell.longitudes[posInCell[slot]]);
+   }
+
+   @Override
+   public Outcome update(String id, double latitude, double longitude, int attributes, long timestamp) {
+      // the trigonometry is done before taking the lock
+      final double cosLat = Math.cos(latitude);
+      final double x = cosLat * Math.cos(longitude), y = cosLat * Math.sin(longitude);
+      final double z = Math.sin(latitude);
+      final long now = expiry.now();
+
+      lock.writeLock().lock();
+      try {
+         return apply(id, latitude, longitude, x, y, z, attributes, timestamp, now);
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }
+
+   @Override
+   public void updateAll(SupplyBatch batch) {
+      final long now = expiry.now();
+      lock.writeLock().lock();
+      try {
+         for (int i = 0; i < batch.size(); ++i) {
+            batch.setOutcome(i, apply(batch.getId(i), batch.getLatitude(i), batch.getLongitude(i),
+                  batch.getX(i), batch.getY(i), batch.getZ(i), batch.getAttributes(i), batch.getTimestamp(i), now));
+         }
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }
+
+   @Override
+   public boolean remove(String id) {
+      lock.writeLock().lock();
+      try {
+         int slot = slotsById.remove(id);
+         if (slot == IdSlotMap.NO_SLOT) return false;
+
+         expiry.untrack(id);
+         if (versions != null) bumpSlot(slot);
+         if (density != null) uncountSlot(slot);
+         removeFromCell(slot);
+         releaseSlot(slot);
+         return true;
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }
+
+   @Override
+   public int expire(Consumer<String> onRemoved) {
+      final long now = expiry.now();
+      final List<String> due = expiry.due(now);
+      if (due.isEmpty()) return 0;
+
+      lock.writeLock().lock();
+      try {
+         int removed = 0;
+         for (String id : due) {
+            int slot = slotsById.get(id);
+            if (slot == IdSlotMap.NO_SLOT) {
+               expiry.skip(id);
+               continue;
+            }
+            if (!expiry.isExpired(lastSeen[slot], now)) {
+               expiry.track(id, lastSeen[slot]);
+               continue;
+            }
+            slotsById.remove(id);
+            if (versions != null) bumpSlot(slot);
+            if (density != null) uncountSlot(slot);
+            removeFromCell(slot);
+            releaseSlot(slot);
+            ++removed;
+            onRemoved.accept(id);
+         }
+         return removed;
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }
+
+   @Override
+   public void setCellVersions(CellVersions versions) {
+      this.versions = versions;
+   }
+
+   @Override
+   public void setDensity(SupplyDensity density) {
+      this.density = density;
+   }
+
+   @Override
+   public GeoPoint getLocation(String id) {
+      lock.readLock().lock();
+      try {
+         int slot = slotsById.get(id);
+         if (slot == IdSlotMap.NO_SLOT) return null;
+
+         Cell cell = cells.get(cellOfSlot[slot]);
+         int pos = posInCell[slot];
+         return GeoPoint.fromRadians(cell.latitudes[pos], cell.longitudes[pos]);
+      } finally {
+         lock.readLock().unlock();
+      }
+   }
+
+   @Override
+   public long getTimestamp(String id) {
+      lock.readLock().lock();
+      try {
+         int slot = slotsById.get(id);
+         return slot == IdSlotMap.NO_SLOT ? -1 : timestamps[slot];
+      } finally {
+         lock.readLock().unlock();
+      }
+   }
+
+   @Override
+   public int size() {
+      lock.readLock().lock();
+      try {
+         return slotsById.size();
+      } finally {
+         lock.readLock().unlock();
+      }
+   }
+
+   @Override
+   public GeoGrid getGrid() {
+      return grid;
+   }
+
+   private CellList listCells(GeoPoint min, GeoPoint max, SupplyFilter filter) {
+      final CellRange range = grid.coveringRange(min, max);
+      final CellList list = new CellList();
+
+      lock.readLock().lock();
+      try {
+         // wide boxes cover more cells than there are occupied ones - walk the occupied instead
+         if (range.count() > cells.size) {
+            final int[] keys = cells.keys;
+            final Cell[] occupied = cells.cells;
+            for (int i = 0; i < keys.length; ++i) {
+               Cell cell = occupied[i];
+               if (cell != null && range.contains(keys[i]) && cell.summary.mayMatch(filter))
+                  list.add(keys[i], cell.size);
+            }
+         } else {
+            range.forEach(cellId -> {
+               Cell cell = cells.get(cellId);
+               if (cell != null && cell.summary.mayMatch(filter)) list.add(cellId, cell.size);
+            });
+         }
+      } finally {
+         lock.readLock().unlock();
+      }
+      return list;
+   }
+
+   private void visitCell(int cellId, SupplyFilter filter, EntryVisitor visitor) {
+      lock.readLock().lock();
+      try {
+         Cell cell = cells.get(cellId);
+         if (cell == null || !cell.summary.mayMatch(filter)) return;
+
+         final int[] slots = cell.slots, attributes = cell.attributes;
+         final double[] latitudes = cell.latitudes, longitudes = cell.longitudes;
+         final double[] xs = cell.xs, ys = cell.ys, zs = cell.zs;
+         final boolean any = filter.isAny();
+         for (int i = 0, n = cell.size; i < n; ++i) {
+            if (any || filter.test(attributes[i])) {
+               visitor.visit(ids[slots[i]], latitudes[i], longitudes[i], xs[i], ys[i], zs[i], attributes[i]);
+            }
+         }
+      } finally {
+         lock.readLock().unlock();
+      }
+   }
+
+   @Override
+   public void forEachInBox(GeoPoint min, GeoPoint max, IntPredicate cellFilter, SupplyFilter filter,
+                            EntryVisitor visitor) {
+      final CellList list = listCells(min, max, filter);
+      for (int i = 0; i < list.size; ++i) {
+         if (cellFilter.test(list.ids[i])) visitCell(list.ids[i], filter, visitor);
+      }
+   }
+
+   @Override
+   public void forEachCellInBox(GeoPoint min, GeoPoint max, SupplyFilter filter, CellVisitor visitor) {
+      final CellList list = listCells(min, max, filter);
+      for (int i = 0; i < list.size; ++i) visitor.visit(list.ids[i], list.sizes[i]);
+   }
+
+   @Override
+   public void forEachInCell(int cellId, SupplyFilter filter, EntryVisitor visitor) {
+      visitCell(cellId, filter, visitor);
+   }
+}
@@ -0,0 +1,61 @@
+package uber.location_service.storage;
+
+import uber.location_service.algo.GeoGrid;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Versions of the grid cells for validating cached query results. Every change bumps
+ * a global version and stamps it onto the changed cell, so a result computed from the
+ * state at version v stays valid while none of the cells it covers has a later stamp.
+ * Cells are hashed into a fixed table - cells sharing a stamp only cause extra misses.
+ */
+public class CellVersions {
+   private final GeoGrid grid;
+   private final AtomicLong clock = new AtomicLong();
+   private final AtomicLongArray stamps;
+   private final int mask;
+
+   /**
+    * @param tableSize the number of stamps, rounded up to a power of two.
+    */
+   public CellVersions(GeoGrid grid, int tableSize) {
+      int size = Integer.highestOneBit(Math.max(2, tableSize - 1)) << 1;
+      this.grid = grid;
+      this.stamps = new AtomicLongArray(size);
+      this.mask = size - 1;
+   }
+
+   public GeoGrid getGrid() {
+      return grid;
+   }
+
+   private int slot(int cell) {
+      int h = cell * 0x9E3779B9;
+      return (h ^ (h >>> 16)) & mask;
+   }
+
+   /**
+    * Marks the cell of the position (in radians) changed, called once the change is visible to the readers.
+    */
+   public void bump(double latitude, double longitude) {
+      long version = clock.incrementAndGet();
+      // concurrent bumps may land out of order, the stamp never goes back
+      stamps.accumulateAndGet(slot(grid.cellOf(latitude, longitude)), version, Math::max);
+   }
+
+   /**
+    * @return the version to read before computing a result.
+    */
+   public long current() {
+      return clock.get();
+   }
+
+   public boolean unchangedSince(int[] cells, long version) {
+      for (int cell : cells) {
+         if (stamps.get(slot(cell)) > version) return false;
+      }
+      return true;
+   }
+}
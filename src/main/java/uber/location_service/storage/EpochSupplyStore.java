@@ -0,0 +1,394 @@
+package uber.location_service.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import uber.location_service.algo.CellRange;
+import uber.location_service.algo.GeoGrid;
+import uber.location_service.storage.ArraySupplyStore.FrozenCell;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyFilter;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.function.LongSupplier;
+
+/**
+ * Snapshot isolated store - the writers, serialized by its lock, apply the updates to a private
+ * {@link ArraySupplyStore}, and the changed cells are published as an immutable epoch every
+ * interval or every max-pending updates, whichever comes first. An epoch shares the unchanged
+ * cells with the previous one, so a publish copies only the cells changed since. The scans read
+ * the current epoch without any lock and see a consistent state of the whole store, at most
+ * one publish interval behind the writers. The cached results are invalidated once an epoch
+ * with their changes is visible. The point lookups read the writers' store.
+ *
+ * The publishing is measured by supply.epoch.publish, the time the oldest change of an epoch
+ * waited to become visible by supply.epoch.staleness, and the age of the current epoch is
+ * the supply.epoch.age gauge.
+ */
+public class EpochSupplyStore implements SupplyStore {
+   /**
+    * Immutable open addressing table of the non-empty cells by id.
+    */
+   private static final class Epoch {
+      static final Epoch EMPTY = new Epoch(new int[16], new FrozenCell[16], 0, 0, 0L);
+
+      final int[] keys;
+      final FrozenCell[] cells; // null - a free slot
+      final int cellCount, size;
+      final long publishedAt; // nanos
+
+      Epoch(int[] keys, FrozenCell[] cells, int cellCount, int size, long publishedAt) {
+         this.keys = keys;
+         this.cells = cells;
+         this.cellCount = cellCount;
+         this.size = size;
+         this.publishedAt = publishedAt;
+      }
+
+      private static int slot(int cellId, int mask) {
+         int h = cellId * 0x9E3779B9;
+         return (h ^ (h >>> 16)) & mask;
+      }
+
+      FrozenCell get(int cellId) {
+         final int mask = keys.length - 1;
+         for (int i = slot(cellId, mask); ; i = (i + 1) & mask) {
+            if (cells[i] == null) return null;
+            if (keys[i] == cellId) return cells[i];
+         }
+      }
+
+      /**
+       * @param changed the ids of the changed cells, sorted and distinct, with their copies (null if empty).
+       */
+      Epoch with(int[] changed, FrozenCell[] copies, int count, int size, long publishedAt) {
+         int cellCount = this.cellCount;
+         for (int i = 0; i < count; ++i) {
+            if (copies[i] != null) ++cellCount;
+         }
+         // sized for the worst case of only additions, rebuilt when it gets too full
+         int capacity = keys.length;
+         while (cellCount * 2 > capacity) capacity *= 2;
+         int[] nextKeys;
+         FrozenCell[] nextCells;
+         if (capacity == keys.length) {
+            nextKeys = keys.clone();
+            nextCells = cells.clone();
+         } else {
+            nextKeys = new int[capacity];
+            nextCells = new FrozenCell[capacity];
+            for (int i = 0; i < keys.length; ++i) {
+               if (cells[i] != null) insert(nextKeys, nextCells, keys[i], cells[i]);
+            }
+         }
+
+         int nextCount = this.cellCount;
+         for (int i = 0; i < count; ++i) {
+            boolean present = remove(nextKeys, nextCells, changed[i]);
+            if (present) --nextCount;
+            if (copies[i] != null) {
+               insert(nextKeys, nextCells, changed[i], copies[i]);
+               ++nextCount;
+            }
+         }
+         return new Epoch(nextKeys, nextCells, nextCount, size, publishedAt);
+      }
+
+      private static void insert(int[] keys, FrozenCell[] cells, int cellId, FrozenCell cell) {
+         final int mask = keys.length - 1;
+         int i = slot(cellId, mask);
+         while (cells[i] != null) i = (i + 1) & mask;
+         keys[i] = cellId;
+         cells[i] = cell;
+      }
+
+      /**
+       * Backward shift deletion, so the probe sequences stay intact without tombstones.
+       */
+      private static boolean remove(int[] keys, FrozenCell[] cells, int cellId) {
+         final int mask = keys.length - 1;
+         int i = slot(cellId, mask);
+         while (cells[i] != null && keys[i] != cellId) i = (i + 1) & mask;
+         if (cells[i] == null) return false;
+
+         for (int j = (i + 1) & mask; cells[j] != null; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            // the entry at j may fill the hole at i if its home isn't cyclically within (i, j]
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+               keys[i] = keys[j];
+               cells[i] = cells[j];
+               i = j;
+            }
+         }
+         cells[i] = null;
+         return true;
+      }
+   }
+
+   /**
+    * Holds back the cache invalidations of the writers until their epoch is published.
+    */
+   private static final class PendingVersions extends CellVersions {
+      private double[] positions = new double[64];
+      private int count;
+
+      PendingVersions(GeoGrid grid) {
+         super(grid, 2);
+      }
+
+      @Override
+      public void bump(double latitude, double longitude) {
+         if (count == positions.length) positions = Arrays.copyOf(positions, count * 2);
+         positions[count++] = latitude;
+         positions[count++] = longitude;
+      }
+
+      /**
+       * @return the buffered positions, as latitude and longitude pairs.
+       */
+      double[] drain() {
+         double[] res = Arrays.copyOf(positions, count);
+         count = 0;
+         return res;
+      }
+   }
+
+   private final ArraySupplyStore writer;
+   private final GeoGrid grid;
+   private final int maxPending;
+   private final ScheduledExecutorService publisher; // null - published only by the writers
+   private volatile Epoch epoch = Epoch.EMPTY;
+
+   // guarded by the writer's lock, the publishing drains them under its read lock
+   private int[] changed = new int[64];
+   private int changedCount, pending;
+   private long oldestPending; // nanos
+   private PendingVersions pendingVersions; // null unless results are cached
+   private CellVersions versions;
+
+   private final Timer publishTimer, stalenessTimer; // null without a registry
+   private final Counter publishCounter;
+
+   /**
+    * @param intervalMs the publish interval, 0 - only after max-pending updates.
+    * @param maxPending the number of updates published right after they are applied.
+    */
+   public EpochSupplyStore(GeoGrid grid, int expectedSize, long ttlMs, LongSupplier clock, UpdatePolicy policy,
+                           long intervalMs, int maxPending, MeterRegistry registry) {
+      if (maxPending < 1) throw new IllegalArgumentException("Max pending updates must be positive");
+
+      this.grid = grid;
+      this.writer = new ArraySupplyStore(grid, expectedSize, ttlMs, clock, policy);
+      this.maxPending = maxPending;
+      writer.setCellListener(this::changed);
+
+      if (registry != null) {
+         this.publishTimer = registry.timer("supply.epoch.publish");
+         this.stalenessTimer = registry.timer("supply.epoch.staleness");
+         this.publishCounter = registry.counter("supply.epoch.published");
+         registry.gauge("supply.epoch.age", this, s -> (System.nanoTime() - s.epoch.publishedAt) / 1e6);
+      } else {
+         this.publishTimer = null;
+         this.stalenessTimer = null;
+         this.publishCounter = null;
+      }
+
+      if (intervalMs <= 0) {
+         this.publisher = null;
+         return;
+      }
+      this.publisher = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "supply-epoch");
+         t.setDaemon(true);
+         return t;
+      });
+      publisher.scheduleWithFixedDelay(this::publish, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+   }
+
+   private void changed(int cellId) {
+      if (changedCount == 0) oldestPending = System.nanoTime();
+      if (changedCount == changed.length) changed = Arrays.copyOf(changed, changedCount * 2);
+      changed[changedCount++] = cellId;
+   }
+
+   /**
+    * Makes every update applied so far visible to the scans.
+    */
+   @Override
+   public synchronized void publish() {
+      final long started = System.nanoTime();
+      final int[][] ids = new int[1][];
+      final FrozenCell[][] copies = new FrozenCell[1][];
+      final int[] count = new int[1], size = new int[1];
+      final long[] oldest = new long[1];
+      final double[][] bumps = new double[1][];
+      writer.underReadLock(() -> {
+         pending = 0;
+         if (changedCount == 0) return;
+
+         Arrays.sort(changed, 0, changedCount);
+         int distinct = 0;
+         for (int i = 0; i < changedCount; ++i) {
+            if (distinct == 0 || changed[distinct - 1] != changed[i]) changed[distinct++] = changed[i];
+         }
+         ids[0] = Arrays.copyOf(changed, distinct);
+         copies[0] = new FrozenCell[distinct];
+         for (int i = 0; i < distinct; ++i) copies[0][i] = writer.freeze(ids[0][i]);
+         count[0] = distinct;
+         size[0] = writer.size();
+         oldest[0] = oldestPending;
+         changedCount = 0;
+         if (pendingVersions != null) bumps[0] = pendingVersions.drain();
+      });
+      if (count[0] == 0) return;
+
+      epoch = epoch.with(ids[0], copies[0], count[0], size[0], System.nanoTime());
+      // the invalidations are replayed only once their changes are visible
+      if (bumps[0] != null) {
+         for (int i = 0; i < bumps[0].length; i += 2) versions.bump(bumps[0][i], bumps[0][i + 1]);
+      }
+
+      if (publishTimer != null) {
+         final long now = System.nanoTime();
+         publishTimer.record(now - started, TimeUnit.NANOSECONDS);
+         stalenessTimer.record(now - oldest[0], TimeUnit.NANOSECONDS);
+         publishCounter.increment();
+      }
+   }
+
+   private void publishIfDue(int updates) {
+      boolean due;
+      synchronized (this) {
+         pending += updates;
+         due = pending >= maxPending;
+      }
+      if (due) publish();
+   }
+
+   @Override
+   public Outcome update(String id, double latitude, double longitude, int attributes, long timestamp) {
+      Outcome outcome = writer.update(id, latitude, longitude, attributes, timestamp);
+      if (outcome == Outcome.APPLIED) publishIfDue(1);
+      return outcome;
+   }
+
+   @Override
+   public void updateAll(SupplyBatch batch) {
+      writer.updateAll(batch);
+      publishIfDue(batch.size());
+   }
+
+   @Override
+   public boolean remove(String id) {
+      boolean removed = writer.remove(id);
+      if (removed) publishIfDue(1);
+      return removed;
+   }
+
+   @Override
+   public int expire(Consumer<String> onRemoved) {
+      int removed = writer.expire(onRemoved);
+      if (removed > 0) publishIfDue(removed);
+      return removed;
+   }
+
+   @Override
+   public GeoPoint getLocation(String id) {
+      return writer.getLocation(id);
+   }
+
+   @Override
+   public long getTimestamp(String id) {
+      return writer.getTimestamp(id);
+   }
+
+   /**
+    * @return the number of instances in the current epoch.
+    */
+   @Override
+   public int size() {
+      return epoch.size;
+   }
+
+   @Override
+   public void setCellVersions(CellVersions versions) {
+      this.versions = versions;
+      this.pendingVersions = new PendingVersions(versions.getGrid());
+      writer.setCellVersions(pendingVersions);
+   }
+
+   /**
+    * The counts follow the writers, not the published epochs.
+    */
+   @Override
+   public void setDensity(SupplyDensity density) {
+      writer.setDensity(density);
+   }
+
+   /**
+    * Stops the background publishing.
+    */
+   public void shutdown() {
+      if (publisher != null) publisher.shutdownNow();
+   }
+
+   @Override
+   public GeoGrid getGrid() {
+      return grid;
+   }
+
+   @Override
+   public void forEachInBox(GeoPoint min, GeoPoint max, IntPredicate cellFilter, SupplyFilter filter,
+                            EntryVisitor visitor) {
+      final Epoch e = epoch;
+      final CellRange range = grid.coveringRange(min, max);
+
+      // wide boxes cover more cells than there are occupied ones - walk the occupied instead
+      if (range.count() > e.cellCount) {
+         for (int i = 0; i < e.keys.length; ++i) {
+            FrozenCell cell = e.cells[i];
+            if (cell != null && range.contains(e.keys[i]) && cell.mayMatch(filter) && cellFilter.test(e.keys[i]))
+               cell.visit(filter, visitor);
+         }
+         return;
+      }
+
+      range.forEach(cellId -> {
+         FrozenCell cell = e.get(cellId);
+         if (cell != null && cell.mayMatch(filter) && cellFilter.test(cellId)) cell.visit(filter, visitor);
+      });
+   }
+
+   @Override
+   public void forEachCellInBox(GeoPoint min, GeoPoint max, SupplyFilter filter, CellVisitor visitor) {
+      final Epoch e = epoch;
+      final CellRange range = grid.coveringRange(min, max);
+
+      if (range.count() > e.cellCount) {
+         for (int i = 0; i < e.keys.length; ++i) {
+            FrozenCell cell = e.cells[i];
+            if (cell != null && range.contains(e.keys[i]) && cell.mayMatch(filter)) visitor.visit(e.keys[i], cell.size);
+         }
+         return;
+      }
+
+      range.forEach(cellId -> {
+         FrozenCell cell = e.get(cellId);
+         if (cell != null && cell.mayMatch(filter)) visitor.visit(cellId, cell.size);
+      });
+   }
+
+   /**
+    * Reads the current epoch, which may be a later one than the cells were listed from.
+    */
+   @Override
+   public void forEachInCell(int cellId, SupplyFilter filter, EntryVisitor visitor) {
+      FrozenCell cell = epoch.get(cellId);
+      if (cell != null && cell.mayMatch(filter)) cell.visit(filter, visitor);
+   }
+}
@@ -0,0 +1,108 @@
+package uber.location_service.storage;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing (linear probing) map from supply id to its int slot, without
+ * boxing or per-entry nodes. Not thread safe - guarded by the owning store.
+ */
+class IdSlotMap {
+   static final int NO_SLOT = -1;
+
+   private String[] keys;
+   private int[] slots;
+   private int size;
+
+   IdSlotMap(int expectedSize) {
+      int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+      keys = new String[capacity];
+      slots = new int[capacity];
+   }
+
+   int size() {
+      return size;
+   }
+
+   void clear() {
+      if (size == 0) return;
+      Arrays.fill(keys, null);
+      size = 0;
+   }
+
+   private static int mix(int h) {
+      h *= 0x9E3779B9;
+      return h ^ (h >>> 16);
+   }
+
+   int get(String id) {
+      final int mask = keys.length - 1;
+      for (int i = mix(id.hashCode()) & mask; ; i = (i + 1) & mask) {
+         String key = keys[i];
+         if (key == null) return NO_SLOT;
+         if (key.equals(id)) return slots[i];
+      }
+   }
+
+   void put(String id, int slot) {
+      if ((size + 1) * 2 > keys.length) resize(keys.length << 1);
+
+      final int mask = keys.length - 1;
+      for (int i = mix(id.hashCode()) & mask; ; i = (i + 1) & mask) {
+         String key = keys[i];
+         if (key == null) {
+            keys[i] = id;
+            slots[i] = slot;
+            ++size;
+            return;
+         }
+         if (key.equals(id)) {
+            slots[i] = slot;
+            return;
+         }
+      }
+   }
+
+   /**
+    * @return the removed slot or NO_SLOT.
+    */
+   int remove(String id) {
+      final int mask = keys.length - 1;
+      int i = mix(id.hashCode()) & mask;
+      while (true) {
+         String key = keys[i];
+         if (key == null) return NO_SLOT;
+         if (key.equals(id)) break;
+         i = (i + 1) & mask;
+      }
+
+      final int removed = slots[i];
+      // backward shift deletion keeps the probe sequences intact without tombstones
+      for (int gap = i, j = (i + 1) & mask; ; j = (j + 1) & mask) {
+         String key = keys[j];
+         if (key == null) {
+            keys[gap] = null;
+            break;
+         }
+         int home = mix(key.hashCode()) & mask;
+         if (((j - home) & mask) >= ((j - gap) & mask)) {
+            keys[gap] = key;
+            slots[gap] = slots[j];
+            gap = j;
+         }
+      }
+      --size;
+      return removed;
+   }
+
+   private void resize(int capacity) {
+      String[] oldKeys = keys;
+      int[] oldSlots = slots;
+      keys = new String[capacity];
+      slots = new int[capacity];
+      size = 0;
+
+      for (int i = 0; i < oldKeys.length; ++i) {
+         if (oldKeys[i] != null) put(oldKeys[i], oldSlots[i]);
+      }
+   }
+}
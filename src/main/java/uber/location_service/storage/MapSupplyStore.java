@@ -0,0 +1,195 @@
+package uber.location_service.storage;
+
+import uber.location_service.algo.GeoGrid;
+import uber.location_service.algo.GridIndex;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyAttributes;
+import uber.location_service.structures.SupplyEntry;
+import uber.location_service.structures.SupplyFilter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.function.LongSupplier;
+
+/**
+ * Object per supply instance store - a map by id plus the {@link GridIndex} over the same entries.
+ * An absorbed update (see {@link UpdatePolicy}) only replaces the entry of the map, the index
+ * keeps the previous one of the same position.
+ */
+public class MapSupplyStore implements SupplyStore {
+   private final ConcurrentHashMap<String, SupplyEntry> lhm;
+   private final GridIndex index;
+   private final SupplyExpiry expiry;
+   private final UpdatePolicy policy;
+   private CellVersions versions; // null unless results are cached
+   private SupplyDensity density; // null unless counted
+
+   public MapSupplyStore(GeoGrid grid) {
+      this(grid, 0, System::currentTimeMillis);
+   }
+
+   /**
+    * @param ttlMs the time to live of an instance since its last update, 0 - forever.
+    * @param clock the current time in milliseconds.
+    */
+   public MapSupplyStore(GeoGrid grid, long ttlMs, LongSupplier clock) {
+      this(grid, ttlMs, clock, UpdatePolicy.NONE);
+   }
+
+   public MapSupplyStore(GeoGrid grid, long ttlMs, LongSupplier clock, UpdatePolicy policy) {
+      this.lhm = new ConcurrentHashMap<>(100);
+      this.index = new GridIndex(grid);
+      this.expiry = new SupplyExpiry(ttlMs, clock);
+      this.policy = policy;
+   }
+
+   private Outcome put(String id, double latitude, double longitude, double x, double y, double z,
+                       int attributes, long timestamp, long now) {
+      final Outcome[] outcome = {Outcome.APPLIED};
+      // compute(...) serializes updates of the same id, so the index moves stay consistent
+      lhm.compute(id, (k, prev) -> {
+         if (prev == null) {
+            expiry.track(id, now);
+         } else if (UpdatePolicy.isStale(prev.getTimestamp(), timestamp)) {
+            outcome[0] = Outcome.STALE;
+            return prev;
+         }
+
+         final int resolved = attributes != SupplyAttributes.UNCHANGED ? attributes :
+               prev == null ? SupplyAttributes.NONE : prev.getAttributes();
+         final long latest = prev == null ? timestamp : UpdatePolicy.latest(prev.getTimestamp(), timestamp);
+         final GeoGrid grid = index.getGrid();
+         if (prev != null && resolved == prev.getAttributes() &&
+               policy.isAbsorbed(prev.getX(), prev.getY(), prev.getZ(), x, y, z) &&
+               grid.cellOf(prev.getLatitude(), prev.getLongitude()) == grid.cellOf(latitude, longitude)) {
+            outcome[0] = Outcome.ABSORBED;
+            return prev.seenAt(now, latest);
+         }
+
+         final SupplyEntry entry = new SupplyEntry(id, latitude, longitude, x, y, z, resolved, now, latest);
+         index.move(prev, entry);
+         if (density != null) {
+            if (prev == null) density.added(latitude, longitude);
+            else density.moved(prev.getLatitude(), prev.getLongitude(), latitude, longitude);
+         }
+         if (prev != null) bump(prev);
+         bump(entry);
+         return entry;
+      });
+      return outcome[0];
+   }
+
+   @Override
+   public Outcome update(String id, double latitude, double longitude, int attributes, long timestamp) {
+      final double cosLat = Math.cos(latitude);
+      return put(id, latitude, longitude, cosLat * Math.cos(longitude), cosLat * Math.sin(longitude), Math.sin(latitude),
+            attributes, timestamp, expiry.now());
+   }
+
+   @Override
+   public void updateAll(SupplyBatch batch) {
+      final long now = expiry.now();
+      for (int i = 0; i < batch.size(); ++i) {
+         batch.setOutcome(i, put(batch.getId(i), batch.getLatitude(i), batch.getLongitude(i),
+               batch.getX(i), batch.getY(i), batch.getZ(i), batch.getAttributes(i), batch.getTimestamp(i), now));
+      }
+   }
+
+   @Override
+   public int expire(Consumer<String> onRemoved) {
+      final long now = expiry.now();
+      int[] removed = new int[1];
+      for (String id : expiry.due(now)) {
+         boolean[] present = new boolean[1];
+         lhm.computeIfPresent(id, (k, entry) -> {
+            present[0] = true;
+            if (!expiry.isExpired(entry.getLastSeen(), now)) {
+               expiry.track(id, entry.getLastSeen());
+               return entry;
+            }
+            index.remove(entry);
+            uncount(entry);
+            bump(entry);
+            ++removed[0];
+            onRemoved.accept(id);
+            return null;
+         });
+         if (!present[0]) expiry.skip(id);
+      }
+      return removed[0];
+   }
+
+   @Override
+   public boolean remove(String id) {
+      boolean[] removed = new boolean[1];
+      lhm.computeIfPresent(id, (k, prev) -> {
+         index.remove(prev);
+         uncount(prev);
+         bump(prev);
+         expiry.untrack(id);
+         removed[0] = true;
+         return null;
+      });
+      return removed[0];
+   }
+
+   private void bump(SupplyEntry entry) {
+      if (versions != null) versions.bump(entry.getLatitude(), entry.getLongitude());
+   }
+
+   private void uncount(SupplyEntry entry) {
+      if (density != null) density.removed(entry.getLatitude(), entry.getLongitude());
+   }
+
+   @Override
+   public void setCellVersions(CellVersions versions) {
+      this.versions = versions;
+   }
+
+   @Override
+   public void setDensity(SupplyDensity density) {
+      this.density = density;
+   }
+
+   @Override
+   public GeoPoint getLocation(String id) {
+      SupplyEntry entry = lhm.getOrDefault(id, null);
+      if (entry == null) {
+         return null;
+      }
+      return entry.getLocation();
+   }
+
+   @Override
+   public long getTimestamp(String id) {
+      SupplyEntry entry = lhm.get(id);
+      return entry == null ? -1 : entry.getTimestamp();
+   }
+
+   @Override
+   public int size() {
+      return lhm.size();
+   }
+
+   @Override
+   public GeoGrid getGrid() {
+      return index.getGrid();
+   }
+
+   @Override
+   public void forEachInBox(GeoPoint min, GeoPoint max, IntPredicate cellFilter, SupplyFilter filter,
+                            EntryVisitor visitor) {
+      index.forEachInBox(min, max, cellFilter, filter, visitor);
+   }
+
+   @Override
+   public void forEachCellInBox(GeoPoint min, GeoPoint max, SupplyFilter filter, CellVisitor visitor) {
+      index.forEachCellInBox(min, max, filter, visitor);
+   }
+
+   @Override
+   public void forEachInCell(int cellId, SupplyFilter filter, EntryVisitor visitor) {
+      index.forEachInCell(cellId, filter, visitor);
+   }
+}
@@ -0,0 +1,160 @@
+package uber.location_service.storage;
+
+import uber.location_service.structures.SupplyAttributes;
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffer of position updates (in radians) that keeps only the latest
+ * position per supply id, together with the latest attributes sent for it. An update
+ * with an older timestamp than the one kept for its id is dropped as stale. Unit
+ * vectors are computed on put, so stores apply the batch without any trigonometry
+ * under their locks. Not thread safe.
+ */
+public class SupplyBatch {
+   private final IdSlotMap positions;
+   private String[] ids;
+   private double[] latitudes, longitudes, xs, ys, zs;
+   private int[] attributes;
+   private long[] timestamps;
+   private SupplyStore.Outcome[] outcomes;
+   private int size, coalesced, stale;
+
+   public SupplyBatch(int expectedSize) {
+      this.positions = new IdSlotMap(expectedSize);
+      this.ids = new String[expectedSize];
+      this.latitudes = new double[expectedSize];
+      this.longitudes = new double[expectedSize];
+      this.xs = new double[expectedSize];
+      this.ys = new double[expectedSize];
+      this.zs = new double[expectedSize];
+      this.attributes = new int[expectedSize];
+      this.timestamps = new long[expectedSize];
+      this.outcomes = new SupplyStore.Outcome[expectedSize];
+   }
+
+   public void put(String id, double latitude, double longitude) {
+      put(id, latitude, longitude, SupplyAttributes.UNCHANGED);
+   }
+
+   public void put(String id, double latitude, double longitude, int attributes) {
+      put(id, latitude, longitude, attributes, UpdatePolicy.NO_TIMESTAMP);
+   }
+
+   /**
+    * @param attributes packed, {@link SupplyAttributes#UNCHANGED} keeps the ones put before.
+    * @param timestamp of the position, {@link UpdatePolicy#NO_TIMESTAMP} if not known.
+    */
+   public void put(String id, double latitude, double longitude, int attributes, long timestamp) {
+      int pos = positions.get(id);
+      if (pos == IdSlotMap.NO_SLOT) {
+         if (size == ids.length) grow();
+         pos = size++;
+         ids[pos] = id;
+         positions.put(id, pos);
+         this.attributes[pos] = attributes;
+         timestamps[pos] = timestamp;
+      } else {
+         if (UpdatePolicy.isStale(timestamps[pos], timestamp)) {
+            ++stale;
+            return;
+         }
+         ++coalesced;
+         if (attributes != SupplyAttributes.UNCHANGED) this.attributes[pos] = attributes;
+         timestamps[pos] = UpdatePolicy.latest(timestamps[pos], timestamp);
+      }
+
+      double cosLat = Math.cos(latitude);
+      latitudes[pos] = latitude;
+      longitudes[pos] = longitude;
+      xs[pos] = cosLat * Math.cos(longitude);
+      ys[pos] = cosLat * Math.sin(longitude);
+      zs[pos] = Math.sin(latitude);
+   }
+
+   private void grow() {
+      int capacity = Math.max(16, size * 2);
+      ids = Arrays.copyOf(ids, capacity);
+      latitudes = Arrays.copyOf(latitudes, capacity);
+      longitudes = Arrays.copyOf(longitudes, capacity);
+      xs = Arrays.copyOf(xs, capacity);
+      ys = Arrays.copyOf(ys, capacity);
+      zs = Arrays.copyOf(zs, capacity);
+      attributes = Arrays.copyOf(attributes, capacity);
+      timestamps = Arrays.copyOf(timestamps, capacity);
+      outcomes = Arrays.copyOf(outcomes, capacity);
+   }
+
+   public void clear() {
+      Arrays.fill(ids, 0, size, null);
+      Arrays.fill(outcomes, 0, size, null);
+      positions.clear();
+      size = 0;
+      coalesced = 0;
+      stale = 0;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   /**
+    * @return the number of updates replaced by a later one of the same id since the last clear.
+    */
+   public int getCoalesced() {
+      return coalesced;
+   }
+
+   /**
+    * @return the number of updates dropped as older than the one kept for their id since the last clear.
+    */
+   public int getStale() {
+      return stale;
+   }
+
+   public String getId(int i) {
+      return ids[i];
+   }
+
+   public double getLatitude(int i) {
+      return latitudes[i];
+   }
+
+   public double getLongitude(int i) {
+      return longitudes[i];
+   }
+
+   public double getX(int i) {
+      return xs[i];
+   }
+
+   public double getY(int i) {
+      return ys[i];
+   }
+
+   public double getZ(int i) {
+      return zs[i];
+   }
+
+   /**
+    * @return packed, {@link SupplyAttributes#UNCHANGED} if none were put.
+    */
+   public int getAttributes(int i) {
+      return attributes[i];
+   }
+
+   public long getTimestamp(int i) {
+      return timestamps[i];
+   }
+
+   /**
+    * @return what the store did with the update, null until the batch is applied.
+    */
+   public SupplyStore.Outcome getOutcome(int i) {
+      return outcomes[i];
+   }
+
+   void setOutcome(int i, SupplyStore.Outcome outcome) {
+      outcomes[i] = outcome;
+   }
+}
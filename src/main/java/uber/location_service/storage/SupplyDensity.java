@@ -0,0 +1,178 @@
+package uber.location_service.storage;
+
+import uber.location_service.algo.GeoGrid;
+import uber.location_service.structures.DensityCell;
+import uber.location_service.structures.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Supply counts per cell kept up to date by the stores, so that a heatmap is a read of the
+ * counts instead of a scan per point. Level 0 counts by the cells of the base grid, every next
+ * level by blocks of 2 x 2 cells of the previous one, so a cell of level k rolls up exactly
+ * 2^k x 2^k base cells. An update changes at most one count per level and a move within the
+ * same base cell none. The stores call it under the same lock as the change itself, the
+ * counts are read without any. A cell is dropped once its count gets back to zero.
+ */
+public class SupplyDensity {
+   private final GeoGrid grid;
+   private final int[] cols; // by level
+   private final List<Map<Integer, Integer>> counts; // by level, then by cell
+
+   /**
+    * @param levels the number of levels, the coarsest having cells 2^(levels-1) times the base size.
+    */
+   public SupplyDensity(GeoGrid grid, int levels) {
+      if (levels < 1 || levels > 16) throw new IllegalArgumentException("Levels must be within [1, 16]");
+
+      this.grid = grid;
+      this.cols = new int[levels];
+      this.counts = new ArrayList<>(levels);
+      for (int level = 0; level < levels; ++level) {
+         cols[level] = (grid.getCols() + (1 << level) - 1) >> level;
+         counts.add(new ConcurrentHashMap<>());
+      }
+   }
+
+   public int getLevels() {
+      return counts.size();
+   }
+
+   /**
+    * @return the size of the cells of the level, in degrees.
+    */
+   public double getCellSizeDegrees(int level) {
+      return Math.toDegrees(grid.getCellSize()) * (1 << level);
+   }
+
+   /**
+    * Atomic per cell, the count is removed as it drops to zero.
+    */
+   private void add(Map<Integer, Integer> levelCounts, int cell, int delta) {
+      levelCounts.merge(cell, delta, (count, d) -> count + d == 0 ? null : count + d);
+   }
+
+   private void add(int row, int col, int delta) {
+      for (int level = 0; level < counts.size(); ++level) {
+         add(counts.get(level), (row >> level) * cols[level] + (col >> level), delta);
+      }
+   }
+
+   /**
+    * @param latitude the latitude, in radians.
+    * @param longitude the longitude, in radians.
+    */
+   public void added(double latitude, double longitude) {
+      add(grid.rowOf(latitude), grid.colOf(longitude), 1);
+   }
+
+   public void removed(double latitude, double longitude) {
+      add(grid.rowOf(latitude), grid.colOf(longitude), -1);
+   }
+
+   public void moved(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+      final int fromRow = grid.rowOf(fromLatitude), fromCol = grid.colOf(fromLongitude);
+      final int toRow = grid.rowOf(toLatitude), toCol = grid.colOf(toLongitude);
+      for (int level = 0; level < counts.size(); ++level) {
+         final int from = (fromRow >> level) * cols[level] + (fromCol >> level);
+         final int to = (toRow >> level) * cols[level] + (toCol >> level);
+         // the coarser cells hold the same base cells
+         if (from == to) return;
+
+         add(counts.get(level), from, -1);
+         add(counts.get(level), to, 1);
+      }
+   }
+
+   /**
+    * Cells of a level covering a bounding box, as {@link uber.location_service.algo.CellRange} does for a grid.
+    */
+   private final class Range {
+      final int level, rowLo, rowHi;
+      int colLo, colHi;
+      boolean wraps;
+
+      Range(GeoPoint min, GeoPoint max, int level) {
+         if (level < 0 || level >= counts.size())
+            throw new IllegalArgumentException("Level must be within [0, " + (counts.size() - 1) + "]");
+
+         this.level = level;
+         this.rowLo = grid.rowOf(min.getLatitude()) >> level;
+         this.rowHi = grid.rowOf(max.getLatitude()) >> level;
+         this.colLo = grid.colOf(min.getLongitude()) >> level;
+         this.colHi = grid.colOf(max.getLongitude()) >> level;
+         this.wraps = min.getLongitude() > max.getLongitude();
+         if (wraps && colLo <= colHi) {
+            // both halves meet within a single column - the whole row is covered
+            wraps = false;
+            colLo = 0;
+            colHi = cols[level] - 1;
+         }
+      }
+
+      long count() {
+         long colCount = wraps ? (cols[level] - colLo) + (colHi + 1) : (colHi - colLo + 1);
+         return (long) (rowHi - rowLo + 1) * colCount;
+      }
+
+      boolean contains(int row, int col) {
+         if (row < rowLo || row > rowHi) return false;
+         return wraps ? (col >= colLo || col <= colHi) : (col >= colLo && col <= colHi);
+      }
+   }
+
+   /**
+    * @return the number of cells of the level covering the [min, max] bounding box, which
+    * crosses the 180 meridian when min longitude is greater than max longitude.
+    */
+   public long cellCount(GeoPoint min, GeoPoint max, int level) {
+      return new Range(min, max, level).count();
+   }
+
+   /**
+    * @return the non-empty cells of the level covering the [min, max] bounding box.
+    */
+   public List<DensityCell> counts(GeoPoint min, GeoPoint max, int level) {
+      final Range range = new Range(min, max, level);
+      final Map<Integer, Integer> levelCounts = counts.get(level);
+      final List<DensityCell> res = new ArrayList<>();
+
+      // wide boxes cover more cells than are counted - walk the counted instead
+      if (range.count() > levelCounts.size()) {
+         levelCounts.forEach((cell, count) -> {
+            final int row = cell / cols[level], col = cell % cols[level];
+            if (range.contains(row, col)) addCell(res, level, row, col, count);
+         });
+         return res;
+      }
+
+      for (int row = range.rowLo; row <= range.rowHi; ++row) {
+         if (range.wraps) {
+            addRow(res, level, row, range.colLo, cols[level] - 1);
+            addRow(res, level, row, 0, range.colHi);
+         } else {
+            addRow(res, level, row, range.colLo, range.colHi);
+         }
+      }
+      return res;
+   }
+
+   private void addRow(List<DensityCell> res, int level, int row, int colLo, int colHi) {
+      for (int col = colLo; col <= colHi; ++col) {
+         Integer count = counts.get(level).get(row * cols[level] + col);
+         if (count != null) addCell(res, level, row, col, count);
+      }
+   }
+
+   private void addCell(List<DensityCell> res, int level, int row, int col, int count) {
+      if (count <= 0) return;
+      final double size = grid.getCellSize() * (1 << level);
+      // the last cells of a level may extend past the poles and the 180 meridian
+      final double latitude = Math.min(Math.PI / 2, grid.latitudeOfRow(row << level) + size / 2);
+      final double longitude = Math.min(Math.PI, grid.longitudeOfCol(col << level) + size / 2);
+      res.add(new DensityCell(GeoPoint.fromRadians(latitude, longitude), count));
+   }
+}
@@ -0,0 +1,81 @@
+package uber.location_service.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Time to live of the store entries. A new id is scheduled on the {@link TimingWheel} once,
+ * its later updates only move the last seen time. When the id comes due the store checks
+ * that time and either drops the entry or schedules the id again at its actual deadline,
+ * so every update stays O(1) and expiry never sweeps the whole store. Entries are dropped
+ * at most one wheel tick (ttl / 16, up to a second) after their deadline. A removed id keeps
+ * its place in the wheel until it comes due and is skipped then, so an id removed and added
+ * again is still scheduled once - its old place comes due first.
+ */
+class SupplyExpiry {
+   private final long ttlMs;
+   private final LongSupplier clock;
+   private final TimingWheel<String> wheel; // null when the entries never expire
+   private final Map<String, Integer> untracked = new HashMap<>(); // guarded by this
+
+   /**
+    * @param ttlMs 0 disables the expiry.
+    * @param clock the current time in milliseconds.
+    */
+   SupplyExpiry(long ttlMs, LongSupplier clock) {
+      if (ttlMs < 0) throw new IllegalArgumentException("TTL must not be negative");
+
+      this.ttlMs = ttlMs;
+      this.clock = clock;
+      this.wheel = ttlMs == 0 ? null :
+            new TimingWheel<>(Math.max(1, Math.min(1000, ttlMs / 16)), ttlMs, clock.getAsLong());
+   }
+
+   long now() {
+      return clock.getAsLong();
+   }
+
+   void track(String id, long lastSeen) {
+      if (wheel != null) wheel.schedule(id, lastSeen + ttlMs);
+   }
+
+   /**
+    * Called for a removed id.
+    */
+   synchronized void untrack(String id) {
+      if (wheel != null) untracked.merge(id, 1, Integer::sum);
+   }
+
+   /**
+    * Called for a due id the store no longer holds - it was removed after {@link #due} returned.
+    * @return false if the id wasn't untracked.
+    */
+   synchronized boolean skip(String id) {
+      Integer count = untracked.get(id);
+      if (count == null) return false;
+      if (count == 1) untracked.remove(id);
+      else untracked.put(id, count - 1);
+      return true;
+   }
+
+   boolean isExpired(long lastSeen, long now) {
+      return wheel != null && lastSeen + ttlMs <= now;
+   }
+
+   /**
+    * @return the ids due by now, each of them has to be either dropped or tracked again.
+    */
+   List<String> due(long now) {
+      List<String> due = new ArrayList<>();
+      if (wheel == null) return due;
+
+      wheel.advance(now, due);
+      synchronized (this) {
+         if (!untracked.isEmpty()) due.removeIf(this::skip);
+      }
+      return due;
+   }
+}
@@ -0,0 +1,95 @@
+package uber.location_service.storage;
+
+import uber.location_service.algo.SupplyIndex;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyAttributes;
+import uber.location_service.structures.SupplyInstance;
+
+import java.util.function.Consumer;
+
+/**
+ * Holds the latest known position of every supply instance (in radians)
+ * and exposes them to the geo algorithms through {@link SupplyIndex}.
+ */
+public interface SupplyStore extends SupplyIndex {
+   /**
+    * What an update did, see {@link UpdatePolicy}.
+    */
+   enum Outcome {
+      APPLIED, ABSORBED, STALE
+   }
+
+   /**
+    * @param latitude the latitude, in radians.
+    * @param longitude the longitude, in radians.
+    * @param attributes packed, {@link SupplyAttributes#UNCHANGED} keeps the stored ones
+    *                   ({@link SupplyAttributes#NONE} for a new instance).
+    * @param timestamp of the position, {@link UpdatePolicy#NO_TIMESTAMP} if not known.
+    */
+   Outcome update(String id, double latitude, double longitude, int attributes, long timestamp);
+
+   default Outcome update(String id, double latitude, double longitude, int attributes) {
+      return update(id, latitude, longitude, attributes, UpdatePolicy.NO_TIMESTAMP);
+   }
+
+   default Outcome update(String id, double latitude, double longitude) {
+      return update(id, latitude, longitude, SupplyAttributes.UNCHANGED);
+   }
+
+   default Outcome update(SupplyInstance ins) {
+      return update(ins.getId(), ins.getLocation().getLatitude(), ins.getLocation().getLongitude(),
+            ins.packedAttributes(), ins.getTimestamp());
+   }
+
+   /**
+    * Applies the (already coalesced) updates in one bulk operation and leaves
+    * the outcome of every one in the batch.
+    */
+   void updateAll(SupplyBatch batch);
+
+   /**
+    * @return true if the id was present.
+    */
+   boolean remove(String id);
+
+   /**
+    * @return the location in radians or null if the id is unknown.
+    */
+   GeoPoint getLocation(String id);
+
+   /**
+    * @return the latest timestamp the updates of the id carried, {@link UpdatePolicy#NO_TIMESTAMP}
+    * if none did, -1 if the id is unknown.
+    */
+   long getTimestamp(String id);
+
+   int size();
+
+   /**
+    * Makes the store bump the versions of the cells it changes, set before the store is used.
+    */
+   void setCellVersions(CellVersions versions);
+
+   /**
+    * Makes the store keep the counts per cell up to date, set before the store is used.
+    */
+   void setDensity(SupplyDensity density);
+
+   /**
+    * Removes the instances not updated within the time to live the store was created with.
+    * @param onRemoved receives the removed ids, possibly under the store lock.
+    * @return the number of removed instances.
+    */
+   int expire(Consumer<String> onRemoved);
+
+   default int expire() {
+      return expire(id -> {});
+   }
+
+   /**
+    * Makes every update applied so far visible to the scans, which the stores publishing
+    * the updates in epochs (see {@link EpochSupplyStore}) do only periodically.
+    */
+   default void publish() {
+   }
+}
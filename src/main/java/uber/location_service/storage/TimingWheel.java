@@ -0,0 +1,86 @@
+package uber.location_service.storage;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hashed timing wheel - an item is scheduled in O(1) into the slot of its deadline tick,
+ * and advancing the wheel looks only at the slots of the ticks passed since the last call.
+ * Deadlines more than one turn away simply stay in their slot for the remaining turns.
+ * The methods are synchronized, but never call out while holding the lock.
+ */
+class TimingWheel<T> {
+   private static class Slot {
+      Object[] items = new Object[4];
+      long[] deadlines = new long[4];
+      int size;
+
+      void add(Object item, long deadline) {
+         if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+            deadlines = Arrays.copyOf(deadlines, size * 2);
+         }
+         items[size] = item;
+         deadlines[size++] = deadline;
+      }
+   }
+
+   private final long tickMs;
+   private final Slot[] slots;
+   private final int mask;
+   private long lastTick;
+   private int size;
+
+   /**
+    * @param horizonMs the usual distance to the deadlines, the wheel makes one turn in about that time.
+    */
+   TimingWheel(long tickMs, long horizonMs, long startMs) {
+      if (tickMs <= 0 || horizonMs <= 0) throw new IllegalArgumentException("Invalid timing wheel tick");
+
+      int slotCount = Integer.highestOneBit((int) Math.min(1 << 16, horizonMs / tickMs + 1)) << 1;
+      this.tickMs = tickMs;
+      this.slots = new Slot[slotCount];
+      this.mask = slotCount - 1;
+      this.lastTick = startMs / tickMs;
+      for (int i = 0; i < slotCount; ++i) slots[i] = new Slot();
+   }
+
+   synchronized void schedule(T item, long deadlineMs) {
+      // the first tick starting at or after the deadline, deadlines in the past are due on the next advance
+      long tick = Math.max((deadlineMs + tickMs - 1) / tickMs, lastTick + 1);
+      slots[(int) (tick & mask)].add(item, deadlineMs);
+      ++size;
+   }
+
+   /**
+    * Moves the wheel to the time and removes the items due by then.
+    * @param due receives the removed items.
+    */
+   @SuppressWarnings("unchecked")
+   synchronized void advance(long nowMs, List<T> due) {
+      final long nowTick = nowMs / tickMs;
+      // a pause longer than a turn passes every slot just once
+      final long fromTick = Math.max(lastTick + 1, nowTick - mask);
+
+      for (long tick = fromTick; tick <= nowTick; ++tick) {
+         Slot slot = slots[(int) (tick & mask)];
+         int kept = 0;
+         for (int i = 0; i < slot.size; ++i) {
+            if (slot.deadlines[i] <= nowMs) {
+               due.add((T) slot.items[i]);
+               continue;
+            }
+            slot.items[kept] = slot.items[i];
+            slot.deadlines[kept++] = slot.deadlines[i];
+         }
+         Arrays.fill(slot.items, kept, slot.size, null);
+         size -= slot.size - kept;
+         slot.size = kept;
+      }
+      lastTick = Math.max(lastTick, nowTick);
+   }
+
+   synchronized int size() {
+      return size;
+   }
+}
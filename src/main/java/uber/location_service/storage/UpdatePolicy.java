@@ -0,0 +1,50 @@
+package uber.location_service.storage;
+
+/**
+ * Decides which updates reach the index. An update older than the last one applied to its
+ * id is stale and dropped. An update moving the instance less than the min movement within
+ * its cell, with the same attributes, is absorbed - only the last seen time and the timestamp
+ * of the instance move, so the index and the cached results stay untouched. The stores take
+ * the decisions under the same lock as the update itself.
+ */
+public final class UpdatePolicy {
+   /**
+    * The timestamp of the updates that don't carry one, they are never stale.
+    */
+   public static final long NO_TIMESTAMP = 0;
+
+   public static final UpdatePolicy NONE = new UpdatePolicy(0);
+
+   private static final double EARTH_RADIUS_METERS = 6371010;
+
+   private final double minChord2; // squared chord on the unit sphere
+
+   /**
+    * @param minMovementMeters 0 - every update moves the instance.
+    */
+   public UpdatePolicy(double minMovementMeters) {
+      if (minMovementMeters < 0) throw new IllegalArgumentException("Min movement must not be negative");
+
+      double chord = 2 * Math.sin(Math.min(Math.PI, minMovementMeters / EARTH_RADIUS_METERS) / 2);
+      this.minChord2 = chord * chord;
+   }
+
+   static boolean isStale(long stored, long timestamp) {
+      return timestamp != NO_TIMESTAMP && timestamp < stored;
+   }
+
+   /**
+    * @return the timestamp to keep after a not stale update.
+    */
+   static long latest(long stored, long timestamp) {
+      return timestamp == NO_TIMESTAMP ? stored : timestamp;
+   }
+
+   /**
+    * Compares the unit vectors of the stored and the updated position, the callers check the cell.
+    */
+   boolean isAbsorbed(double prevX, double prevY, double prevZ, double x, double y, double z) {
+      double dx = x - prevX, dy = y - prevY, dz = z - prevZ;
+      return dx * dx + dy * dy + dz * dz < minChord2;
+   }
+}
@@ -0,0 +1,26 @@
+package uber.location_service.structures;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Supply count of a cell of the density aggregates, located by the center of the cell.
+ */
+public final class DensityCell {
+   private final GeoPoint location;
+   private final int count;
+
+   public DensityCell(GeoPoint location, int count) {
+      this.location = location;
+      this.count = count;
+   }
+
+   @JsonProperty("location")
+   public GeoPoint getLocation() {
+      return location;
+   }
+
+   @JsonProperty("count")
+   public int getCount() {
+      return count;
+   }
+}
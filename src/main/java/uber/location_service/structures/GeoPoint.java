@@ -1,15 +1,22 @@
 package uber.location_service.structures;
 
-public class GeoPoint {
-   private double latitude, longitude; // latitude, longitude in radians
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
-   public GeoPoint() {
+/**
+ * Immutable position, held in radians. On the wire (JSON and request parameters)
+ * positions are in degrees, converted on the way in and out, so results can share
+ * the points instead of copying them.
+ */
+@JsonAutoDetect(getterVisibility = JsonAutoDetect.Visibility.NONE,
+      isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+public final class GeoPoint {
+   private final double latitude, longitude; // latitude, longitude in radians
 
-   }
-
-   public GeoPoint(GeoPoint other) {
-      latitude = other.latitude;
-      longitude = other.longitude;
+   private GeoPoint(double latitude, double longitude) {
+      this.latitude = latitude;
+      this.longitude = longitude;
    }
 
    /**
@@ -17,28 +24,41 @@ public class GeoPoint {
     * @param longitude the longitude, in radians.
     */
    public static GeoPoint fromRadians(double latitude, double longitude) {
-      GeoPoint result = new GeoPoint();
-      result.latitude = latitude;
-      result.longitude = longitude;
-      return result;
+      return new GeoPoint(latitude, longitude);
    }
 
+   /**
+    * @param latitude the latitude, in degrees.
+    * @param longitude the longitude, in degrees.
+    */
+   @JsonCreator
+   public static GeoPoint fromDegrees(@JsonProperty("latitude") double latitude,
+                                      @JsonProperty("longitude") double longitude) {
+      return new GeoPoint(Math.toRadians(latitude), Math.toRadians(longitude));
+   }
+
+   /**
+    * @return the latitude, in radians.
+    */
    public double getLatitude() {
       return latitude;
    }
 
+   /**
+    * @return the longitude, in radians.
+    */
    public double getLongitude() {
       return longitude;
    }
 
-   public void transformToRadians() {
-      latitude = Math.toRadians(latitude);
-      longitude = Math.toRadians(longitude);
+   @JsonProperty("latitude")
+   public double getLatitudeDegrees() {
+      return Math.toDegrees(latitude);
    }
 
-   public void transformToDegrees() {
-      latitude = Math.toDegrees(latitude);
-      longitude = Math.toDegrees(longitude);
+   @JsonProperty("longitude")
+   public double getLongitudeDegrees() {
+      return Math.toDegrees(longitude);
    }
 
    @Override
@@ -52,6 +72,11 @@ public class GeoPoint {
       return true;
    }
 
+   @Override
+   public int hashCode() {
+      return Double.hashCode(latitude) * 31 + Double.hashCode(longitude);
+   }
+
    @Override
    public String toString() {
       return "[" + latitude + ", " + longitude + "]";
@@ -65,8 +90,15 @@ public class GeoPoint {
     * argument.
     */
    public double distanceTo(GeoPoint location, double radius) {
-      return Math.acos(Math.sin(latitude) * Math.sin(location.latitude) +
-            Math.cos(latitude) * Math.cos(location.latitude) *
-                  Math.cos(longitude - location.longitude)) * radius;
+      return distance(latitude, longitude, location.latitude, location.longitude, radius);
+   }
+
+   /**
+    * Great circle distance between two points given in radians.
+    */
+   public static double distance(double lat1, double lon1, double lat2, double lon2, double radius) {
+      // rounding may push the cosine slightly above 1 for (nearly) equal points
+      return Math.acos(Math.min(1d, Math.sin(lat1) * Math.sin(lat2) +
+            Math.cos(lat1) * Math.cos(lat2) * Math.cos(lon1 - lon2))) * radius;
    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,42 @@
+package uber.location_service.structures;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Supply instance returned from the nearest search together with
+ * its great circle distance (in kilometers) to the requested location.
+ */
+public class NearestSupplyInstance extends SupplyInstance {
+   private final double distance;
+
+   public NearestSupplyInstance(String id, GeoPoint location, double distance) {
+      this(id, location, distance, 0L);
+   }
+
+   @JsonCreator
+   public NearestSupplyInstance(@JsonProperty("id") String id, @JsonProperty("location") GeoPoint location,
+                                @JsonProperty("distance") double distance, @JsonProperty("timestamp") long timestamp) {
+      super(id, location, null, timestamp);
+      this.distance = distance;
+   }
+
+   public NearestSupplyInstance(SupplyInstance other, double distance) {
+      this(other.getId(), other.getLocation(), distance, other.getTimestamp());
+   }
+
+   public double getDistance() {
+      return distance;
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (!super.equals(o)) return false;
+      return Double.compare(((NearestSupplyInstance) o).distance, distance) == 0;
+   }
+
+   @Override
+   public int hashCode() {
+      return (getId().hashCode() * 31 + getLocation().hashCode()) * 31 + Double.hashCode(distance);
+   }
+}
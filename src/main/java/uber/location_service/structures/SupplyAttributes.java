@@ -0,0 +1,136 @@
+package uber.location_service.structures;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Typed attributes of a supply instance - the vehicle class, the status flags and the number
+ * of seats. Stores and scans keep them packed into an int, the class in bits 0-3, the flags
+ * in bits 4-11 and the seats in bits 12-15, so an entry costs no objects for them.
+ */
+public final class SupplyAttributes {
+   public enum VehicleClass {
+      UNKNOWN, ECONOMY, COMFORT, XL, PREMIUM, MOTO;
+
+      @JsonValue
+      public String key() {
+         return name().toLowerCase(Locale.ROOT);
+      }
+
+      @JsonCreator
+      public static VehicleClass fromKey(String key) {
+         return valueOf(key.toUpperCase(Locale.ROOT).replace('-', '_'));
+      }
+   }
+
+   public enum Status {
+      AVAILABLE, ON_TRIP, SHARED_RIDES, WHEELCHAIR, PETS, CHILD_SEAT, ELECTRIC;
+
+      @JsonValue
+      public String key() {
+         return name().toLowerCase(Locale.ROOT).replace('_', '-');
+      }
+
+      @JsonCreator
+      public static Status fromKey(String key) {
+         return valueOf(key.toUpperCase(Locale.ROOT).replace('-', '_'));
+      }
+
+      /**
+       * @return the flag in the packed attributes.
+       */
+      public int bit() {
+         return 1 << (ordinal() + STATUS_SHIFT);
+      }
+   }
+
+   public static final int NONE = 0;
+   /**
+    * Passed with the position updates that keep the attributes the instance already has.
+    */
+   public static final int UNCHANGED = -1;
+   public static final int MAX_CAPACITY = 15;
+
+   static final int STATUS_SHIFT = 4, CAPACITY_SHIFT = 12;
+   private static final int VALID_MASK =
+         0xF | ((1 << Status.values().length) - 1) << STATUS_SHIFT | MAX_CAPACITY << CAPACITY_SHIFT;
+
+   private final VehicleClass vehicleClass;
+   private final Set<Status> status;
+   private final int capacity;
+
+   @JsonCreator
+   public SupplyAttributes(@JsonProperty("vehicle_class") VehicleClass vehicleClass,
+                           @JsonProperty("status") Collection<Status> status,
+                           @JsonProperty("capacity") int capacity) {
+      if (capacity < 0 || capacity > MAX_CAPACITY)
+         throw new IllegalArgumentException("Capacity must be within [0, " + MAX_CAPACITY + "]");
+
+      this.vehicleClass = vehicleClass == null ? VehicleClass.UNKNOWN : vehicleClass;
+      this.status = status == null || status.isEmpty() ? EnumSet.noneOf(Status.class) : EnumSet.copyOf(status);
+      this.capacity = capacity;
+   }
+
+   @JsonProperty("vehicle_class")
+   public VehicleClass getVehicleClass() {
+      return vehicleClass;
+   }
+
+   @JsonProperty("status")
+   public Set<Status> getStatus() {
+      return status;
+   }
+
+   @JsonProperty("capacity")
+   public int getCapacity() {
+      return capacity;
+   }
+
+   public int pack() {
+      int flags = 0;
+      for (Status s : status) flags |= s.bit();
+      return pack(vehicleClass, flags, capacity);
+   }
+
+   /**
+    * @param flags the {@link Status#bit()} of every status.
+    */
+   public static int pack(VehicleClass vehicleClass, int flags, int capacity) {
+      return vehicleClass.ordinal() | flags | capacity << CAPACITY_SHIFT;
+   }
+
+   /**
+    * @return true if the packed attributes name a known class and known flags only,
+    * {@link #UNCHANGED} is valid.
+    */
+   public static boolean isValid(int attributes) {
+      return attributes == UNCHANGED ||
+            (attributes & ~VALID_MASK) == 0 && vehicleClassOf(attributes) < VehicleClass.values().length;
+   }
+
+   public static int vehicleClassOf(int attributes) {
+      return attributes & 0xF;
+   }
+
+   public static int capacityOf(int attributes) {
+      return attributes >>> CAPACITY_SHIFT & 0xF;
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      return pack() == ((SupplyAttributes) o).pack();
+   }
+
+   @Override
+   public int hashCode() {
+      return pack();
+   }
+}
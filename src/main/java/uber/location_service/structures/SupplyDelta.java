@@ -0,0 +1,29 @@
+package uber.location_service.structures;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Changes of the supply within a watched area since the previous push.
+ */
+public class SupplyDelta {
+   private final List<SupplyInstance> entered = new ArrayList<>();
+   private final List<SupplyInstance> moved = new ArrayList<>();
+   private final List<String> left = new ArrayList<>();
+
+   public List<SupplyInstance> getEntered() {
+      return entered;
+   }
+
+   public List<SupplyInstance> getMoved() {
+      return moved;
+   }
+
+   public List<String> getLeft() {
+      return left;
+   }
+
+   public boolean isEmpty() {
+      return entered.isEmpty() && moved.isEmpty() && left.isEmpty();
+   }
+}
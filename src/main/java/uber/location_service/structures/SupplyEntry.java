@@ -0,0 +1,100 @@
+package uber.location_service.structures;
+
+/**
+ * Immutable stored position of a supply instance - the coordinates in radians together
+ * with the precomputed unit vector (x, y, z) on the sphere, so distance comparisons
+ * need no trigonometry, the packed {@link SupplyAttributes}, the time it was last seen
+ * at in milliseconds and the timestamp of the last update it got (0 - none).
+ */
+public final class SupplyEntry {
+   private final String id;
+   private final double latitude, longitude;
+   private final double x, y, z;
+   private final int attributes;
+   private final long lastSeen, timestamp;
+
+   public SupplyEntry(String id, double latitude, double longitude) {
+      this(id, latitude, longitude, SupplyAttributes.NONE);
+   }
+
+   public SupplyEntry(String id, double latitude, double longitude, int attributes) {
+      this(id, latitude, longitude,
+            Math.cos(latitude) * Math.cos(longitude),
+            Math.cos(latitude) * Math.sin(longitude),
+            Math.sin(latitude), attributes, 0L);
+   }
+
+   public SupplyEntry(String id, double latitude, double longitude, double x, double y, double z) {
+      this(id, latitude, longitude, x, y, z, SupplyAttributes.NONE, 0L);
+   }
+
+   public SupplyEntry(String id, double latitude, double longitude,
+                      double x, double y, double z, int attributes, long lastSeen) {
+      this(id, latitude, longitude, x, y, z, attributes, lastSeen, 0L);
+   }
+
+   public SupplyEntry(String id, double latitude, double longitude,
+                      double x, double y, double z, int attributes, long lastSeen, long timestamp) {
+      this.id = id;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.x = x;
+      this.y = y;
+      this.z = z;
+      this.attributes = attributes;
+      this.lastSeen = lastSeen;
+      this.timestamp = timestamp;
+   }
+
+   public SupplyEntry(SupplyInstance ins) {
+      this(ins.getId(), ins.getLocation().getLatitude(), ins.getLocation().getLongitude(),
+            ins.getAttributes() == null ? SupplyAttributes.NONE : ins.getAttributes().pack());
+   }
+
+   public String getId() {
+      return id;
+   }
+
+   public double getLatitude() {
+      return latitude;
+   }
+
+   public double getLongitude() {
+      return longitude;
+   }
+
+   public double getX() {
+      return x;
+   }
+
+   public double getY() {
+      return y;
+   }
+
+   public double getZ() {
+      return z;
+   }
+
+   public int getAttributes() {
+      return attributes;
+   }
+
+   public long getLastSeen() {
+      return lastSeen;
+   }
+
+   public long getTimestamp() {
+      return timestamp;
+   }
+
+   /**
+    * @return the same position seen again.
+    */
+   public SupplyEntry seenAt(long lastSeen, long timestamp) {
+      return new SupplyEntry(id, latitude, longitude, x, y, z, attributes, lastSeen, timestamp);
+   }
+
+   public GeoPoint getLocation() {
+      return GeoPoint.fromRadians(latitude, longitude);
+   }
+}
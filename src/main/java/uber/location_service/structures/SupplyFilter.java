@@ -0,0 +1,153 @@
+package uber.location_service.structures;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import uber.location_service.structures.SupplyAttributes.Status;
+import uber.location_service.structures.SupplyAttributes.VehicleClass;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Condition on the packed {@link SupplyAttributes} - one of the vehicle classes, all of the
+ * status flags and at least the capacity. The indexes check it per entry and, through the
+ * presence bits of a cell (see {@link #presenceOf}), skip the cells none of whose
+ * instances can match.
+ */
+public final class SupplyFilter {
+   private static final int ALL_CLASSES = 0xFFFF;
+   private static final int PRESENCE_STATUS_SHIFT = 16, PRESENCE_CAPACITY_SHIFT = 24;
+   /**
+    * The number of presence bits - a class, a status flag or a capacity each.
+    */
+   public static final int PRESENCE_BITS = 40;
+
+   public static final SupplyFilter ANY = new SupplyFilter(ALL_CLASSES, 0, 0);
+
+   private final int classMask; // a bit per class ordinal
+   private final int flags; // the required ones, as in the packed attributes
+   private final int minCapacity;
+
+   private SupplyFilter(int classMask, int flags, int minCapacity) {
+      this.classMask = classMask;
+      this.flags = flags;
+      this.minCapacity = minCapacity;
+   }
+
+   /**
+    * @param classes the accepted classes, any if null or empty.
+    * @param status the required flags, none if null.
+    */
+   public static SupplyFilter of(Collection<VehicleClass> classes, Collection<Status> status, int minCapacity) {
+      if (minCapacity < 0 || minCapacity > SupplyAttributes.MAX_CAPACITY)
+         throw new IllegalArgumentException("Min capacity must be within [0, " + SupplyAttributes.MAX_CAPACITY + "]");
+
+      int classMask = 0;
+      if (classes != null) for (VehicleClass c : classes) classMask |= 1 << c.ordinal();
+      int flags = 0;
+      if (status != null) for (Status s : status) flags |= s.bit();
+
+      if (classMask == 0) classMask = ALL_CLASSES;
+      if (classMask == ALL_CLASSES && flags == 0 && minCapacity == 0) return ANY;
+      return new SupplyFilter(classMask, flags, minCapacity);
+   }
+
+   /**
+    * @param classes the keys of the accepted classes, as the request parameters carry them.
+    * @param status the keys of the required flags.
+    */
+   public static SupplyFilter parse(List<String> classes, List<String> status, int minCapacity) {
+      List<VehicleClass> parsedClasses = new ArrayList<>();
+      if (classes != null) for (String c : classes) parsedClasses.add(VehicleClass.fromKey(c.trim()));
+      List<Status> parsedStatus = new ArrayList<>();
+      if (status != null) for (String c : status) parsedStatus.add(Status.fromKey(c.trim()));
+      return of(parsedClasses, parsedStatus, minCapacity);
+   }
+
+   @JsonCreator
+   static SupplyFilter fromJson(@JsonProperty("vehicle_class") List<VehicleClass> classes,
+                                @JsonProperty("status") List<Status> status,
+                                @JsonProperty("min_capacity") Integer minCapacity) {
+      return of(classes, status, minCapacity == null ? 0 : minCapacity);
+   }
+
+   /**
+    * @return the accepted classes, empty if any is.
+    */
+   @JsonProperty("vehicle_class")
+   public List<VehicleClass> getVehicleClasses() {
+      List<VehicleClass> res = new ArrayList<>();
+      if (classMask == ALL_CLASSES) return res;
+      for (VehicleClass c : VehicleClass.values()) {
+         if ((classMask & 1 << c.ordinal()) != 0) res.add(c);
+      }
+      return res;
+   }
+
+   @JsonProperty("status")
+   public List<Status> getStatus() {
+      List<Status> res = new ArrayList<>();
+      for (Status s : Status.values()) {
+         if ((flags & s.bit()) != 0) res.add(s);
+      }
+      return res;
+   }
+
+   @JsonProperty("min_capacity")
+   public int getMinCapacity() {
+      return minCapacity;
+   }
+
+   @JsonIgnore
+   public boolean isAny() {
+      return this == ANY;
+   }
+
+   public boolean test(int attributes) {
+      return (classMask >>> SupplyAttributes.vehicleClassOf(attributes) & 1) != 0 &&
+            (attributes & flags) == flags &&
+            SupplyAttributes.capacityOf(attributes) >= minCapacity;
+   }
+
+   /**
+    * @param presence the presence bits of all instances of a cell.
+    * @return false if no instance of the cell can match.
+    */
+   public boolean mayMatch(long presence) {
+      final long required = (long) (flags >>> SupplyAttributes.STATUS_SHIFT) << PRESENCE_STATUS_SHIFT;
+      return (presence & classMask) != 0 &&
+            (presence & required) == required &&
+            presence >>> (PRESENCE_CAPACITY_SHIFT + minCapacity) != 0;
+   }
+
+   /**
+    * @return the presence bits of the attributes - the bit of the class (0-15), of every
+    * status flag (16-23) and of the capacity (24-39).
+    */
+   public static long presenceOf(int attributes) {
+      return 1L << SupplyAttributes.vehicleClassOf(attributes) |
+            (long) (attributes >>> SupplyAttributes.STATUS_SHIFT & 0xFF) << PRESENCE_STATUS_SHIFT |
+            1L << (PRESENCE_CAPACITY_SHIFT + SupplyAttributes.capacityOf(attributes));
+   }
+
+   /**
+    * @return a value telling the filters apart, as equals does.
+    */
+   public long code() {
+      return (long) classMask | (long) flags << 16 | (long) minCapacity << 32;
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      return code() == ((SupplyFilter) o).code();
+   }
+
+   @Override
+   public int hashCode() {
+      return Long.hashCode(code());
+   }
+}
@@ -1,15 +1,31 @@
 package uber.location_service.structures;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 public class SupplyInstance {
-   private String id;
-   private GeoPoint location;
+   private final String id;
+   private final GeoPoint location;
+   private final SupplyAttributes attributes; // null - not known, an update keeps the stored ones
+   private final long timestamp; // of the position in epoch millis, 0 - not known
+
+   public SupplyInstance(String id, GeoPoint location) {
+      this(id, location, null);
+   }
 
-   public SupplyInstance() {
+   public SupplyInstance(String id, GeoPoint location, SupplyAttributes attributes) {
+      this(id, location, attributes, 0L);
    }
 
-   public SupplyInstance(SupplyInstance other) {
-      id = other.id;
-      location = new GeoPoint(other.location);
+   @JsonCreator
+   public SupplyInstance(@JsonProperty("id") String id, @JsonProperty("location") GeoPoint location,
+                         @JsonProperty("attributes") SupplyAttributes attributes,
+                         @JsonProperty("timestamp") long timestamp) {
+      this.id = id;
+      this.location = location;
+      this.attributes = attributes;
+      this.timestamp = timestamp;
    }
 
    public String getId() {
@@ -20,6 +36,26 @@ public class SupplyInstance {
       return location;
    }
 
+   @JsonInclude(JsonInclude.Include.NON_NULL)
+   public SupplyAttributes getAttributes() {
+      return attributes;
+   }
+
+   /**
+    * Sent with the updates, the older ones than the last applied are dropped.
+    */
+   @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+   public long getTimestamp() {
+      return timestamp;
+   }
+
+   /**
+    * @return the packed attributes, {@link SupplyAttributes#UNCHANGED} if not known.
+    */
+   public int packedAttributes() {
+      return attributes == null ? SupplyAttributes.UNCHANGED : attributes.pack();
+   }
+
    @Override
    public boolean equals(Object o) {
       if (this == o) return true;
@@ -0,0 +1,105 @@
+package uber.location_service.structures;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Search result held in flat arrays - the ids (shared with the store), the positions in radians
+ * and, for the nearest searches, the distances in km. It reads as an immutable list of
+ * {@link SupplyInstance} or {@link NearestSupplyInstance} created on access, while the JSON is
+ * written straight from the arrays into the response, with no objects per returned instance.
+ */
+@JsonSerialize(using = SupplyPositions.Serializer.class)
+public final class SupplyPositions<T extends SupplyInstance> extends AbstractList<T> implements RandomAccess {
+   private final String[] ids;
+   private final double[] latitudes, longitudes;
+   private final double[] distances; // null unless the result of a nearest search
+   private final int size;
+
+   private SupplyPositions(String[] ids, double[] latitudes, double[] longitudes, double[] distances, int size) {
+      this.ids = ids;
+      this.latitudes = latitudes;
+      this.longitudes = longitudes;
+      this.distances = distances;
+      this.size = size;
+   }
+
+   /**
+    * The first size elements of the arrays become the result, the arrays are taken over without copying.
+    */
+   public static SupplyPositions<SupplyInstance> of(
+         String[] ids, double[] latitudes, double[] longitudes, int size) {
+      return new SupplyPositions<>(ids, latitudes, longitudes, null, size);
+   }
+
+   /**
+    * @param distances in km, the arrays are taken over without copying.
+    */
+   public static SupplyPositions<NearestSupplyInstance> nearest(
+         String[] ids, double[] latitudes, double[] longitudes, double[] distances, int size) {
+      return new SupplyPositions<>(ids, latitudes, longitudes, distances, size);
+   }
+
+   @Override
+   @SuppressWarnings("unchecked")
+   public T get(int index) {
+      Objects.checkIndex(index, size);
+      GeoPoint location = GeoPoint.fromRadians(latitudes[index], longitudes[index]);
+      return (T) (distances == null ? new SupplyInstance(ids[index], location) :
+            new NearestSupplyInstance(ids[index], location, distances[index]));
+   }
+
+   @Override
+   public int size() {
+      return size;
+   }
+
+   /**
+    * Writes the same JSON as a list of the instances would be written as.
+    */
+   static final class Serializer extends StdSerializer<SupplyPositions<?>> {
+      private static final long serialVersionUID = 1L;
+      private static final SerializedString ID = new SerializedString("id");
+      private static final SerializedString LOCATION = new SerializedString("location");
+      private static final SerializedString LATITUDE = new SerializedString("latitude");
+      private static final SerializedString LONGITUDE = new SerializedString("longitude");
+      private static final SerializedString DISTANCE = new SerializedString("distance");
+
+      @SuppressWarnings("unchecked")
+      Serializer() {
+         super((Class<SupplyPositions<?>>) (Class<?>) SupplyPositions.class);
+      }
+
+      @Override
+      public void serialize(SupplyPositions<?> value, JsonGenerator gen, SerializerProvider provider)
+            throws IOException {
+         gen.writeStartArray();
+         for (int i = 0; i < value.size; ++i) {
+            gen.writeStartObject();
+            gen.writeFieldName(ID);
+            gen.writeString(value.ids[i]);
+            gen.writeFieldName(LOCATION);
+            gen.writeStartObject();
+            gen.writeFieldName(LATITUDE);
+            gen.writeNumber(Math.toDegrees(value.latitudes[i]));
+            gen.writeFieldName(LONGITUDE);
+            gen.writeNumber(Math.toDegrees(value.longitudes[i]));
+            gen.writeEndObject();
+            if (value.distances != null) {
+               gen.writeFieldName(DISTANCE);
+               gen.writeNumber(value.distances[i]);
+            }
+            gen.writeEndObject();
+         }
+         gen.writeEndArray();
+      }
+   }
+}
@@ -0,0 +1,50 @@
+package uber.location_service.structures;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Single query of the bulk endpoint - the location with the kind of search to run there,
+ * optionally restricted to the instances matching the filter.
+ */
+public class SupplyQuery {
+   public enum Mode {
+      @JsonProperty("closest") CLOSEST,
+      @JsonProperty("k-nearest") K_NEAREST,
+      @JsonProperty("radius") RADIUS
+   }
+
+   private GeoPoint location;
+   private Mode mode = Mode.CLOSEST;
+   private int k = 1; // used by K_NEAREST only
+   private SupplyFilter filter;
+
+   public SupplyQuery() {
+   }
+
+   public SupplyQuery(GeoPoint location, Mode mode, int k) {
+      this.location = location;
+      this.mode = mode;
+      this.k = k;
+   }
+
+   public SupplyQuery(GeoPoint location, Mode mode, int k, SupplyFilter filter) {
+      this(location, mode, k);
+      this.filter = filter;
+   }
+
+   public GeoPoint getLocation() {
+      return location;
+   }
+
+   public Mode getMode() {
+      return mode;
+   }
+
+   public int getK() {
+      return k;
+   }
+
+   public SupplyFilter getFilter() {
+      return filter == null ? SupplyFilter.ANY : filter;
+   }
+}
@@ -0,0 +1,222 @@
+package uber.location_service.watch;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import uber.location_service.algo.AlgoInterface;
+import uber.location_service.algo.GeoAlgorithms;
+import uber.location_service.algo.GeoGrid;
+import uber.location_service.configuration.SupplyLocationProperties;
+import uber.location_service.services.SupplyListener;
+import uber.location_service.services.SupplyLocationImpl;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyDelta;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes the supply changes within the watched circles instead of having the clients poll.
+ * Subscriptions are indexed by the cells of a coarse grid their circle covers, so an update
+ * looks only at the subscriptions of its cell and the ones the id is currently inside of.
+ * Changes are collected per subscription and pushed every flush interval.
+ *
+ * A single lock guards the subscriptions, and every update applied to the store takes it
+ * while there is any subscription, so the ingesting threads contend on it - the work under
+ * it is kept to the lookups of the id and its cell.
+ */
+@Service
+public class SupplyWatchService implements SupplyListener {
+   /**
+    * Delivers the deltas of a subscription, failing once the client is gone.
+    */
+   public interface DeltaSink {
+      void send(SupplyDelta delta) throws IOException;
+   }
+
+   private final Logger logger = LoggerFactory.getLogger(SupplyWatchService.class);
+
+   private final SupplyLocationImpl impl;
+   private final GeoGrid grid;
+   private final double maxRadius;
+   private final int maxSubscriptions;
+
+   private final Map<Integer, List<WatchSubscription>> byCell = new HashMap<>();
+   private final Map<String, List<WatchSubscription>> byMember = new HashMap<>();
+   private final Set<WatchSubscription> subscriptions = new LinkedHashSet<>();
+
+   private final ScheduledExecutorService scheduler;
+   private final Counter pushedCounter;
+
+   @Autowired
+   public SupplyWatchService(final SupplyLocationImpl impl, final MeterRegistry registry,
+                             final SupplyLocationProperties properties) {
+      this(impl, registry, properties.getWatch().getCellSizeDegrees(), properties.getWatch().getMaxRadiusKm(),
+            properties.getWatch().getMaxSubscriptions(), properties.getWatch().getFlushIntervalMs());
+   }
+
+   public SupplyWatchService(final SupplyLocationImpl impl, final MeterRegistry registry, double cellSizeDegrees,
+                             double maxRadius, int maxSubscriptions, long flushIntervalMs) {
+      this.impl = impl;
+      this.grid = new GeoGrid(cellSizeDegrees);
+      this.maxRadius = maxRadius;
+      this.maxSubscriptions = maxSubscriptions;
+      this.pushedCounter = registry.counter("supply.watch.pushed");
+      registry.gauge("supply.watch.subscriptions", this, SupplyWatchService::getSubscriptionCount);
+
+      this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "supply-watch");
+         t.setDaemon(true);
+         return t;
+      });
+      scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+      impl.addSupplyListener(this);
+   }
+
+   public double getMaxRadius() {
+      return maxRadius;
+   }
+
+   public synchronized int getSubscriptionCount() {
+      return subscriptions.size();
+   }
+
+   /**
+    * Starts watching the circle, the supply already inside comes as entered with the first push.
+    * @param location in radians.
+    * @param distance the radius of the circle, in km.
+    * @return the handle to unsubscribe with.
+    */
+   public Object subscribe(GeoPoint location, double distance, DeltaSink sink) {
+      if (!(distance > 0d) || distance > maxRadius)
+         throw new IllegalArgumentException("Watch radius must be in (0, " + maxRadius + "] km");
+
+      GeoPoint[] box = GeoAlgorithms.boundingCoordinates(location, distance, AlgoInterface.earthRadius);
+      List<Integer> cells = new ArrayList<>();
+      grid.coveringRange(box[0], box[1]).forEach(cells::add);
+      WatchSubscription s = new WatchSubscription(location, AlgoInterface.earthRadius, distance,
+            cells.stream().mapToInt(Integer::intValue).toArray(), sink);
+
+      synchronized (this) {
+         if (subscriptions.size() >= maxSubscriptions)
+            throw new IllegalStateException("Too many watch subscriptions");
+
+         subscriptions.add(s);
+         for (int cell : s.cells) byCell.computeIfAbsent(cell, c -> new ArrayList<>()).add(s);
+         // updates racing with the scan are applied by updated() after it, with the latest position
+         impl.getSupplyIndex().forEachInBox(box[0], box[1], cell -> true, (id, latitude, longitude, x, y, z, attributes) -> {
+            if (s.contains(x, y, z) && s.inside(id, latitude, longitude)) join(id, s);
+         });
+      }
+      // the current state goes out right away, the sink buffers it until the stream is open
+      push(s);
+      return s;
+   }
+
+   public synchronized void unsubscribe(Object handle) {
+      WatchSubscription s = (WatchSubscription) handle;
+      if (!subscriptions.remove(s)) return;
+
+      for (int cell : s.cells) {
+         List<WatchSubscription> list = byCell.get(cell);
+         list.remove(s);
+         if (list.isEmpty()) byCell.remove(cell);
+      }
+      for (String id : s.memberIds()) leave(id, s);
+   }
+
+   private void join(String id, WatchSubscription s) {
+      byMember.computeIfAbsent(id, k -> new ArrayList<>(2)).add(s);
+   }
+
+   private void leave(String id, WatchSubscription s) {
+      List<WatchSubscription> list = byMember.get(id);
+      if (list == null) return;
+      list.remove(s);
+      if (list.isEmpty()) byMember.remove(id);
+   }
+
+   /**
+    * The ingesting threads contend for the service lock here, see above.
+    */
+   @Override
+   public synchronized void updated(String id, double latitude, double longitude) {
+      if (subscriptions.isEmpty()) return;
+
+      List<WatchSubscription> inCell = byCell.get(grid.cellOf(latitude, longitude));
+      List<WatchSubscription> member = byMember.get(id);
+      if (inCell == null && member == null) return;
+
+      double cosLat = Math.cos(latitude);
+      double x = cosLat * Math.cos(longitude), y = cosLat * Math.sin(longitude), z = Math.sin(latitude);
+
+      if (inCell != null) {
+         for (WatchSubscription s : inCell) {
+            if (s.contains(x, y, z)) {
+               if (s.inside(id, latitude, longitude)) join(id, s);
+            } else if (s.isMember(id)) {
+               s.outside(id);
+               leave(id, s);
+            }
+         }
+      }
+      if (member != null) {
+         // the subscriptions the id moved out of the cells of
+         for (WatchSubscription s : new ArrayList<>(member)) {
+            if (inCell != null && inCell.contains(s)) continue;
+            s.outside(id);
+            leave(id, s);
+         }
+      }
+   }
+
+   @Override
+   public synchronized void removed(String id) {
+      List<WatchSubscription> member = byMember.remove(id);
+      if (member == null) return;
+      for (WatchSubscription s : member) s.outside(id);
+   }
+
+   void flush() {
+      List<WatchSubscription> all;
+      synchronized (this) {
+         all = new ArrayList<>(subscriptions);
+      }
+      for (WatchSubscription s : all) push(s);
+   }
+
+   /**
+    * Called by the subscribing thread and the flush thread, a push drains and sends under
+    * the subscription's push lock, so a later delta never overtakes an earlier one.
+    */
+   private void push(WatchSubscription s) {
+      synchronized (s.pushLock) {
+         SupplyDelta delta;
+         synchronized (this) {
+            if (!subscriptions.contains(s)) return;
+            delta = s.drain();
+         }
+         if (delta == null) return;
+
+         try {
+            s.sink.send(delta);
+            pushedCounter.increment();
+         } catch (IOException | RuntimeException e) {
+            logger.debug(String.format("#### -> Dropping watch subscription: %s", e.getMessage()));
+            unsubscribe(s);
+         }
+      }
+   }
+
+   @PreDestroy
+   public void shutdown() {
+      scheduler.shutdownNow();
+   }
+}
@@ -0,0 +1,120 @@
+package uber.location_service.watch;
+
+import uber.location_service.algo.DistanceKernel;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyDelta;
+import uber.location_service.structures.SupplyInstance;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A watched circle with the supply currently inside it and the changes not pushed yet.
+ * Changes of the same id are coalesced until the push, so the client gets a single
+ * entered, moved or left per id. Guarded by the {@link SupplyWatchService} lock.
+ */
+class WatchSubscription {
+   // held from the drain to the send, so the pushes of the subscription go out in order
+   final Object pushLock = new Object();
+   private enum Change { ENTERED, MOVED, LEFT }
+
+   private static class Pending {
+      Change change;
+      double latitude, longitude;
+   }
+
+   final int[] cells;
+   final SupplyWatchService.DeltaSink sink;
+   private final DistanceKernel kernel;
+   private final double maxChord2;
+   private final Map<String, double[]> members = new HashMap<>(); // id -> lat, lon in radians
+   private Map<String, Pending> pending = new LinkedHashMap<>();
+
+   WatchSubscription(GeoPoint location, double radius, double distance, int[] cells, SupplyWatchService.DeltaSink sink) {
+      this.kernel = new DistanceKernel(location, radius);
+      this.maxChord2 = kernel.chord2For(distance);
+      this.cells = cells;
+      this.sink = sink;
+   }
+
+   boolean contains(double x, double y, double z) {
+      return kernel.chord2(x, y, z) <= maxChord2;
+   }
+
+   boolean isMember(String id) {
+      return members.containsKey(id);
+   }
+
+   /**
+    * @return true if the id entered the area.
+    */
+   boolean inside(String id, double latitude, double longitude) {
+      double[] prev = members.get(id);
+      if (prev == null) {
+         members.put(id, new double[] {latitude, longitude});
+         record(id, Change.ENTERED, latitude, longitude);
+         return true;
+      }
+      if (prev[0] != latitude || prev[1] != longitude) {
+         prev[0] = latitude;
+         prev[1] = longitude;
+         record(id, Change.MOVED, latitude, longitude);
+      }
+      return false;
+   }
+
+   /**
+    * @return true if the id was inside the area.
+    */
+   boolean outside(String id) {
+      if (members.remove(id) == null) return false;
+      record(id, Change.LEFT, 0d, 0d);
+      return true;
+   }
+
+   private void record(String id, Change change, double latitude, double longitude) {
+      Pending p = pending.get(id);
+      if (p == null) {
+         p = new Pending();
+         p.change = change;
+         pending.put(id, p);
+      } else if (change == Change.LEFT) {
+         // the client never saw an id that entered since the last push
+         if (p.change == Change.ENTERED) {
+            pending.remove(id);
+            return;
+         }
+         p.change = Change.LEFT;
+      } else if (p.change == Change.LEFT) {
+         // left and came back - the client still has it
+         p.change = Change.MOVED;
+      }
+      p.latitude = latitude;
+      p.longitude = longitude;
+   }
+
+   /**
+    * @return the changes since the previous call, null if there are none.
+    */
+   SupplyDelta drain() {
+      if (pending.isEmpty()) return null;
+
+      SupplyDelta delta = new SupplyDelta();
+      for (Map.Entry<String, Pending> e : pending.entrySet()) {
+         Pending p = e.getValue();
+         if (p.change == Change.LEFT) {
+            delta.getLeft().add(e.getKey());
+            continue;
+         }
+         SupplyInstance ins = new SupplyInstance(e.getKey(), GeoPoint.fromRadians(p.latitude, p.longitude));
+         (p.change == Change.ENTERED ? delta.getEntered() : delta.getMoved()).add(ins);
+      }
+      pending = new LinkedHashMap<>();
+      return delta;
+   }
+
+   Iterable<String> memberIds() {
+      return members.keySet();
+   }
+}
@@ -0,0 +1,289 @@
+package uber.location_service.zones;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import uber.location_service.algo.GeoGrid;
+import uber.location_service.algo.SupplyIndex;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyFilter;
+import uber.location_service.structures.SupplyInstance;
+import uber.location_service.structures.SupplyPositions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Named polygon (a geofence) with its covering by the cells of the supply index grid,
+ * computed once when the zone is registered. The interior cells lie wholly inside the polygon,
+ * their instances are taken without looking at their positions - a count over them is just
+ * the sizes of the cells. Only the instances of the boundary cells, which the edges pass
+ * through, are tested against the polygon. A query visits the occupied cells of the zone's
+ * bounding box, so it costs time proportional to the zone, not to the whole fleet.
+ *
+ * The edges are straight lines in latitude and longitude, as the geofences are usually drawn,
+ * and the zone must not cross the 180 meridian.
+ */
+@JsonAutoDetect(getterVisibility = JsonAutoDetect.Visibility.NONE,
+      isGetterVisibility = JsonAutoDetect.Visibility.NONE)
+public final class SupplyZone {
+   private static final byte OUTSIDE = 0, BOUNDARY = 1, INTERIOR = 2;
+   private static final double EDGE_MARGIN = 1e-12; // radians, keeps the rounding off the interior cells
+
+   private final String name;
+   private final List<GeoPoint> vertices;
+   private final double[] latitudes, longitudes; // of the vertices, in radians
+   private final GeoPoint min, max;
+   private final GeoGrid grid;
+
+   // the kind of every cell of the bounding box, row by row
+   private final int rowLo, colLo, width;
+   private final byte[] kinds;
+   private final int interiorCount, boundaryCount;
+
+   private SupplyZone(String name, List<GeoPoint> vertices, GeoGrid grid) {
+      this.name = name;
+      this.vertices = vertices;
+      this.grid = grid;
+      this.latitudes = new double[vertices.size()];
+      this.longitudes = new double[vertices.size()];
+      double minLat = Double.POSITIVE_INFINITY, minLon = Double.POSITIVE_INFINITY;
+      double maxLat = Double.NEGATIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < vertices.size(); ++i) {
+         latitudes[i] = vertices.get(i).getLatitude();
+         longitudes[i] = vertices.get(i).getLongitude();
+         minLat = Math.min(minLat, latitudes[i]);
+         maxLat = Math.max(maxLat, latitudes[i]);
+         minLon = Math.min(minLon, longitudes[i]);
+         maxLon = Math.max(maxLon, longitudes[i]);
+      }
+      this.min = GeoPoint.fromRadians(minLat, minLon);
+      this.max = GeoPoint.fromRadians(maxLat, maxLon);
+
+      this.rowLo = grid.rowOf(minLat);
+      this.colLo = grid.colOf(minLon);
+      this.width = grid.colOf(maxLon) - colLo + 1;
+      final int height = grid.rowOf(maxLat) - rowLo + 1;
+      this.kinds = new byte[height * width];
+      markBoundary();
+      markInterior(height);
+
+      int interior = 0, boundary = 0;
+      for (byte kind : kinds) {
+         if (kind == INTERIOR) ++interior;
+         else if (kind == BOUNDARY) ++boundary;
+      }
+      this.interiorCount = interior;
+      this.boundaryCount = boundary;
+   }
+
+   /**
+    * @param vertices in order, the last one connects back to the first.
+    * @param grid the grid of the index the zone is queried in.
+    * @param maxCells the most cells the bounding box of the zone may take.
+    */
+   public static SupplyZone of(String name, List<GeoPoint> vertices, GeoGrid grid, int maxCells) {
+      if (name == null || name.isEmpty()) throw new IllegalArgumentException("Zone needs a name");
+      if (vertices == null || vertices.size() < 3) throw new IllegalArgumentException("Zone needs at least 3 vertices");
+
+      double minLat = Double.POSITIVE_INFINITY, minLon = Double.POSITIVE_INFINITY;
+      double maxLat = Double.NEGATIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+      for (GeoPoint v : vertices) {
+         if (v == null || Math.abs(v.getLatitude()) > Math.PI / 2 || Math.abs(v.getLongitude()) > Math.PI)
+            throw new IllegalArgumentException("Vertex out of range: " + v);
+         minLat = Math.min(minLat, v.getLatitude());
+         maxLat = Math.max(maxLat, v.getLatitude());
+         minLon = Math.min(minLon, v.getLongitude());
+         maxLon = Math.max(maxLon, v.getLongitude());
+      }
+      if (maxLon - minLon > Math.PI)
+         throw new IllegalArgumentException("Zone must not cross the 180 meridian");
+      long cells = (long) (grid.rowOf(maxLat) - grid.rowOf(minLat) + 1) * (grid.colOf(maxLon) - grid.colOf(minLon) + 1);
+      if (cells > maxCells)
+         throw new IllegalArgumentException("Zone must cover at most " + maxCells + " cells");
+
+      return new SupplyZone(name, Collections.unmodifiableList(new ArrayList<>(vertices)), grid);
+   }
+
+   /**
+    * Marks the cells every edge passes through, row by row - within a row the edge covers
+    * the columns between its longitudes at the edges of the row.
+    */
+   private void markBoundary() {
+      final int n = latitudes.length;
+      for (int i = 0, j = n - 1; i < n; j = i++) {
+         final double lat1 = latitudes[j], lon1 = longitudes[j], lat2 = latitudes[i], lon2 = longitudes[i];
+         final int fromRow = grid.rowOf(Math.min(lat1, lat2) - EDGE_MARGIN);
+         final int toRow = grid.rowOf(Math.max(lat1, lat2) + EDGE_MARGIN);
+         for (int row = fromRow; row <= toRow; ++row) {
+            // the part of the edge within the row
+            double lo = Math.max(Math.min(lat1, lat2), grid.latitudeOfRow(row));
+            double hi = Math.min(Math.max(lat1, lat2), grid.latitudeOfRow(row + 1));
+            double lonLo, lonHi;
+            if (lat1 == lat2) {
+               lonLo = Math.min(lon1, lon2);
+               lonHi = Math.max(lon1, lon2);
+            } else {
+               double a = lon1 + (lon2 - lon1) * (lo - lat1) / (lat2 - lat1);
+               double b = lon1 + (lon2 - lon1) * (hi - lat1) / (lat2 - lat1);
+               lonLo = Math.min(a, b);
+               lonHi = Math.max(a, b);
+            }
+            for (int col = grid.colOf(lonLo - EDGE_MARGIN); col <= grid.colOf(lonHi + EDGE_MARGIN); ++col) {
+               setKind(row, col, BOUNDARY);
+            }
+         }
+      }
+   }
+
+   /**
+    * No edge crosses a run of non-boundary cells of a row, so the center of its first cell
+    * decides for the whole run.
+    */
+   private void markInterior(int height) {
+      final double half = grid.getCellSize() / 2;
+      for (int r = 0; r < height; ++r) {
+         byte runKind = OUTSIDE;
+         boolean inRun = false;
+         for (int c = 0; c < width; ++c) {
+            final int i = r * width + c;
+            if (kinds[i] == BOUNDARY) {
+               inRun = false;
+               continue;
+            }
+            if (!inRun) {
+               runKind = contains(grid.latitudeOfRow(rowLo + r) + half, grid.longitudeOfCol(colLo + c) + half) ?
+                     INTERIOR : OUTSIDE;
+               inRun = true;
+            }
+            kinds[i] = runKind;
+         }
+      }
+   }
+
+   private void setKind(int row, int col, byte kind) {
+      int r = row - rowLo, c = col - colLo;
+      if (r >= 0 && c >= 0 && c < width && r * width + c < kinds.length) kinds[r * width + c] = kind;
+   }
+
+   private byte kindOf(int cellId) {
+      int r = grid.rowOfCell(cellId) - rowLo, c = grid.colOfCell(cellId) - colLo;
+      if (r < 0 || c < 0 || c >= width || r * width + c >= kinds.length) return OUTSIDE;
+      return kinds[r * width + c];
+   }
+
+   /**
+    * Even-odd test of the position, in radians.
+    */
+   public boolean contains(double latitude, double longitude) {
+      boolean inside = false;
+      for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+         if ((latitudes[i] > latitude) != (latitudes[j] > latitude) &&
+               longitude < longitudes[i] + (longitudes[j] - longitudes[i]) *
+                     (latitude - latitudes[i]) / (latitudes[j] - latitudes[i])) {
+            inside = !inside;
+         }
+      }
+      return inside;
+   }
+
+   @JsonProperty("name")
+   public String getName() {
+      return name;
+   }
+
+   @JsonProperty("vertices")
+   public List<GeoPoint> getVertices() {
+      return vertices;
+   }
+
+   @JsonProperty("interior_cells")
+   public int getInteriorCellCount() {
+      return interiorCount;
+   }
+
+   @JsonProperty("boundary_cells")
+   public int getBoundaryCellCount() {
+      return boundaryCount;
+   }
+
+   /**
+    * The occupied cells of the zone and their sizes, listed before any is visited.
+    */
+   private static final class Cells {
+      int[] ids = new int[16], sizes = new int[16];
+      int size;
+
+      void add(int cellId, int cellSize) {
+         if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            sizes = Arrays.copyOf(sizes, size * 2);
+         }
+         ids[size] = cellId;
+         sizes[size++] = cellSize;
+      }
+   }
+
+   private Cells occupiedCells(SupplyIndex index, SupplyFilter filter) {
+      if (index.getGrid().getCellSize() != grid.getCellSize())
+         throw new IllegalStateException("Zone " + name + " was covered with another grid");
+
+      Cells cells = new Cells();
+      index.forEachCellInBox(min, max, filter, (cellId, size) -> {
+         if (kindOf(cellId) != OUTSIDE) cells.add(cellId, size);
+      });
+      return cells;
+   }
+
+   /**
+    * @return the number of instances inside the zone matching the filter.
+    */
+   public long count(SupplyIndex index, SupplyFilter filter) {
+      final Cells cells = occupiedCells(index, filter);
+      final long[] count = {0};
+      for (int i = 0; i < cells.size; ++i) {
+         if (kindOf(cells.ids[i]) == INTERIOR) {
+            if (filter.isAny()) count[0] += cells.sizes[i];
+            else index.forEachInCell(cells.ids[i], filter, (id, lat, lon, x, y, z, attributes) -> ++count[0]);
+         } else {
+            index.forEachInCell(cells.ids[i], filter, (id, lat, lon, x, y, z, attributes) -> {
+               if (contains(lat, lon)) ++count[0];
+            });
+         }
+      }
+      return count[0];
+   }
+
+   /**
+    * @return the instances inside the zone matching the filter.
+    */
+   public List<SupplyInstance> find(SupplyIndex index, SupplyFilter filter) {
+      final Cells cells = occupiedCells(index, filter);
+      final Found found = new Found();
+      for (int i = 0; i < cells.size; ++i) {
+         final boolean interior = kindOf(cells.ids[i]) == INTERIOR;
+         index.forEachInCell(cells.ids[i], filter, (id, lat, lon, x, y, z, attributes) -> {
+            if (interior || contains(lat, lon)) found.add(id, lat, lon);
+         });
+      }
+      return SupplyPositions.of(found.ids, found.latitudes, found.longitudes, found.size);
+   }
+
+   private static final class Found {
+      String[] ids = new String[16];
+      double[] latitudes = new double[16], longitudes = new double[16];
+      int size;
+
+      void add(String id, double latitude, double longitude) {
+         if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            latitudes = Arrays.copyOf(latitudes, size * 2);
+            longitudes = Arrays.copyOf(longitudes, size * 2);
+         }
+         ids[size] = id;
+         latitudes[size] = latitude;
+         longitudes[size++] = longitude;
+      }
+   }
+}
@@ -0,0 +1,82 @@
+package uber.location_service.zones;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import uber.location_service.configuration.SupplyLocationProperties;
+import uber.location_service.services.SupplyLocationImpl;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyFilter;
+import uber.location_service.structures.SupplyInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the named geofences, see {@link SupplyZone}, and the supply queries within them.
+ * A zone is covered by the cells of the supply index when registered, registering a zone
+ * under a taken name replaces it.
+ */
+@Service
+public class SupplyZoneService {
+   private final Logger logger = LoggerFactory.getLogger(SupplyZoneService.class);
+
+   private final SupplyLocationImpl impl;
+   private final int maxZones, maxCells;
+   private final Map<String, SupplyZone> zones = new ConcurrentHashMap<>();
+
+   @Autowired
+   public SupplyZoneService(
+         final SupplyLocationImpl impl, final MeterRegistry registry, final SupplyLocationProperties properties) {
+      this.impl = impl;
+      this.maxZones = properties.getZones().getMaxZones();
+      this.maxCells = properties.getZones().getMaxCells();
+      registry.gaugeMapSize("supply.zones", Tags.empty(), zones);
+   }
+
+   /**
+    * @param vertices in order, the last one connects back to the first.
+    */
+   public SupplyZone register(String name, List<GeoPoint> vertices) {
+      SupplyZone zone = SupplyZone.of(name, vertices, impl.getSupplyIndex().getGrid(), maxCells);
+      synchronized (zones) {
+         if (!zones.containsKey(name) && zones.size() >= maxZones)
+            throw new IllegalStateException("At most " + maxZones + " zones are allowed");
+         zones.put(name, zone);
+      }
+      logger.info(String.format("#### -> Registered zone %s, %d interior and %d boundary cells",
+            name, zone.getInteriorCellCount(), zone.getBoundaryCellCount()));
+      return zone;
+   }
+
+   /**
+    * @return true if the zone was registered.
+    */
+   public boolean remove(String name) {
+      return zones.remove(name) != null;
+   }
+
+   /**
+    * @return the zone or null if none is registered under the name.
+    */
+   public SupplyZone getZone(String name) {
+      return zones.get(name);
+   }
+
+   public List<SupplyZone> getZones() {
+      return new ArrayList<>(zones.values());
+   }
+
+   public long countSupply(SupplyZone zone, SupplyFilter filter) {
+      return zone.count(impl.getSupplyIndex(), filter);
+   }
+
+   public List<SupplyInstance> getSupply(SupplyZone zone, SupplyFilter filter) {
+      return zone.find(impl.getSupplyIndex(), filter);
+   }
+}
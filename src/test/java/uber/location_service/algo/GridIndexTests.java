@@ -0,0 +1,283 @@
+package uber.location_service.algo;
+
+import org.junit.jupiter.api.Test;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.NearestSupplyInstance;
+import uber.location_service.structures.SupplyEntry;
+import uber.location_service.structures.SupplyFilter;
+import uber.location_service.structures.SupplyInstance;
+import uber.location_service.structures.SupplyQuery;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GridIndexTests {
+   private static final double earthRadius = 6371.01;
+
+   private static GeoPoint degrees(double lat, double lon) {
+      return GeoPoint.fromRadians(Math.toRadians(lat), Math.toRadians(lon));
+   }
+
+   private static Set<String> ids(List<? extends SupplyInstance> list) {
+      return list.stream().map(SupplyInstance::getId).collect(Collectors.toSet());
+   }
+
+   private static void fill(ConcurrentHashMap<String, SupplyInstance> lhm, GridIndex index,
+                            Random rnd, int count, double lat, double lon, double spread) {
+      for (int i = 0; i < count; ++i) {
+         double pLat = Math.max(-90d, Math.min(90d, lat + (rnd.nextDouble() - 0.5) * spread));
+         double pLon = lon + (rnd.nextDouble() - 0.5) * spread;
+         if (pLon > 180d) pLon -= 360d;
+         if (pLon < -180d) pLon += 360d;
+
+         put(lhm, index, new SupplyInstance(lat + ":" + lon + ":" + i, degrees(pLat, pLon)));
+      }
+   }
+
+   private static void put(ConcurrentHashMap<String, SupplyInstance> lhm, GridIndex index,
+                           SupplyInstance ins) {
+      SupplyInstance prev = lhm.put(ins.getId(), ins);
+      index.move(prev == null ? null : new SupplyEntry(prev), new SupplyEntry(ins));
+   }
+
+   private static List<SupplyInstance> fullScan(ConcurrentHashMap<String, SupplyInstance> lhm,
+                                                GeoPoint location, double distance) {
+      return lhm.values().stream()
+            .filter(ins -> ins.getLocation().distanceTo(location, earthRadius) <= distance)
+            .collect(Collectors.toList());
+   }
+
+   @Test
+   void indexMatchesFullScan() {
+      Random rnd = new Random(42);
+      ConcurrentHashMap<String, SupplyInstance> lhm = new ConcurrentHashMap<>();
+      GridIndex index = new GridIndex(new GeoGrid(0.5));
+
+      fill(lhm, index, rnd, 2000, 50d, 30d, 4d);     // city
+      fill(lhm, index, rnd, 2000, 0d, 180d, 4d);     // antimeridian
+      fill(lhm, index, rnd, 2000, 89.5d, 0d, 4d);    // north pole
+      fill(lhm, index, rnd, 2000, -89.5d, 90d, 4d);  // south pole
+      fill(lhm, index, rnd, 2000, 0d, 0d, 360d);     // whole world
+
+      GeoPoint[] queries = {
+            degrees(50d, 30d), degrees(0.5d, 179.9d), degrees(-0.5d, -179.9d),
+            degrees(89.9d, 45d), degrees(-89.9d, -120d), degrees(10d, -60d)
+      };
+      double[] distances = {1d, 10d, 80d, 500d, 5000d, 30000d};
+
+      for (GeoPoint q : queries) {
+         for (double d : distances) {
+            Set<String> expected = ids(fullScan(lhm, q, d));
+            Set<String> actual = ids(GeoAlgorithms.findPlacesWithinDistance(
+                  index, earthRadius, q, d));
+            assertEquals(expected, actual, "query " + q + " within " + d);
+         }
+      }
+   }
+
+   @Test
+   void closestMatchesFullScan() {
+      Random rnd = new Random(7);
+      ConcurrentHashMap<String, SupplyInstance> lhm = new ConcurrentHashMap<>();
+      GridIndex index = new GridIndex(new GeoGrid(0.5));
+
+      fill(lhm, index, rnd, 3000, 50d, 30d, 2d);
+      fill(lhm, index, rnd, 500, 0d, 180d, 10d);
+      fill(lhm, index, rnd, 200, 88d, 0d, 4d);
+
+      GeoPoint[] queries = {
+            degrees(50d, 30d), degrees(0d, 179.99d), degrees(0d, -179.99d),
+            degrees(89.9d, 120d), degrees(-60d, 10d)
+      };
+      for (GeoPoint q : queries) {
+         for (int k : new int[]{1, 5, 50}) {
+            List<Double> expected = lhm.values().stream()
+                  .map(ins -> ins.getLocation().distanceTo(q, earthRadius))
+                  .sorted(Comparator.naturalOrder()).limit(k)
+                  .collect(Collectors.toList());
+            List<NearestSupplyInstance> actual = GeoAlgorithms.getClosest(index, earthRadius, q, k);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); ++i) {
+               assertEquals(expected.get(i), actual.get(i).getDistance(), 1e-6, "query " + q + " k " + k);
+            }
+         }
+      }
+   }
+
+   @Test
+   void expandingRadiusMatchesRestartedScans() {
+      Random rnd = new Random(11);
+      ConcurrentHashMap<String, SupplyInstance> lhm = new ConcurrentHashMap<>();
+      GridIndex index = new GridIndex(new GeoGrid(0.5));
+
+      fill(lhm, index, rnd, 2000, 50d, 30d, 1d);
+      fill(lhm, index, rnd, 20, 0d, 180d, 20d);
+      fill(lhm, index, rnd, 5, -89d, 0d, 2d);
+
+      GeoPoint[] queries = {
+            degrees(50d, 30d), degrees(45d, 25d), degrees(0d, -179.99d),
+            degrees(-80d, 60d), degrees(30d, -100d)
+      };
+      for (GeoPoint q : queries) {
+         for (int minCandidates : new int[]{1, 10, 100}) {
+            List<SupplyInstance> restarted = List.of();
+            for (double d = 10; d <= 20480; d *= 2) {
+               restarted = fullScan(lhm, q, d);
+               if (restarted.size() >= minCandidates) break;
+            }
+            assertEquals(ids(restarted), ids(GeoAlgorithms.findPlacesWithinExpandingDistance(
+                  index, earthRadius, q, 10, 20480, minCandidates)), "query " + q);
+         }
+      }
+   }
+
+   @Test
+   void batchMatchesSingleQueries() {
+      Random rnd = new Random(5);
+      ConcurrentHashMap<String, SupplyInstance> lhm = new ConcurrentHashMap<>();
+      GridIndex index = new GridIndex(new GeoGrid(0.5));
+      AlgoInterface algo = new AlgoInterface(10, 20000, 20);
+
+      fill(lhm, index, rnd, 3000, 50d, 30d, 2d);
+      fill(lhm, index, rnd, 300, 0d, 180d, 6d);
+      fill(lhm, index, rnd, 100, -89d, 0d, 2d);
+
+      // riders clustered in the city and a few far away ones
+      List<SupplyQuery> queries = new ArrayList<>();
+      SupplyQuery.Mode[] modes = SupplyQuery.Mode.values();
+      for (int i = 0; i < 300; ++i) {
+         GeoPoint location = i % 10 == 0
+               ? degrees(rnd.nextDouble() * 180 - 90, rnd.nextDouble() * 360 - 180)
+               : degrees(50d + (rnd.nextDouble() - 0.5) * 3, 30d + (rnd.nextDouble() - 0.5) * 3);
+         queries.add(new SupplyQuery(location, modes[i % modes.length], 1 + rnd.nextInt(30)));
+      }
+
+      List<List<? extends SupplyInstance>> batch = algo.getBatchSupply(index, queries);
+      assertEquals(queries.size(), batch.size());
+      for (int i = 0; i < queries.size(); ++i) {
+         SupplyQuery q = queries.get(i);
+         List<? extends SupplyInstance> expected;
+         switch (q.getMode()) {
+            case CLOSEST: expected = algo.getClosestSupply(index, q.getLocation(), 1); break;
+            case K_NEAREST: expected = algo.getClosestSupply(index, q.getLocation(), q.getK()); break;
+            default: expected = algo.getRadiusSupply(index, q.getLocation());
+         }
+
+         if (q.getMode() == SupplyQuery.Mode.RADIUS) {
+            assertEquals(ids(expected), ids(batch.get(i)), "query " + i);
+            continue;
+         }
+         assertEquals(expected.size(), batch.get(i).size(), "query " + i);
+         for (int j = 0; j < expected.size(); ++j) {
+            assertEquals(((NearestSupplyInstance) expected.get(j)).getDistance(),
+                  ((NearestSupplyInstance) batch.get(i).get(j)).getDistance(), 1e-9, "query " + i);
+         }
+      }
+   }
+
+   @Test
+   void moveRelocatesBetweenCells() {
+      ConcurrentHashMap<String, SupplyInstance> lhm = new ConcurrentHashMap<>();
+      GridIndex index = new GridIndex(new GeoGrid(0.1));
+
+      put(lhm, index, new SupplyInstance("driver", degrees(50d, 30d)));
+      put(lhm, index, new SupplyInstance("driver", degrees(51d, 31d)));
+
+      assertTrue(GeoAlgorithms.findPlacesWithinDistance(
+            index, earthRadius, degrees(50d, 30d), 5d).isEmpty());
+      assertEquals(Set.of("driver"), ids(GeoAlgorithms.findPlacesWithinDistance(
+            index, earthRadius, degrees(51d, 31d), 5d)));
+   }
+
+   @Test
+   void parallelScansMatchSequential() {
+      Random rnd = new Random(11);
+      ConcurrentHashMap<String, SupplyInstance> lhm = new ConcurrentHashMap<>();
+      GridIndex index = new GridIndex(new GeoGrid(0.5));
+      fill(lhm, index, rnd, 5000, 50d, 30d, 3d);
+      fill(lhm, index, rnd, 1000, 0d, 180d, 6d);
+      fill(lhm, index, rnd, 1000, 0d, 0d, 360d);
+
+      AlgoInterface sequential = new AlgoInterface(10, 20000, 50);
+      // every scan of at least 100 instances is split
+      AlgoInterface parallel = new AlgoInterface(10, 20000, 50, SearchObserver.NONE, ParallelScan.create(4, 100));
+
+      for (int i = 0; i < 100; ++i) {
+         GeoPoint q = i % 5 == 0
+               ? degrees(rnd.nextDouble() * 180 - 90, rnd.nextDouble() * 360 - 180)
+               : degrees(50d + (rnd.nextDouble() - 0.5) * 3, 30d + (rnd.nextDouble() - 0.5) * 3);
+         int k = 1 + rnd.nextInt(200);
+
+         List<NearestSupplyInstance> expected = sequential.getClosestSupply(index, q, k);
+         List<NearestSupplyInstance> actual = parallel.getClosestSupply(index, q, k);
+         assertEquals(expected.size(), actual.size(), "query " + i);
+         for (int j = 0; j < expected.size(); ++j) {
+            assertEquals(expected.get(j).getDistance(), actual.get(j).getDistance(), 1e-9, "query " + i);
+         }
+         assertEquals(ids(sequential.getRadiusSupply(index, q)), ids(parallel.getRadiusSupply(index, q)), "query " + i);
+         assertEquals(ids(sequential.getSupplyWithin(index, q, 300d)), ids(parallel.getSupplyWithin(index, q, 300d)),
+               "query " + i);
+      }
+
+      // a closed scan stays sequential
+      parallel.getParallelScan().close();
+      GeoPoint q = degrees(50d, 30d);
+      assertEquals(ids(sequential.getSupplyWithin(index, q, 300d)), ids(parallel.getSupplyWithin(index, q, 300d)));
+
+      // and a scan closed once it's past the check completes on the calling thread
+      ParallelScan closing = ParallelScan.create(4, 100);
+      Counter counted = new Counter();
+      closing.forEachInBox(index, degrees(45d, 25d), degrees(55d, 35d), cellId -> {
+         closing.close();
+         return true;
+      }, SupplyFilter.ANY, counted);
+      Counter expected = new Counter();
+      index.forEachInBox(degrees(45d, 25d), degrees(55d, 35d), cellId -> true, SupplyFilter.ANY, expected);
+      assertEquals(expected.count, counted.count);
+   }
+
+   private static final class Counter implements ParallelScan.Forkable<Counter> {
+      int count;
+
+      @Override
+      public void visit(String id, double latitude, double longitude, double x, double y, double z, int attributes) {
+         ++count;
+      }
+
+      @Override
+      public Counter fork() {
+         return new Counter();
+      }
+
+      @Override
+      public void merge(Counter part) {
+         count += part.count;
+      }
+   }
+
+   @Test
+   void observerSeesTheSearchWork() {
+      ConcurrentHashMap<String, SupplyInstance> lhm = new ConcurrentHashMap<>();
+      GridIndex index = new GridIndex(new GeoGrid(0.1));
+      put(lhm, index, new SupplyInstance("near", degrees(50d, 30d)));
+      put(lhm, index, new SupplyInstance("far", degrees(50d, 31d)));
+
+      List<String> seen = new ArrayList<>();
+      SearchObserver observer = (kind, examined, doublings) -> seen.add(kind + ":" + examined + ":" + doublings);
+      AlgoInterface algo = new AlgoInterface(10, 30000, 2, observer);
+
+      // the other instance is ~71 km away, reached once 10 km doubles to 80 km
+      assertEquals(2, algo.getRadiusSupply(index, degrees(50d, 30d)).size());
+      assertEquals("radius:2:3", seen.get(0));
+      algo.getSupplyWithin(index, degrees(50d, 30d), 5d);
+      assertEquals("within:1:0", seen.get(1));
+   }
+}
@@ -0,0 +1,54 @@
+package uber.location_service.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uber.location_service.algo.AlgoInterface;
+import uber.location_service.algo.DistanceKernel;
+import uber.location_service.structures.GeoPoint;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single distance computations - the acos formula of GeoPoint.distanceTo
+ * against the chord comparison of the DistanceKernel the scans use.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceBenchmark {
+   private GeoPoint[] points;
+   private double[] xs, ys, zs;
+   private GeoPoint origin;
+   private DistanceKernel kernel;
+   private int next;
+
+   @Setup
+   public void setup() {
+      points = new Fleets(Fleets.Distribution.UNIFORM, 3).points(1024);
+      xs = new double[points.length];
+      ys = new double[points.length];
+      zs = new double[points.length];
+      for (int i = 0; i < points.length; ++i) {
+         double cosLat = Math.cos(points[i].getLatitude());
+         xs[i] = cosLat * Math.cos(points[i].getLongitude());
+         ys[i] = cosLat * Math.sin(points[i].getLongitude());
+         zs[i] = Math.sin(points[i].getLatitude());
+      }
+      origin = GeoPoint.fromRadians(Math.toRadians(50), Math.toRadians(10));
+      kernel = new DistanceKernel(origin, AlgoInterface.earthRadius);
+   }
+
+   @Benchmark
+   public double distanceTo() {
+      next = (next + 1) & (points.length - 1);
+      return origin.distanceTo(points[next], AlgoInterface.earthRadius);
+   }
+
+   @Benchmark
+   public double chord2() {
+      next = (next + 1) & (points.length - 1);
+      return kernel.chord2(xs[next], ys[next], zs[next]);
+   }
+}
@@ -0,0 +1,123 @@
+package uber.location_service.benchmarks;
+
+import uber.location_service.storage.ArraySupplyStore;
+import uber.location_service.storage.MapSupplyStore;
+import uber.location_service.storage.SupplyBatch;
+import uber.location_service.storage.SupplyStore;
+import uber.location_service.algo.GeoGrid;
+import uber.location_service.structures.GeoPoint;
+
+import java.util.Random;
+
+/**
+ * Synthetic fleets for the benchmarks, generated from a seed so every run and release
+ * measures the same data. Positions are in radians.
+ */
+public final class Fleets {
+   public enum Distribution {
+      /** Uniform over the sphere surface. */
+      UNIFORM,
+      /** Gaussian clusters around cities of Zipf distributed sizes. */
+      CITY,
+      /** Both polar caps above 80 degrees. */
+      POLAR,
+      /** A band of 1 degree on either side of the 180 meridian. */
+      ANTIMERIDIAN
+   }
+
+   private static final int CITY_COUNT = 50;
+   private static final double CITY_SIGMA = Math.toRadians(0.1); // ~11 km
+
+   private final Distribution distribution;
+   private final Random rnd;
+   private final double[][] cities;
+   private final double[] cityWeights; // cumulative
+
+   Fleets(Distribution distribution, long seed) {
+      this.distribution = distribution;
+      this.rnd = new Random(seed);
+
+      // the cities don't depend on the seed, so the queries and the fleet share them
+      Random cityRnd = new Random(42);
+      cities = new double[CITY_COUNT][];
+      cityWeights = new double[CITY_COUNT];
+      double total = 0;
+      for (int i = 0; i < CITY_COUNT; ++i) {
+         cities[i] = new double[] {
+               Math.toRadians(cityRnd.nextDouble() * 100 - 40), Math.toRadians(cityRnd.nextDouble() * 360 - 180)};
+         total += 1d / (i + 1);
+         cityWeights[i] = total;
+      }
+      for (int i = 0; i < CITY_COUNT; ++i) cityWeights[i] /= total;
+   }
+
+   private static double wrapLongitude(double lon) {
+      if (lon > Math.PI) return lon - 2 * Math.PI;
+      if (lon < -Math.PI) return lon + 2 * Math.PI;
+      return lon;
+   }
+
+   /**
+    * @return the next position as {latitude, longitude}.
+    */
+   double[] next() {
+      switch (distribution) {
+         case UNIFORM:
+            return new double[] {Math.asin(2 * rnd.nextDouble() - 1), (2 * rnd.nextDouble() - 1) * Math.PI};
+         case CITY: {
+            double u = rnd.nextDouble();
+            int city = 0;
+            while (cityWeights[city] < u) ++city;
+            double lat = cities[city][0] + rnd.nextGaussian() * CITY_SIGMA;
+            double lon = cities[city][1] + rnd.nextGaussian() * CITY_SIGMA / Math.cos(cities[city][0]);
+            return new double[] {Math.max(-Math.PI / 2, Math.min(Math.PI / 2, lat)), wrapLongitude(lon)};
+         }
+         case POLAR: {
+            // uniform by area within the cap
+            double sinMin = Math.sin(Math.toRadians(80));
+            double lat = Math.asin(sinMin + rnd.nextDouble() * (1 - sinMin));
+            return new double[] {rnd.nextBoolean() ? lat : -lat, (2 * rnd.nextDouble() - 1) * Math.PI};
+         }
+         case ANTIMERIDIAN: {
+            double lon = Math.PI + Math.toRadians(rnd.nextDouble() * 2 - 1);
+            return new double[] {Math.toRadians(rnd.nextDouble() * 120 - 60), wrapLongitude(lon)};
+         }
+         default:
+            throw new IllegalStateException();
+      }
+   }
+
+   GeoPoint[] points(int count) {
+      GeoPoint[] res = new GeoPoint[count];
+      for (int i = 0; i < count; ++i) {
+         double[] p = next();
+         res[i] = GeoPoint.fromRadians(p[0], p[1]);
+      }
+      return res;
+   }
+
+   static String id(int i) {
+      return "driver-" + i;
+   }
+
+   /**
+    * @param storeType map or array, as supply-location.store.
+    */
+   static SupplyStore newStore(String storeType, int fleetSize, Distribution distribution, long seed) {
+      GeoGrid grid = new GeoGrid(0.1);
+      SupplyStore store = storeType.equals("map") ? new MapSupplyStore(grid) : new ArraySupplyStore(grid, fleetSize);
+
+      Fleets fleets = new Fleets(distribution, seed);
+      SupplyBatch batch = new SupplyBatch(8192);
+      for (int i = 0; i < fleetSize; ++i) {
+         double[] p = fleets.next();
+         batch.put(id(i), p[0], p[1]);
+         if (batch.size() == 8192) {
+            store.updateAll(batch);
+            batch.clear();
+         }
+      }
+      store.updateAll(batch);
+      return store;
+   }
+}
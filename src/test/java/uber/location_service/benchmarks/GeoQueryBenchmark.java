@@ -0,0 +1,99 @@
+package uber.location_service.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import uber.location_service.algo.AlgoInterface;
+import uber.location_service.algo.GeoAlgorithms;
+import uber.location_service.algo.ParallelScan;
+import uber.location_service.algo.SearchObserver;
+import uber.location_service.storage.SupplyStore;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.NearestSupplyInstance;
+import uber.location_service.structures.SupplyFilter;
+import uber.location_service.structures.SupplyInstance;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-only queries over a fleet of the given size and distribution, the query points
+ * follow the fleet distribution. Reports the throughput and the latency distribution
+ * per query, the 5M fleets need about 3 GB of heap with the map store. The scans run
+ * sequentially unless scanThreads is overridden (-p scanThreads=0 uses every core).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class GeoQueryBenchmark {
+   private static final double EARTH_RADIUS = AlgoInterface.earthRadius;
+   private static final int QUERY_COUNT = 4096;
+
+   @Param({"10000", "100000", "1000000", "5000000"})
+   public int fleetSize;
+
+   @Param({"UNIFORM", "CITY", "POLAR", "ANTIMERIDIAN"})
+   public Fleets.Distribution distribution;
+
+   @Param({"array", "map"})
+   public String store;
+
+   @Param({"1"})
+   public int scanThreads;
+
+   private SupplyStore supply;
+   private ParallelScan parallel;
+   private AlgoInterface algo;
+   private GeoPoint[] queries;
+
+   @State(Scope.Thread)
+   public static class Cursor {
+      int next;
+
+      GeoPoint next(GeoPoint[] queries) {
+         next = (next + 1) & (queries.length - 1);
+         return queries[next];
+      }
+   }
+
+   @Setup(Level.Trial)
+   public void setup() {
+      supply = Fleets.newStore(store, fleetSize, distribution, 1);
+      parallel = ParallelScan.create(scanThreads, 100000);
+      algo = new AlgoInterface(10, 30000, 10, SearchObserver.NONE, parallel);
+      queries = new Fleets(distribution, 2).points(QUERY_COUNT);
+   }
+
+   @Benchmark
+   public List<NearestSupplyInstance> closest(Cursor cursor) {
+      return GeoAlgorithms.getClosest(supply, EARTH_RADIUS, cursor.next(queries), 1,
+            Math.PI * EARTH_RADIUS, SupplyFilter.ANY, SearchObserver.NONE, parallel);
+   }
+
+   @Benchmark
+   public List<NearestSupplyInstance> closest10(Cursor cursor) {
+      return GeoAlgorithms.getClosest(supply, EARTH_RADIUS, cursor.next(queries), 10,
+            Math.PI * EARTH_RADIUS, SupplyFilter.ANY, SearchObserver.NONE, parallel);
+   }
+
+   @Benchmark
+   public List<SupplyInstance> within5Km(Cursor cursor) {
+      return GeoAlgorithms.findPlacesWithinDistance(supply, EARTH_RADIUS, cursor.next(queries), 5,
+            SupplyFilter.ANY, SearchObserver.NONE, parallel);
+   }
+
+   @Benchmark
+   public List<SupplyInstance> radiusSupply(Cursor cursor) {
+      return algo.getRadiusSupply(supply, cursor.next(queries));
+   }
+
+   public static void main(String[] args) throws RunnerException {
+      new Runner(new OptionsBuilder()
+            .include(GeoQueryBenchmark.class.getSimpleName())
+            .build()).run();
+   }
+}
@@ -0,0 +1,90 @@
+package uber.location_service.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uber.location_service.algo.AlgoInterface;
+import uber.location_service.algo.GeoAlgorithms;
+import uber.location_service.storage.SupplyStore;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.NearestSupplyInstance;
+import uber.location_service.structures.SupplyInstance;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries running while the fleet keeps moving - each group runs three query threads
+ * against one writer moving random drivers by up to ~100 m, the way the Kafka consumer
+ * does. Compare the query latencies with {@link GeoQueryBenchmark} for the cost of the
+ * concurrent updates.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class MixedWorkloadBenchmark {
+   private static final double EARTH_RADIUS = AlgoInterface.earthRadius;
+   private static final double STEP = Math.toRadians(0.001);
+
+   @Param({"10000", "1000000", "5000000"})
+   public int fleetSize;
+
+   @Param({"UNIFORM", "CITY"})
+   public Fleets.Distribution distribution;
+
+   @Param({"array", "map"})
+   public String store;
+
+   private SupplyStore supply;
+   private GeoPoint[] queries;
+
+   @State(Scope.Thread)
+   public static class ThreadState {
+      final Random rnd = new Random(Thread.currentThread().getId());
+      int next;
+   }
+
+   @Setup(Level.Trial)
+   public void setup() {
+      supply = Fleets.newStore(store, fleetSize, distribution, 1);
+      queries = new Fleets(distribution, 2).points(4096);
+   }
+
+   @Benchmark
+   @Group("mixed")
+   @GroupThreads(3)
+   public List<NearestSupplyInstance> closest10(ThreadState state) {
+      state.next = (state.next + 1) & (queries.length - 1);
+      return GeoAlgorithms.getClosest(supply, EARTH_RADIUS, queries[state.next], 10);
+   }
+
+   @Benchmark
+   @Group("mixed")
+   @GroupThreads(1)
+   public void update(ThreadState state) {
+      String id = Fleets.id(state.rnd.nextInt(fleetSize));
+      GeoPoint p = supply.getLocation(id);
+      double lat = Math.max(-Math.PI / 2, Math.min(Math.PI / 2, p.getLatitude() + (state.rnd.nextDouble() - 0.5) * STEP));
+      double lon = p.getLongitude() + (state.rnd.nextDouble() - 0.5) * STEP;
+      if (lon > Math.PI) lon -= 2 * Math.PI;
+      if (lon < -Math.PI) lon += 2 * Math.PI;
+      supply.update(id, lat, lon);
+   }
+
+   @Benchmark
+   @Group("mixedRadius")
+   @GroupThreads(3)
+   public List<SupplyInstance> within5Km(ThreadState state) {
+      state.next = (state.next + 1) & (queries.length - 1);
+      return GeoAlgorithms.findPlacesWithinDistance(supply, EARTH_RADIUS, queries[state.next], 5);
+   }
+
+   @Benchmark
+   @Group("mixedRadius")
+   @GroupThreads(1)
+   public void updateDuringRadius(ThreadState state) {
+      update(state);
+   }
+}
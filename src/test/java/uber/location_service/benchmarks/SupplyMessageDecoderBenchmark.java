@@ -0,0 +1,98 @@
+package uber.location_service.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import uber.location_service.ingestion.SupplyMessageDecoder;
+import uber.location_service.ingestion.SupplyRecordDecoder;
+import uber.location_service.structures.SupplyAttributes;
+import uber.location_service.structures.SupplyInstance;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kafka message decoding - the former ObjectMapper path against the byte level decoder
+ * and the binary records of the same positions.
+ * Run with -prof gc to compare the allocation rate per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SupplyMessageDecoderBenchmark {
+   private final ObjectMapper jsonMapper = new ObjectMapper();
+   private final SupplyMessageDecoder decoder = new SupplyMessageDecoder();
+   private final SupplyRecordDecoder recordDecoder = new SupplyRecordDecoder();
+   private byte[][] messages, records;
+   private int next;
+
+   @Setup
+   public void setup() {
+      Random rnd = new Random(1);
+      messages = new byte[1024][];
+      records = new byte[messages.length][];
+      for (int i = 0; i < messages.length; ++i) {
+         String id = UUID.randomUUID().toString();
+         double latitude = rnd.nextDouble() * 180 - 90, longitude = rnd.nextDouble() * 360 - 180;
+         messages[i] = String.format("{\"id\":\"%s\",\"location\":{\"latitude\":%.5f,\"longitude\":%.5f}}",
+               id, latitude, longitude).getBytes(StandardCharsets.UTF_8);
+         ByteBuffer buf = ByteBuffer.allocate(SupplyRecordDecoder.RECORD_SIZE);
+         SupplyRecordDecoder.encode(buf, id, latitude, longitude, SupplyAttributes.UNCHANGED, System.currentTimeMillis());
+         records[i] = buf.array();
+      }
+   }
+
+   private byte[] nextMessage() {
+      next = (next + 1) & (messages.length - 1);
+      return messages[next];
+   }
+
+   private byte[] nextRecord() {
+      next = (next + 1) & (records.length - 1);
+      return records[next];
+   }
+
+   @Benchmark
+   public void objectMapper(Blackhole bh) throws IOException {
+      String message = new String(nextMessage(), StandardCharsets.UTF_8);
+      SupplyInstance ins = jsonMapper.readValue(message, SupplyInstance.class);
+      bh.consume(ins.getId());
+      bh.consume(ins.getLocation().getLatitude());
+      bh.consume(ins.getLocation().getLongitude());
+   }
+
+   @Benchmark
+   public void streamingDecoder(Blackhole bh) {
+      decoder.decode(nextMessage(), (id, lat, lon, attributes, timestamp) -> {
+         bh.consume(id);
+         bh.consume(lat);
+         bh.consume(lon);
+      });
+   }
+
+   @Benchmark
+   public void binaryRecord(Blackhole bh) {
+      recordDecoder.decode(nextRecord(), (id, lat, lon, attributes, timestamp) -> {
+         bh.consume(id);
+         bh.consume(lat);
+         bh.consume(lon);
+      });
+   }
+
+   public static void main(String[] args) throws RunnerException {
+      new Runner(new OptionsBuilder()
+            .include(SupplyMessageDecoderBenchmark.class.getSimpleName())
+            .addProfiler("gc")
+            .build()).run();
+   }
+}
@@ -0,0 +1,118 @@
+package uber.location_service.cache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import uber.location_service.configuration.SupplyLocationProperties;
+import uber.location_service.services.SupplyLocationImpl;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.NearestSupplyInstance;
+import uber.location_service.structures.SupplyInstance;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryResultCacheTests {
+   private static GeoPoint point(double lat, double lon) {
+      return GeoPoint.fromRadians(Math.toRadians(lat), Math.toRadians(lon));
+   }
+
+   private static SupplyLocationProperties properties(String store, int minCandidates, int cacheEntries,
+                                                      double quantumDegrees) {
+      SupplyLocationProperties properties = new SupplyLocationProperties();
+      properties.setStore(store);
+      properties.getRadius().setMinCandidates(minCandidates);
+      properties.getCache().setMaxEntries(cacheEntries);
+      properties.getCache().setQuantumDegrees(quantumDegrees);
+      return properties;
+   }
+
+   private static double hits(MeterRegistry registry, String mode) {
+      return registry.counter("supply.cache.hits", "mode", mode).count();
+   }
+
+   private static Set<String> ids(List<SupplyInstance> list) {
+      return list.stream().map(SupplyInstance::getId).collect(Collectors.toSet());
+   }
+
+   @Test
+   void servesHotspotsUntilTheirCellsChange() {
+      MeterRegistry registry = new SimpleMeterRegistry();
+      SupplyLocationImpl impl = new SupplyLocationImpl(properties("array", 1, 100, 0.001), registry);
+      impl.updateSupply("a", Math.toRadians(50.001), Math.toRadians(10.001));
+      impl.updateSupply("b", Math.toRadians(50.010), Math.toRadians(10.010));
+      impl.updateSupply("far", Math.toRadians(-30), Math.toRadians(100));
+
+      List<NearestSupplyInstance> first = impl.getClosestSupply(point(50.0001, 10.0001), 1);
+      List<NearestSupplyInstance> second = impl.getClosestSupply(point(50.0002, 10.0002), 1);
+      assertEquals(1d, hits(registry, "closest"));
+      assertEquals("a", second.get(0).getId());
+      // the distance is to the requested location, not the snapped one
+      assertNotEquals(first.get(0).getDistance(), second.get(0).getDistance());
+
+      impl.updateSupply("far", Math.toRadians(-31), Math.toRadians(100));
+      impl.getClosestSupply(point(50.0001, 10.0001), 1);
+      assertEquals(2d, hits(registry, "closest"));
+
+      impl.updateSupply("c", Math.toRadians(50.0001), Math.toRadians(10.0001));
+      assertEquals("c", impl.getClosestSupply(point(50.0001, 10.0001), 1).get(0).getId());
+      assertEquals(2d, hits(registry, "closest"));
+
+      assertEquals(Set.of("a", "b", "c"), ids(impl.getRadiusSupply(point(50, 10))));
+      assertEquals(Set.of("a", "b", "c"), ids(impl.getRadiusSupply(point(50, 10))));
+      assertEquals(1d, hits(registry, "radius"));
+      impl.updateSupply("b", Math.toRadians(60), Math.toRadians(10));
+      assertEquals(Set.of("a", "c"), ids(impl.getRadiusSupply(point(50, 10))));
+   }
+
+   @Test
+   void dropsTheCellsLeftByMovesWithinAnIndexCell() {
+      for (String store : List.of("array", "epoch")) {
+         SupplyLocationProperties properties = properties(store, 1, 100, 0.001);
+         properties.getIndex().setCellSizeDegrees(0.1);
+         properties.getCache().setCellSizeDegrees(0.01);
+         SupplyLocationImpl impl = new SupplyLocationImpl(properties, new SimpleMeterRegistry());
+         impl.updateSupply("a", Math.toRadians(50.001), Math.toRadians(10.001));
+         impl.updateSupply("b", Math.toRadians(50.05), Math.toRadians(10.05));
+         impl.publishSupply();
+         assertEquals("a", impl.getClosestSupply(point(50.0001, 10.0001), 1).get(0).getId());
+
+         // the same index cell, another cache cell
+         impl.updateSupply("a", Math.toRadians(50.09), Math.toRadians(10.09));
+         impl.publishSupply();
+         assertEquals("b", impl.getClosestSupply(point(50.0001, 10.0001), 1).get(0).getId(), store);
+      }
+   }
+
+   @Test
+   void matchesUncachedQueriesUnderUpdates() {
+      MeterRegistry registry = new SimpleMeterRegistry();
+      SupplyLocationImpl cached = new SupplyLocationImpl(properties("map", 3, 16, 0.01), registry);
+      SupplyLocationImpl plain = new SupplyLocationImpl(properties("map", 3, 0, 0.01));
+
+      Random rnd = new Random(11);
+      for (int i = 0; i < 20_000; ++i) {
+         String id = "driver-" + rnd.nextInt(2_000);
+         double lat = Math.toRadians(40 + rnd.nextDouble()), lon = Math.toRadians(-74 + rnd.nextDouble());
+         cached.updateSupply(id, lat, lon);
+         plain.updateSupply(id, lat, lon);
+         if (i % 10 != 0) continue;
+
+         // a few hotspots, queried anywhere around them
+         GeoPoint q = point(40 + rnd.nextInt(4) * 0.25 + rnd.nextDouble() * 0.02,
+               -74 + rnd.nextInt(4) * 0.25 + rnd.nextDouble() * 0.02);
+         List<NearestSupplyInstance> expected = plain.getClosestSupply(q, 3), actual = cached.getClosestSupply(q, 3);
+         assertEquals(expected.size(), actual.size());
+         for (int j = 0; j < expected.size(); ++j) {
+            assertEquals(expected.get(j).getDistance(), actual.get(j).getDistance(), 1e-9);
+         }
+         assertEquals(ids(plain.getRadiusSupply(q)), ids(cached.getRadiusSupply(q)));
+      }
+      assertTrue(registry.counter("supply.cache.hits", "mode", "closest").count() > 0);
+      assertTrue(registry.counter("supply.cache.hits", "mode", "radius").count() > 0);
+   }
+}
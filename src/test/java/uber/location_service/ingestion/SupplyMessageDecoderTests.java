@@ -0,0 +1,104 @@
+package uber.location_service.ingestion;
+
+import org.junit.jupiter.api.Test;
+import uber.location_service.storage.UpdatePolicy;
+import uber.location_service.structures.SupplyAttributes;
+import uber.location_service.structures.SupplyAttributes.Status;
+import uber.location_service.structures.SupplyAttributes.VehicleClass;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SupplyMessageDecoderTests {
+   private final SupplyMessageDecoder decoder = new SupplyMessageDecoder();
+
+   private Object[] decode(String message) {
+      Object[] res = new Object[5];
+      boolean decoded = decoder.decode(message.getBytes(StandardCharsets.UTF_8), (id, lat, lon, attributes, timestamp) -> {
+         res[0] = id;
+         res[1] = Math.toDegrees(lat);
+         res[2] = Math.toDegrees(lon);
+         res[3] = attributes;
+         res[4] = timestamp;
+      });
+      return decoded ? res : null;
+   }
+
+   @Test
+   void decodesSupplyMessage() {
+      Object[] res = decode("{\"id\":\"fae12c26\",\"location\":{\"latitude\":64.96506,\"longitude\":-24.17207}}");
+      assertNotNull(res);
+      assertEquals("fae12c26", res[0]);
+      assertEquals(64.96506, (double) res[1], 1e-9);
+      assertEquals(-24.17207, (double) res[2], 1e-9);
+   }
+
+   @Test
+   void skipsUnknownFieldsInAnyOrder() {
+      Object[] res = decode("{\"location\":{\"accuracy\":{\"meters\":[5]},\"longitude\":\"30\",\"latitude\":50}," +
+            "\"vehicle_type\":\"sedan\",\"tags\":[1,{\"a\":2}],\"id\":\"x\"}");
+      assertNotNull(res);
+      assertEquals("x", res[0]);
+      assertEquals(50d, (double) res[1], 1e-9);
+      assertEquals(30d, (double) res[2], 1e-9);
+   }
+
+   @Test
+   void decodesOptionalTimestamp() {
+      assertEquals(UpdatePolicy.NO_TIMESTAMP, decode("{\"id\":\"x\",\"location\":{\"latitude\":1,\"longitude\":2}}")[4]);
+      assertEquals(1700000000123L,
+            decode("{\"id\":\"x\",\"timestamp\":1700000000123,\"location\":{\"latitude\":1,\"longitude\":2}}")[4]);
+      assertEquals(UpdatePolicy.NO_TIMESTAMP,
+            decode("{\"id\":\"x\",\"timestamp\":\"yesterday\",\"location\":{\"latitude\":1,\"longitude\":2}}")[4]);
+   }
+
+   @Test
+   void decodesAttributesSkippingUnknownNames() {
+      assertEquals(SupplyAttributes.UNCHANGED, decode("{\"id\":\"x\",\"location\":{\"latitude\":1,\"longitude\":2}}")[3]);
+      assertEquals(SupplyAttributes.UNCHANGED,
+            decode("{\"id\":\"x\",\"attributes\":null,\"location\":{\"latitude\":1,\"longitude\":2}}")[3]);
+
+      Object[] res = decode("{\"id\":\"x\",\"attributes\":{\"capacity\":6,\"status\":[\"available\",\"hover\",\"child-seat\"]," +
+            "\"vehicle_class\":\"xl\",\"color\":\"red\"},\"location\":{\"latitude\":1,\"longitude\":2}}");
+      assertNotNull(res);
+      assertEquals(SupplyAttributes.pack(VehicleClass.XL, Status.AVAILABLE.bit() | Status.CHILD_SEAT.bit(), 6), res[3]);
+
+      res = decode("{\"id\":\"x\",\"attributes\":{\"vehicle_class\":\"hovercraft\",\"capacity\":99}," +
+            "\"location\":{\"latitude\":1,\"longitude\":2}}");
+      assertEquals(SupplyAttributes.pack(VehicleClass.UNKNOWN, 0, SupplyAttributes.MAX_CAPACITY), res[3]);
+   }
+
+   @Test
+   void parsesNumbersAndEscapesLikeTheJdk() {
+      String[] numbers = {"0", "-0.5", "12.345678901234", "0.000001234", "1.2345678901234567", "1e1", "-2.5E-3"};
+      for (String n : numbers) {
+         Object[] res = decode("{\"id\":\"x\",\"location\":{\"latitude\":" + n + ",\"longitude\":0}}");
+         assertNotNull(res, n);
+         assertEquals(Math.toDegrees(Math.toRadians(Double.parseDouble(n))), (double) res[1], 0d, n);
+      }
+
+      Object[] res = decode("{\"id\":\"a\\\"b\\u0041\\\\\",\"location\":{\"latitude\":1,\"longitude\":2}}");
+      assertNotNull(res);
+      assertEquals("a\"bA\\", res[0]);
+   }
+
+   @Test
+   void rejectsIncompleteOrMalformedMessages() {
+      assertNull(decode("{\"id\":\"x\",\"location\":{\"latitude\":50}}"));
+      assertNull(decode("{\"location\":{\"latitude\":50,\"longitude\":30}}"));
+      assertNull(decode("{\"id\":\"x\",\"location\":{\"latitude\":{},\"longitude\":30}}"));
+      assertNull(decode("{\"id\":\"x\",\"location\":"));
+      assertNull(decode("[]"));
+      assertNull(decode("{\"id\":\""));
+      assertNull(decode("{\""));
+   }
+
+   @Test
+   void staysWithinTheMessageSlice() {
+      byte[] buf = "{\"id\":\"x\",\"location\":{\"latitude\":1,\"longitude\":2}}".getBytes(StandardCharsets.UTF_8);
+      // cut right after the opening quote of the id, the rest of the buffer must not be read
+      assertFalse(decoder.decode(buf, 0, 7, (id, lat, lon, attributes, timestamp) -> fail("decoded " + id)));
+      assertTrue(decoder.decode(buf, 0, buf.length, (id, lat, lon, attributes, timestamp) -> assertEquals("x", id)));
+   }
+}
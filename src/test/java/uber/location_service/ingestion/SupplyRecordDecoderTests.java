@@ -0,0 +1,97 @@
+package uber.location_service.ingestion;
+
+import org.junit.jupiter.api.Test;
+import uber.location_service.structures.SupplyAttributes;
+import uber.location_service.structures.SupplyAttributes.Status;
+import uber.location_service.structures.SupplyAttributes.VehicleClass;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SupplyRecordDecoderTests {
+   private final SupplyRecordDecoder decoder = new SupplyRecordDecoder();
+
+   private static ByteBuffer records(ByteBuffer buf, Object[]... records) {
+      for (Object[] r : records) {
+         SupplyRecordDecoder.encode(buf, (String) r[0], (double) r[1], (double) r[2], (int) r[3], (long) r[4]);
+      }
+      return buf.flip();
+   }
+
+   private static byte[] message(Object[]... records) {
+      ByteBuffer buf = records(ByteBuffer.allocate(records.length * SupplyRecordDecoder.RECORD_SIZE), records);
+      return buf.array();
+   }
+
+   private static SupplyMessageDecoder.Sink collect(List<Object[]> res) {
+      return (id, lat, lon, attributes, timestamp) ->
+            res.add(new Object[]{id, Math.toDegrees(lat), Math.toDegrees(lon), attributes, timestamp});
+   }
+
+   @Test
+   void decodesRecordsFromArraysAndDirectBuffers() {
+      int xl = SupplyAttributes.pack(VehicleClass.XL, Status.AVAILABLE.bit(), 6);
+      Object[] a = {"fae12c26", 64.96506, -24.17207, xl, 1_700_000_000_123L};
+      Object[] b = {"driver-7", -90d, 180d, SupplyAttributes.UNCHANGED, 0L};
+
+      byte[] message = message(a, b);
+      assertTrue(SupplyRecordDecoder.isRecord(message));
+      List<Object[]> fromArray = new ArrayList<>();
+      assertTrue(decoder.decode(message, collect(fromArray)));
+
+      ByteBuffer direct = records(ByteBuffer.allocateDirect(3 * SupplyRecordDecoder.RECORD_SIZE), a, b);
+      List<Object[]> fromBuffer = new ArrayList<>();
+      while (direct.hasRemaining()) assertTrue(decoder.decode(direct, collect(fromBuffer)));
+
+      for (List<Object[]> res : List.of(fromArray, fromBuffer)) {
+         assertEquals(2, res.size());
+         for (int i = 0; i < 2; ++i) {
+            Object[] expected = i == 0 ? a : b, actual = res.get(i);
+            assertEquals(expected[0], actual[0]);
+            assertEquals((double) expected[1], (double) actual[1], 1e-7);
+            assertEquals((double) expected[2], (double) actual[2], 1e-7);
+            assertEquals(expected[3], actual[3]);
+            assertEquals(expected[4], actual[4]);
+         }
+      }
+      // the ids seen before are interned
+      assertSame(fromArray.get(0)[0], fromBuffer.get(0)[0]);
+   }
+
+   @Test
+   void rejectsMalformedMessagesWithoutCallingSink() {
+      Object[] valid = {"a", 1d, 2d, 0, 1L};
+      byte[] message = message(valid, valid);
+      List<Object[]> res = new ArrayList<>();
+
+      assertFalse(decoder.decode(new byte[0], collect(res)));
+      assertFalse(decoder.decode(Arrays.copyOf(message, message.length - 1), collect(res)));
+
+      byte[] version = message.clone();
+      version[SupplyRecordDecoder.RECORD_SIZE] = 1;
+      assertFalse(decoder.decode(version, collect(res)));
+
+      byte[] idLength = message.clone();
+      idLength[SupplyRecordDecoder.RECORD_SIZE + 1] = SupplyRecordDecoder.MAX_ID_LENGTH + 1;
+      assertFalse(decoder.decode(idLength, collect(res)));
+
+      byte[] latitude = message.clone();
+      ByteBuffer.wrap(latitude).putInt(SupplyRecordDecoder.RECORD_SIZE + 4, 900_000_001);
+      assertFalse(decoder.decode(latitude, collect(res)));
+
+      // unknown vehicle classes, unused flag bits and negative values other than unchanged
+      for (int attributes : new int[]{6, 1 << 11, 1 << 16, -2}) {
+         byte[] packed = message.clone();
+         ByteBuffer.wrap(packed).putInt(SupplyRecordDecoder.RECORD_SIZE + 12, attributes);
+         assertFalse(decoder.decode(packed, collect(res)));
+      }
+      assertTrue(res.isEmpty());
+
+      assertFalse(SupplyRecordDecoder.isRecord("{\"id\":\"a\"}".getBytes()));
+      assertThrows(IllegalArgumentException.class, () -> message(new Object[]{"x".repeat(41), 1d, 2d, 0, 1L}));
+   }
+}
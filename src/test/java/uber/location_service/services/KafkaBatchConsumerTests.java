@@ -0,0 +1,115 @@
+package uber.location_service.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.Test;
+import uber.location_service.configuration.SupplyLocationProperties;
+import uber.location_service.ingestion.ConsumedOffsets;
+import uber.location_service.ingestion.SupplyRecordDecoder;
+import uber.location_service.structures.GeoPoint;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class KafkaBatchConsumerTests {
+   private static SupplyLocationImpl newImpl(String store) {
+      SupplyLocationProperties properties = new SupplyLocationProperties();
+      properties.setStore(store);
+      return new SupplyLocationImpl(properties);
+   }
+
+   private static ConsumerRecord<String, byte[]> record(int partition, long offset, String message) {
+      return new ConsumerRecord<>("supply-location", partition, offset, null, message.getBytes(StandardCharsets.UTF_8));
+   }
+
+   private static ConsumerRecord<String, byte[]> message(int partition, long offset, String id, double lat, double lon) {
+      return record(partition, offset,
+            String.format("{\"id\":\"%s\",\"location\":{\"latitude\":%s,\"longitude\":%s}}", id, lat, lon));
+   }
+
+   @Test
+   void batchKeepsLatestPositionPerId() {
+      SupplyLocationImpl impl = newImpl("array");
+      MeterRegistry registry = new SimpleMeterRegistry();
+      ConsumedOffsets offsets = new ConsumedOffsets();
+      KafkaBatchConsumer consumer = new KafkaBatchConsumer(impl, offsets, registry);
+
+      consumer.consume(List.of(
+            message(0, 7, "a", 10d, 10d),
+            message(1, 3, "b", 20d, 20d),
+            message(0, 8, "a", 11d, 11d),
+            record(1, 4, "{not json"),
+            message(0, 9, "a", 12d, 12d)));
+
+      GeoPoint a = impl.getSupplyLocation("a");
+      assertEquals(12d, a.getLatitudeDegrees(), 1e-9);
+      assertEquals(12d, a.getLongitudeDegrees(), 1e-9);
+      assertEquals(5d, registry.counter("supply.ingest.received").count());
+      assertEquals(2d, registry.counter("supply.ingest.coalesced").count());
+      assertEquals(1d, registry.counter("supply.ingest.rejected").count());
+      assertEquals(2d, registry.counter("supply.ingest.applied").count());
+      assertEquals(Map.of(new TopicPartition("supply-location", 0), 10L,
+            new TopicPartition("supply-location", 1), 5L), offsets.current());
+   }
+
+   @Test
+   void batchKeepsLatestTimestampAcrossPartitions() {
+      SupplyLocationImpl impl = newImpl("map");
+      KafkaBatchConsumer consumer = new KafkaBatchConsumer(impl, new ConsumedOffsets(), new SimpleMeterRegistry());
+
+      // "a" moved to the region of partition 1, the older records of partition 0 come later
+      consumer.consume(List.of(
+            timestamped(1, 1, 2000L, "{\"id\":\"a\",\"location\":{\"latitude\":12,\"longitude\":12}}"),
+            timestamped(0, 1, 1000L, "{\"id\":\"a\",\"location\":{\"latitude\":10,\"longitude\":10}}"),
+            record(0, 2, "{\"id\":\"a\",\"location\":{\"latitude\":11,\"longitude\":11},\"timestamp\":1500}")));
+
+      assertEquals(12d, impl.getSupplyLocation("a").getLatitudeDegrees(), 1e-9);
+   }
+
+   private static ConsumerRecord<String, byte[]> timestamped(int partition, long offset, long timestamp, String message) {
+      byte[] value = message.getBytes(StandardCharsets.UTF_8);
+      return new ConsumerRecord<>("supply-location", partition, offset, timestamp, TimestampType.CREATE_TIME,
+            0L, -1, value.length, null, value);
+   }
+
+   @Test
+   void singleRecordsFallBackToTheRecordTimestampToo() {
+      SupplyLocationImpl impl = newImpl("map");
+      KafkaConsumer consumer = new KafkaConsumer(impl, new ConsumedOffsets(), new SimpleMeterRegistry());
+
+      consumer.consume(timestamped(1, 1, 2000L, "{\"id\":\"a\",\"location\":{\"latitude\":12,\"longitude\":12}}"));
+      consumer.consume(timestamped(0, 1, 1000L, "{\"id\":\"a\",\"location\":{\"latitude\":10,\"longitude\":10}}"));
+      assertEquals(12d, impl.getSupplyLocation("a").getLatitudeDegrees(), 1e-9);
+
+      consumer.consume(timestamped(0, 2, 1000L,
+            "{\"id\":\"a\",\"location\":{\"latitude\":11,\"longitude\":11},\"timestamp\":2500}"));
+      assertEquals(11d, impl.getSupplyLocation("a").getLatitudeDegrees(), 1e-9);
+   }
+
+   @Test
+   void batchTakesBinaryRecordsNextToJson() {
+      SupplyLocationImpl impl = newImpl("map");
+      MeterRegistry registry = new SimpleMeterRegistry();
+      KafkaBatchConsumer consumer = new KafkaBatchConsumer(impl, new ConsumedOffsets(), registry);
+
+      ByteBuffer buf = ByteBuffer.allocate(2 * SupplyRecordDecoder.RECORD_SIZE);
+      SupplyRecordDecoder.encode(buf, "a", 10d, 10d, 0, 1L);
+      SupplyRecordDecoder.encode(buf, "b", 20d, 20d, 0, 1L);
+      consumer.consume(List.of(
+            new ConsumerRecord<>("supply-location", 0, 1, null, buf.array()),
+            message(0, 2, "a", 11d, 11d),
+            new ConsumerRecord<>("supply-location", 0, 3, null, new byte[]{SupplyRecordDecoder.VERSION, 1})));
+
+      assertEquals(11d, impl.getSupplyLocation("a").getLatitudeDegrees(), 1e-9);
+      assertEquals(20d, impl.getSupplyLocation("b").getLongitudeDegrees(), 1e-7);
+      assertEquals(1d, registry.counter("supply.ingest.rejected").count());
+      assertEquals(2d, registry.counter("supply.ingest.applied").count());
+   }
+}
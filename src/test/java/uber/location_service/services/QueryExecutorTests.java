@@ -0,0 +1,70 @@
+package uber.location_service.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryExecutorTests {
+   @SuppressWarnings("unchecked")
+   private static ResponseEntity<Object> await(DeferredResult<ResponseEntity<Object>> output) throws InterruptedException {
+      for (int i = 0; i < 500 && !output.hasResult(); ++i) Thread.sleep(10);
+      return (ResponseEntity<Object>) output.getResult();
+   }
+
+   @Test
+   void shedsQueriesBeyondTheQueue() throws InterruptedException {
+      MeterRegistry registry = new SimpleMeterRegistry();
+      QueryExecutor executor = new QueryExecutor(1, 1, 5000, 3, false, registry);
+      CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+      try {
+         DeferredResult<ResponseEntity<Object>> running = executor.submit("test", () -> {
+            started.countDown();
+            try {
+               release.await();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+            return "first";
+         });
+         assertTrue(started.await(5, TimeUnit.SECONDS));
+
+         DeferredResult<ResponseEntity<Object>> queued = executor.submit("test", () -> "second");
+         DeferredResult<ResponseEntity<Object>> shed = executor.submit("test", () -> "third");
+
+         ResponseEntity<Object> rejected = await(shed);
+         assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejected.getStatusCode());
+         assertEquals("3", rejected.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+         assertEquals(1d, registry.counter("supply.query.rejected", "endpoint", "test").count());
+         assertEquals(1d, registry.get("supply.query.queue.depth").gauge().value());
+
+         release.countDown();
+         assertEquals("first", await(running).getBody());
+         assertEquals("second", await(queued).getBody());
+         assertEquals(HttpStatus.OK, await(queued).getStatusCode());
+         assertEquals(2, registry.get("supply.query.wait").tag("endpoint", "test").timer().count());
+         assertEquals(2, registry.get("supply.query.compute").tag("endpoint", "test").timer().count());
+      } finally {
+         release.countDown();
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   void virtualThreadModeFallsBackOrRuns() throws InterruptedException {
+      QueryExecutor executor = new QueryExecutor(1, 1, 5000, 1, true, new SimpleMeterRegistry());
+      try {
+         assertEquals(42, await(executor.submit("test", () -> 42)).getBody());
+      } finally {
+         executor.shutdown();
+      }
+   }
+}
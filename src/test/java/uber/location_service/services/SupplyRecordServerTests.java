@@ -0,0 +1,58 @@
+package uber.location_service.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import uber.location_service.configuration.SupplyLocationProperties;
+import uber.location_service.ingestion.SupplyRecordDecoder;
+import uber.location_service.structures.GeoPoint;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SupplyRecordServerTests {
+   private static SupplyLocationImpl newImpl(String store) {
+      SupplyLocationProperties properties = new SupplyLocationProperties();
+      properties.setStore(store);
+      return new SupplyLocationImpl(properties);
+   }
+
+   private static void awaitCount(MeterRegistry registry, String name, double expected) throws InterruptedException {
+      for (int i = 0; i < 500 && registry.counter(name).count() < expected; ++i) Thread.sleep(10);
+      assertEquals(expected, registry.counter(name).count());
+   }
+
+   @Test
+   void appliesRecordsSplitAcrossWrites() throws Exception {
+      SupplyLocationImpl impl = newImpl("array");
+      MeterRegistry registry = new SimpleMeterRegistry();
+      SupplyRecordServer server = new SupplyRecordServer(impl, registry, 0, 4 * SupplyRecordDecoder.RECORD_SIZE);
+      try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+         ByteBuffer buf = ByteBuffer.allocate(10 * SupplyRecordDecoder.RECORD_SIZE);
+         for (int i = 0; i < 10; ++i) SupplyRecordDecoder.encode(buf, "d" + i % 3, i, -i, 0, System.currentTimeMillis());
+         buf.flip();
+
+         // a record cut in the middle waits for its rest
+         channel.write(buf.slice().limit(SupplyRecordDecoder.RECORD_SIZE + 7));
+         awaitCount(registry, "supply.ingest.received", 1);
+         buf.position(SupplyRecordDecoder.RECORD_SIZE + 7);
+         while (buf.hasRemaining()) channel.write(buf);
+         awaitCount(registry, "supply.ingest.received", 10);
+
+         GeoPoint last = impl.getSupplyLocation("d0");
+         assertEquals(9d, last.getLatitudeDegrees(), 1e-7);
+         assertEquals(-9d, last.getLongitudeDegrees(), 1e-7);
+         assertEquals(3, impl.getSupplyCount());
+
+         // a malformed record closes the connection
+         channel.write(ByteBuffer.allocate(SupplyRecordDecoder.RECORD_SIZE));
+         awaitCount(registry, "supply.ingest.rejected", 1);
+         assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+      } finally {
+         server.shutdown();
+      }
+   }
+}
@@ -0,0 +1,238 @@
+package uber.location_service.sharding;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerPartitionAssignor.Subscription;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import uber.location_service.configuration.SupplyLocationProperties;
+import uber.location_service.ingestion.ConsumedOffsets;
+import uber.location_service.services.KafkaBatchConsumer;
+import uber.location_service.services.SupplyLocationImpl;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.NearestSupplyInstance;
+import uber.location_service.structures.SupplyAttributes;
+import uber.location_service.structures.SupplyFilter;
+import uber.location_service.structures.SupplyInstance;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs a three shard deployment in one JVM - a mock producer with the shard partitioner
+ * stands in for the Kafka topic, and every shard consumes the partitions it's assigned.
+ */
+class ShardingTests {
+   private static final String TOPIC = "supply-location";
+   private static final int SHARDS = 3, PARTITIONS = 6;
+   private static final double REGION_DEGREES = 10;
+
+   private static SupplyLocationImpl newNode() {
+      SupplyLocationProperties properties = new SupplyLocationProperties();
+      properties.setStore("array");
+      properties.getRadius().setMinCandidates(5);
+      return new SupplyLocationImpl(properties);
+   }
+
+   private static double[] randomLocation(Random rnd) {
+      double[][] cities = {{40.7, -74.0}, {51.5, -0.1}, {35.7, 139.7}, {-33.9, 151.2}, {50.0, 9.9}};
+      switch (rnd.nextInt(4)) {
+         case 0: // dense cities, one of them on a region border
+            double[] city = cities[rnd.nextInt(cities.length)];
+            return new double[] {city[0] + rnd.nextGaussian() * 0.5, city[1] + rnd.nextGaussian() * 0.5};
+         case 1: // around the antimeridian
+            double lon = 180 - rnd.nextDouble() * 2;
+            return new double[] {rnd.nextDouble() * 120 - 60, rnd.nextBoolean() ? lon : -lon};
+         case 2: // polar caps
+            double lat = 85 + rnd.nextDouble() * 5;
+            return new double[] {rnd.nextBoolean() ? lat : -lat, rnd.nextDouble() * 360 - 180};
+         default:
+            return new double[] {rnd.nextDouble() * 180 - 90, rnd.nextDouble() * 360 - 180};
+      }
+   }
+
+   private static Cluster cluster() {
+      Node node = new Node(0, "localhost", 9092);
+      List<PartitionInfo> partitions = new ArrayList<>();
+      for (int p = 0; p < PARTITIONS; ++p) {
+         partitions.add(new PartitionInfo(TOPIC, p, node, new Node[] {node}, new Node[] {node}));
+      }
+      return new Cluster("test", List.of(node), partitions, Set.of(), Set.of());
+   }
+
+   @Test
+   void shardsHoldTheirRegionsAndAnswerLikeASingleNode() throws Exception {
+      ShardPartitioner partitioner = new ShardPartitioner();
+      partitioner.configure(Map.of(
+            ShardPartitioner.SHARD_COUNT_CONFIG, SHARDS, ShardPartitioner.REGION_DEGREES_CONFIG, REGION_DEGREES));
+      MockProducer<String, byte[]> producer = new MockProducer<>(
+            cluster(), true, partitioner, new StringSerializer(), new ByteArraySerializer());
+
+      Random rnd = new Random(7);
+      List<ConsumerRecord<String, byte[]>> all = new ArrayList<>();
+      List<List<ConsumerRecord<String, byte[]>>> perShard = new ArrayList<>();
+      for (int s = 0; s < SHARDS; ++s) perShard.add(new ArrayList<>());
+      long[] offsets = new long[PARTITIONS];
+      for (int i = 0; i < 20_000; ++i) {
+         double[] loc = randomLocation(rnd);
+         String id = "driver-" + i;
+         byte[] message = String.format("{\"id\":\"%s\",\"location\":{\"latitude\":%s,\"longitude\":%s}}",
+               id, loc[0], loc[1]).getBytes(StandardCharsets.UTF_8);
+
+         Future<RecordMetadata> sent = producer.send(new ProducerRecord<>(TOPIC, id, message));
+         int partition = sent.get().partition();
+         ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(TOPIC, partition, offsets[partition]++, id, message);
+         perShard.get(partition % SHARDS).add(record);
+         all.add(record);
+      }
+
+      ShardMap shardMap = new ShardMap(SHARDS, REGION_DEGREES);
+      SupplyLocationImpl reference = newNode();
+      new KafkaBatchConsumer(reference, new ConsumedOffsets(), new SimpleMeterRegistry()).consume(all);
+
+      List<ShardClient> clients = new ArrayList<>();
+      for (int s = 0; s < SHARDS; ++s) {
+         SupplyLocationImpl node = newNode();
+         new KafkaBatchConsumer(node, new ConsumedOffsets(), new SimpleMeterRegistry()).consume(perShard.get(s));
+         for (ConsumerRecord<String, byte[]> record : perShard.get(s)) {
+            assertEquals(s, shardMap.shardOf(node.getSupplyLocation(record.key())));
+         }
+         assertTrue(node.getSupplyCount() > 0);
+         clients.add(new LocalShardClient(node));
+      }
+      assertEquals(reference.getSupplyCount(), perShard.stream().mapToInt(List::size).sum());
+
+      ExecutorService fanOut = Executors.newFixedThreadPool(SHARDS);
+      ScatterGatherService service = new ScatterGatherService(shardMap, clients, 0, reference.getAlgoInterface(), fanOut);
+      try {
+         for (int i = 0; i < 300; ++i) {
+            double[] loc = randomLocation(rnd);
+            GeoPoint location = GeoPoint.fromRadians(Math.toRadians(loc[0]), Math.toRadians(loc[1]));
+
+            for (int k : new int[] {1, 5}) {
+               List<NearestSupplyInstance> expected = reference.getClosestSupply(location, k);
+               List<NearestSupplyInstance> actual = service.getClosestSupply(location, k);
+               assertEquals(expected.size(), actual.size());
+               for (int j = 0; j < expected.size(); ++j) {
+                  assertEquals(expected.get(j).getDistance(), actual.get(j).getDistance(), 1e-6);
+               }
+            }
+
+            assertEquals(ids(reference.getRadiusSupply(location)), ids(service.getRadiusSupply(location)));
+         }
+      } finally {
+         service.shutdown();
+      }
+   }
+
+   @Test
+   void mergeKeepsTheCopyWithTheLatestTimestamp() {
+      ShardMap shardMap = new ShardMap(SHARDS, REGION_DEGREES);
+      // a region border with different shards on its sides
+      GeoPoint before = null, after = null;
+      for (int lon = -170; before == null; lon += 10) {
+         GeoPoint west = GeoPoint.fromDegrees(45, lon - 0.05), east = GeoPoint.fromDegrees(45, lon + 0.05);
+         if (shardMap.shardOf(west) != shardMap.shardOf(east)) {
+            before = west;
+            after = east;
+         }
+      }
+
+      List<SupplyLocationImpl> nodes = new ArrayList<>();
+      List<ShardClient> clients = new ArrayList<>();
+      for (int s = 0; s < SHARDS; ++s) {
+         nodes.add(newNode());
+         clients.add(new LocalShardClient(nodes.get(s)));
+      }
+      // "a" crossed the border, its old copy stays until it expires - and reached its shard late
+      nodes.get(shardMap.shardOf(after)).updateSupply("a", after.getLatitude(), after.getLongitude(),
+            SupplyAttributes.UNCHANGED, 2000L);
+      nodes.get(shardMap.shardOf(before)).updateSupply("a", before.getLatitude(), before.getLongitude(),
+            SupplyAttributes.UNCHANGED, 1000L);
+
+      ScatterGatherService service = new ScatterGatherService(shardMap, clients, -1,
+            nodes.get(0).getAlgoInterface(), Executors.newFixedThreadPool(SHARDS));
+      try {
+         List<SupplyInstance> res = service.getRadiusSupply(before);
+         assertEquals(1, res.size());
+         assertEquals(after, res.get(0).getLocation());
+      } finally {
+         service.shutdown();
+      }
+   }
+
+   @Test
+   void closestAsksAgainWhenTheCopiesLeaveFewerThanK() {
+      ShardMap shardMap = new ShardMap(SHARDS, REGION_DEGREES);
+      GeoPoint location = GeoPoint.fromDegrees(45, 5);
+      // a shard holding two copies of "a", as a node catching up could answer
+      List<NearestSupplyInstance> held = List.of(
+            new NearestSupplyInstance("a", location, 0d, 1000L),
+            new NearestSupplyInstance("a", location, 1d, 2000L),
+            new NearestSupplyInstance("b", location, 50d, 1000L));
+      ShardClient empty = new ShardClient() {
+         @Override
+         public List<NearestSupplyInstance> nearest(GeoPoint location, int k, double maxDistance, SupplyFilter filter) {
+            return List.of();
+         }
+
+         @Override
+         public List<SupplyInstance> within(GeoPoint location, double distance, SupplyFilter filter) {
+            return List.of();
+         }
+      };
+      ShardClient holder = new ShardClient() {
+         @Override
+         public List<NearestSupplyInstance> nearest(GeoPoint location, int k, double maxDistance, SupplyFilter filter) {
+            return held.stream().filter(ins -> ins.getDistance() <= maxDistance).limit(k).collect(Collectors.toList());
+         }
+
+         @Override
+         public List<SupplyInstance> within(GeoPoint location, double distance, SupplyFilter filter) {
+            return List.of();
+         }
+      };
+      List<ShardClient> clients = new ArrayList<>(List.of(empty, empty, empty));
+      clients.set(shardMap.shardOf(location), holder);
+
+      ScatterGatherService service = new ScatterGatherService(shardMap, clients, -1,
+            newNode().getAlgoInterface(), Executors.newFixedThreadPool(SHARDS));
+      try {
+         List<NearestSupplyInstance> res = service.getClosestSupply(location, 2);
+         assertEquals(List.of("a", "b"), res.stream().map(SupplyInstance::getId).collect(Collectors.toList()));
+         assertEquals(2000L, res.get(0).getTimestamp());
+      } finally {
+         service.shutdown();
+      }
+   }
+
+   private static Set<String> ids(List<SupplyInstance> list) {
+      return list.stream().map(SupplyInstance::getId).collect(Collectors.toSet());
+   }
+
+   @Test
+   void assignorGivesMembersOnlyTheirShardPartitions() {
+      ShardAssignor assignor = new ShardAssignor();
+      assignor.configure(Map.of(ShardAssignor.SHARD_ID_CONFIG, 1, ShardPartitioner.SHARD_COUNT_CONFIG, SHARDS));
+
+      Map<String, List<TopicPartition>> assignment = assignor.assign(Map.of(TOPIC, 9), Map.of(
+            "b", new Subscription(List.of(TOPIC)),
+            "a", new Subscription(List.of(TOPIC))));
+      assertEquals(List.of(new TopicPartition(TOPIC, 1), new TopicPartition(TOPIC, 7)), assignment.get("a"));
+      assertEquals(List.of(new TopicPartition(TOPIC, 4)), assignment.get("b"));
+   }
+}
@@ -0,0 +1,94 @@
+package uber.location_service.snapshot;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uber.location_service.algo.GeoAlgorithms;
+import uber.location_service.algo.GeoGrid;
+import uber.location_service.algo.ParallelScan;
+import uber.location_service.algo.SearchObserver;
+import uber.location_service.storage.ArraySupplyStore;
+import uber.location_service.storage.MapSupplyStore;
+import uber.location_service.storage.SupplyStore;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyAttributes;
+import uber.location_service.structures.SupplyFilter;
+import uber.location_service.structures.SupplyInstance;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SupplySnapshotTests {
+   private static Set<String> withinFilter(SupplyStore store, SupplyFilter filter) {
+      return GeoAlgorithms.findPlacesWithinDistance(store, 6371.01, GeoPoint.fromDegrees(0, 0), Math.PI * 6371.01,
+                  filter, SearchObserver.NONE, ParallelScan.SEQUENTIAL)
+            .stream().map(SupplyInstance::getId).collect(Collectors.toSet());
+   }
+
+   @Test
+   void restoreMatchesLiveState(@TempDir Path dir) throws IOException {
+      Random rnd = new Random(13);
+      GeoGrid grid = new GeoGrid(0.5);
+      SupplyStore live = new ArraySupplyStore(grid, 16);
+
+      // the whole world including the poles and the 180 meridian, with moves and removals
+      for (int i = 0; i < 100000; ++i) {
+         String id = "driver-é-" + rnd.nextInt(20000);
+         if (rnd.nextInt(20) == 0) {
+            live.remove(id);
+         } else {
+            live.update(id, Math.asin(2 * rnd.nextDouble() - 1), (2 * rnd.nextDouble() - 1) * Math.PI,
+                  SupplyAttributes.pack(SupplyAttributes.VehicleClass.XL, 0, rnd.nextInt(8)));
+         }
+      }
+      live.update("north-pole", Math.PI / 2, Math.PI);
+      live.update("south-pole", -Math.PI / 2, -Math.PI);
+
+      Map<TopicPartition, Long> offsets = Map.of(
+            new TopicPartition("supply-location", 0), 51234L,
+            new TopicPartition("supply-location", 1), 7L);
+      Path path = dir.resolve("snapshot.bin");
+      assertEquals(live.size(), SupplySnapshot.write(path, live, offsets));
+      assertFalse(Files.exists(dir.resolve("snapshot.bin.tmp")));
+
+      for (SupplyStore restored : new SupplyStore[]{new MapSupplyStore(grid), new ArraySupplyStore(grid, 16)}) {
+         assertEquals(offsets, SupplySnapshot.read(path, restored::updateAll));
+         assertEquals(live.size(), restored.size());
+         for (int i = 0; i < 20000; ++i) {
+            String id = "driver-é-" + i;
+            assertEquals(live.getLocation(id), restored.getLocation(id), id);
+         }
+         assertEquals(live.getLocation("north-pole"), restored.getLocation("north-pole"));
+         assertEquals(live.getLocation("south-pole"), restored.getLocation("south-pole"));
+
+         // the attributes are restored too
+         SupplyFilter filter = SupplyFilter.of(List.of(SupplyAttributes.VehicleClass.XL), null, 5);
+         Set<String> expected = withinFilter(live, filter);
+         assertFalse(expected.isEmpty());
+         assertEquals(expected, withinFilter(restored, filter));
+      }
+   }
+
+   @Test
+   void rejectsForeignAndTruncatedFiles(@TempDir Path dir) throws IOException {
+      SupplyStore live = new MapSupplyStore(new GeoGrid(1));
+      live.update("a", 0.1, 0.2);
+      Path path = dir.resolve("snapshot.bin");
+      SupplySnapshot.write(path, live, Map.of());
+
+      byte[] bytes = Files.readAllBytes(path);
+      Files.write(path, java.util.Arrays.copyOf(bytes, bytes.length - 3));
+      assertThrows(IOException.class, () -> SupplySnapshot.read(path, batch -> {}));
+
+      Files.write(path, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+      assertThrows(IOException.class, () -> SupplySnapshot.read(path, batch -> {}));
+   }
+}
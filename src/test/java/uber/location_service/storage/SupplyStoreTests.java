@@ -0,0 +1,417 @@
+package uber.location_service.storage;
+
+import org.junit.jupiter.api.Test;
+import uber.location_service.algo.GeoAlgorithms;
+import uber.location_service.algo.GeoGrid;
+import uber.location_service.algo.ParallelScan;
+import uber.location_service.algo.SearchObserver;
+import uber.location_service.structures.DensityCell;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.NearestSupplyInstance;
+import uber.location_service.structures.SupplyAttributes;
+import uber.location_service.structures.SupplyAttributes.Status;
+import uber.location_service.structures.SupplyAttributes.VehicleClass;
+import uber.location_service.structures.SupplyFilter;
+import uber.location_service.structures.SupplyInstance;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SupplyStoreTests {
+   private static final double earthRadius = 6371.01;
+
+   private static GeoPoint randomPoint(Random rnd, double lat, double lon, double spread) {
+      double pLat = Math.max(-90d, Math.min(90d, lat + (rnd.nextDouble() - 0.5) * spread));
+      double pLon = lon + (rnd.nextDouble() - 0.5) * spread;
+      if (pLon > 180d) pLon -= 360d;
+      if (pLon < -180d) pLon += 360d;
+      return GeoPoint.fromRadians(Math.toRadians(pLat), Math.toRadians(pLon));
+   }
+
+   private static Set<String> ids(List<? extends SupplyInstance> list) {
+      return list.stream().map(SupplyInstance::getId).collect(Collectors.toSet());
+   }
+
+   @Test
+   void arrayStoreMatchesMapStore() {
+      Random rnd = new Random(3);
+      GeoGrid grid = new GeoGrid(0.2);
+      SupplyStore mapStore = new MapSupplyStore(grid);
+      SupplyStore arrayStore = new ArraySupplyStore(grid, 16);
+
+      // inserts, moves within and across cells, removals and re-inserts into freed slots
+      for (int i = 0; i < 50000; ++i) {
+         String id = "driver-" + rnd.nextInt(3000);
+         if (rnd.nextInt(10) == 0) {
+            assertEquals(mapStore.remove(id), arrayStore.remove(id));
+         } else {
+            GeoPoint p = randomPoint(rnd, 50d, 30d, 3d);
+            mapStore.update(new SupplyInstance(id, p));
+            arrayStore.update(new SupplyInstance(id, p));
+         }
+      }
+      assertEquals(mapStore.size(), arrayStore.size());
+
+      for (int i = 0; i < 3000; ++i) {
+         assertEquals(mapStore.getLocation("driver-" + i), arrayStore.getLocation("driver-" + i));
+      }
+
+      ParallelScan parallel = ParallelScan.create(3, 50);
+      for (int i = 0; i < 20; ++i) {
+         GeoPoint q = randomPoint(rnd, 50d, 30d, 4d);
+         assertEquals(
+               ids(GeoAlgorithms.findPlacesWithinDistance(mapStore, earthRadius, q, 30d)),
+               ids(GeoAlgorithms.findPlacesWithinDistance(arrayStore, earthRadius, q, 30d)));
+         assertEquals(
+               ids(GeoAlgorithms.findPlacesWithinDistance(mapStore, earthRadius, q, 30d)),
+               ids(GeoAlgorithms.findPlacesWithinDistance(arrayStore, earthRadius, q, 30d, SupplyFilter.ANY, SearchObserver.NONE, parallel)));
+         assertEquals(
+               GeoAlgorithms.getClosest(mapStore, earthRadius, q, 10).stream()
+                     .map(NearestSupplyInstance::getDistance).collect(Collectors.toList()),
+               GeoAlgorithms.getClosest(arrayStore, earthRadius, q, 10).stream()
+                     .map(NearestSupplyInstance::getDistance).collect(Collectors.toList()));
+         assertEquals(
+               GeoAlgorithms.getClosest(mapStore, earthRadius, q, 10).stream()
+                     .map(NearestSupplyInstance::getDistance).collect(Collectors.toList()),
+               GeoAlgorithms.getClosest(arrayStore, earthRadius, q, 10, Math.PI * earthRadius,
+                     SupplyFilter.ANY, SearchObserver.NONE, parallel).stream()
+                     .map(NearestSupplyInstance::getDistance).collect(Collectors.toList()));
+      }
+   }
+
+   @Test
+   void filteredScansMatchBruteForce() {
+      Random rnd = new Random(11);
+      GeoGrid grid = new GeoGrid(0.2);
+      VehicleClass[] classes = {VehicleClass.ECONOMY, VehicleClass.COMFORT, VehicleClass.XL};
+
+      for (SupplyStore store : new SupplyStore[]{new MapSupplyStore(grid), new ArraySupplyStore(grid, 16)}) {
+         // position only updates keep the attributes, removed instances come back without any
+         Map<String, Integer> attributes = new HashMap<>();
+         for (int i = 0; i < 20000; ++i) {
+            String id = "driver-" + rnd.nextInt(2000);
+            GeoPoint p = randomPoint(rnd, 50d, 30d, 2d);
+            if (rnd.nextInt(20) == 0) {
+               store.remove(id);
+               attributes.remove(id);
+            } else if (rnd.nextBoolean()) {
+               store.update(id, p.getLatitude(), p.getLongitude());
+               attributes.putIfAbsent(id, SupplyAttributes.NONE);
+            } else {
+               int packed = SupplyAttributes.pack(classes[rnd.nextInt(classes.length)],
+                     rnd.nextInt(4) == 0 ? Status.AVAILABLE.bit() : 0, rnd.nextInt(8));
+               store.update(id, p.getLatitude(), p.getLongitude(), packed);
+               attributes.put(id, packed);
+            }
+         }
+
+         SupplyFilter[] filters = {
+               SupplyFilter.of(List.of(VehicleClass.XL), List.of(Status.AVAILABLE), 0),
+               SupplyFilter.of(List.of(VehicleClass.ECONOMY, VehicleClass.COMFORT), null, 6),
+               SupplyFilter.of(null, List.of(Status.AVAILABLE), 7)
+         };
+         ParallelScan parallel = ParallelScan.create(3, 50);
+         for (int i = 0; i < 20; ++i) {
+            GeoPoint q = randomPoint(rnd, 50d, 30d, 2d);
+            List<SupplyInstance> all = GeoAlgorithms.findPlacesWithinDistance(store, earthRadius, q, 100d);
+            for (SupplyFilter filter : filters) {
+               List<SupplyInstance> matching = all.stream().filter(ins -> filter.test(attributes.get(ins.getId())))
+                     .collect(Collectors.toList());
+               assertEquals(ids(matching), ids(GeoAlgorithms.findPlacesWithinDistance(
+                     store, earthRadius, q, 100d, filter, SearchObserver.NONE, parallel)));
+
+               List<Double> expected = matching.stream().map(ins -> ins.getLocation().distanceTo(q, earthRadius))
+                     .sorted().limit(5).collect(Collectors.toList());
+               List<NearestSupplyInstance> closest = GeoAlgorithms.getClosest(
+                     store, earthRadius, q, 5, 100d, filter, SearchObserver.NONE, parallel);
+               assertEquals(expected.size(), closest.size());
+               for (int j = 0; j < closest.size(); ++j) assertEquals(expected.get(j), closest.get(j).getDistance(), 1e-6);
+            }
+         }
+
+         // no cell holds a moto, so none is even visited
+         int[] examined = {0};
+         GeoAlgorithms.findPlacesWithinDistance(store, earthRadius, GeoPoint.fromDegrees(50d, 30d), 300d,
+               SupplyFilter.of(List.of(VehicleClass.MOTO), null, 0),
+               (kind, count, doublings) -> examined[0] += count, ParallelScan.SEQUENTIAL);
+         assertEquals(0, examined[0]);
+      }
+   }
+
+   @Test
+   void arrayStoreReusesFreedSlots() {
+      ArraySupplyStore store = new ArraySupplyStore(new GeoGrid(0.1), 4);
+      Random rnd = new Random(5);
+
+      store.update(new SupplyInstance("a", randomPoint(rnd, 0d, 0d, 1d)));
+      store.update(new SupplyInstance("b", randomPoint(rnd, 0d, 0d, 1d)));
+      assertTrue(store.remove("a"));
+      assertFalse(store.remove("a"));
+      store.update(new SupplyInstance("c", randomPoint(rnd, 0d, 0d, 1d)));
+
+      assertEquals(2, store.size());
+      assertNull(store.getLocation("a"));
+      assertNotNull(store.getLocation("b"));
+      assertNotNull(store.getLocation("c"));
+   }
+
+   @Test
+   void arrayStoreWritersProceedBetweenCells() {
+      GeoGrid grid = new GeoGrid(0.1);
+      ArraySupplyStore store = new ArraySupplyStore(grid, 4);
+      Random rnd = new Random(9);
+      for (int i = 0; i < 100; ++i) store.update(new SupplyInstance("driver-" + i, randomPoint(rnd, 0d, 0d, 1d)));
+
+      // the writer queued during the first cell gets the lock before the scan moves on to the next one
+      Thread writer = new Thread(() -> store.update("late", 0d, 0d));
+      int[] firstCell = {Integer.MIN_VALUE};
+      assertTimeoutPreemptively(Duration.ofSeconds(10), () -> store.forEachInBox(
+            GeoPoint.fromDegrees(-1, -1), GeoPoint.fromDegrees(1, 1), cell -> true, SupplyFilter.ANY,
+            (id, lat, lon, x, y, z, attributes) -> {
+               int cellId = grid.cellOf(lat, lon);
+               if (firstCell[0] == Integer.MIN_VALUE) {
+                  firstCell[0] = cellId;
+                  writer.start();
+                  while (writer.getState() != Thread.State.WAITING) Thread.onSpinWait();
+               } else if (cellId != firstCell[0]) {
+                  while (writer.isAlive()) Thread.onSpinWait();
+               }
+            }));
+      assertNotNull(store.getLocation("late"));
+   }
+
+   @Test
+   void storesExpireInstancesNotUpdatedWithinTtl() {
+      AtomicLong clock = new AtomicLong(1_000_000);
+      GeoGrid grid = new GeoGrid(0.1);
+      SupplyStore[] stores = {
+            new MapSupplyStore(grid, 10_000, clock::get),
+            new ArraySupplyStore(grid, 4, 10_000, clock::get)
+      };
+      Random rnd = new Random(9);
+
+      for (SupplyStore store : stores) {
+         clock.set(1_000_000);
+         store.update(new SupplyInstance("stale", randomPoint(rnd, 0d, 0d, 1d)));
+         store.update(new SupplyInstance("active", randomPoint(rnd, 0d, 0d, 1d)));
+
+         // the active one keeps reporting, which moves its deadline past the first one
+         for (int t = 1; t <= 9; ++t) {
+            clock.addAndGet(1_000);
+            store.update(new SupplyInstance("active", randomPoint(rnd, 0d, 0d, 1d)));
+            assertEquals(0, store.expire());
+         }
+         clock.addAndGet(1_000);
+         assertEquals(1, store.expire());
+         assertNull(store.getLocation("stale"));
+         assertNotNull(store.getLocation("active"));
+         assertTrue(GeoAlgorithms.findPlacesWithinDistance(store, earthRadius, GeoPoint.fromRadians(0, 0), 200d)
+               .stream().noneMatch(ins -> ins.getId().equals("stale")));
+
+         // the deadline is rounded up to the wheel tick
+         clock.addAndGet(10_000);
+         assertEquals(1, store.expire());
+         assertEquals(0, store.size());
+      }
+   }
+
+   @Test
+   void expirySchedulesIdsAddedAgainOnce() {
+      AtomicLong clock = new AtomicLong(1_000_000);
+      SupplyExpiry expiry = new SupplyExpiry(10_000, clock::get);
+      for (int i = 0; i < 5; ++i) {
+         expiry.track("a", clock.get());
+         expiry.untrack("a");
+         clock.addAndGet(100);
+      }
+      expiry.track("a", clock.get());
+      clock.addAndGet(20_000);
+      assertEquals(List.of("a"), expiry.due(clock.get()));
+
+      // removed after it came due
+      expiry.track("b", clock.get());
+      clock.addAndGet(20_000);
+      List<String> due = expiry.due(clock.get());
+      expiry.untrack("b");
+      assertTrue(expiry.skip(due.get(0)));
+      expiry.track("b", clock.get());
+      clock.addAndGet(20_000);
+      assertEquals(List.of("b"), expiry.due(clock.get()));
+   }
+
+   @Test
+   void storesDropStaleAndAbsorbStationaryUpdates() {
+      AtomicLong clock = new AtomicLong(1_000_000);
+      GeoGrid grid = new GeoGrid(0.1);
+      UpdatePolicy policy = new UpdatePolicy(10);
+      SupplyStore[] stores = {
+            new MapSupplyStore(grid, 10_000, clock::get, policy),
+            new ArraySupplyStore(grid, 4, 10_000, clock::get, policy)
+      };
+      // moves of a few meters north of a point inside a cell
+      final double lat = Math.toRadians(50.05), lon = Math.toRadians(30.05), meter = 1 / 6371010d;
+
+      for (SupplyStore store : stores) {
+         CellVersions versions = new CellVersions(new GeoGrid(0.05), 64);
+         store.setCellVersions(versions);
+         clock.set(1_000_000);
+         assertEquals(SupplyStore.Outcome.APPLIED, store.update("a", lat, lon, SupplyAttributes.UNCHANGED, 100));
+         final long version = versions.current();
+
+         assertEquals(SupplyStore.Outcome.STALE, store.update("a", lat + 50 * meter, lon, SupplyAttributes.UNCHANGED, 99));
+         clock.addAndGet(9_000);
+         assertEquals(SupplyStore.Outcome.ABSORBED, store.update("a", lat + 5.6 * meter, lon, SupplyAttributes.UNCHANGED, 101));
+         assertEquals(version, versions.current());
+         assertEquals(Math.toDegrees(lat), store.getLocation("a").getLatitudeDegrees(), 1e-12);
+         // absorbed updates keep the timestamp and the instance alive
+         assertEquals(SupplyStore.Outcome.STALE, store.update("a", lat + 50 * meter, lon, SupplyAttributes.UNCHANGED, 100));
+         clock.addAndGet(9_000);
+         assertEquals(0, store.expire());
+
+         // a changed attribute is never absorbed, neither is a position without a timestamp
+         int xl = SupplyAttributes.pack(VehicleClass.XL, 0, 6);
+         assertEquals(SupplyStore.Outcome.APPLIED, store.update("a", lat, lon, xl, 102));
+         assertEquals(SupplyStore.Outcome.APPLIED, store.update("a", lat + 11 * meter, lon, SupplyAttributes.UNCHANGED,
+               UpdatePolicy.NO_TIMESTAMP));
+         assertNotEquals(version, versions.current());
+         assertEquals(Math.toDegrees(lat + 11 * meter), store.getLocation("a").getLatitudeDegrees(), 1e-9);
+         assertEquals(SupplyStore.Outcome.STALE, store.update("a", lat, lon, SupplyAttributes.UNCHANGED, 101));
+      }
+   }
+
+   @Test
+   void batchDropsOutOfOrderUpdates() {
+      SupplyBatch batch = new SupplyBatch(4);
+      batch.put("a", 0.1, 0.1, SupplyAttributes.UNCHANGED, 200);
+      batch.put("a", 0.2, 0.2, SupplyAttributes.UNCHANGED, 100);
+      batch.put("a", 0.3, 0.3, SupplyAttributes.UNCHANGED, UpdatePolicy.NO_TIMESTAMP);
+
+      assertEquals(1, batch.size());
+      assertEquals(1, batch.getStale());
+      assertEquals(1, batch.getCoalesced());
+      assertEquals(0.3, batch.getLatitude(0));
+      assertEquals(200, batch.getTimestamp(0));
+
+      SupplyStore store = new ArraySupplyStore(new GeoGrid(0.1), 4);
+      store.update("a", 0.4, 0.4, SupplyAttributes.UNCHANGED, 300);
+      store.updateAll(batch);
+      assertEquals(SupplyStore.Outcome.STALE, batch.getOutcome(0));
+      assertEquals(0.4, store.getLocation("a").getLatitude());
+   }
+
+   @Test
+   void epochStorePublishesConsistentSnapshots() {
+      Random rnd = new Random(13);
+      GeoGrid grid = new GeoGrid(0.2);
+      SupplyStore arrayStore = new ArraySupplyStore(grid, 16);
+      EpochSupplyStore epochStore = new EpochSupplyStore(grid, 16, 0, System::currentTimeMillis,
+            UpdatePolicy.NONE, 0, 5000, null);
+      CellVersions versions = new CellVersions(new GeoGrid(0.05), 1024);
+      epochStore.setCellVersions(versions);
+      final GeoPoint center = GeoPoint.fromDegrees(50d, 30d);
+
+      for (int round = 0; round < 5; ++round) {
+         for (int i = 0; i < 3000; ++i) {
+            String id = "driver-" + rnd.nextInt(1000);
+            if (rnd.nextInt(10) == 0) {
+               assertEquals(arrayStore.remove(id), epochStore.remove(id));
+            } else {
+               GeoPoint p = randomPoint(rnd, 50d, 30d, 3d);
+               arrayStore.update(new SupplyInstance(id, p));
+               epochStore.update(new SupplyInstance(id, p));
+            }
+         }
+         // the updates past the last publish stay invisible to the scans and the cache
+         int visible = epochStore.size();
+         long version = versions.current();
+         epochStore.update("late", center.getLatitude(), center.getLongitude());
+         assertEquals(visible, epochStore.size());
+         assertEquals(version, versions.current());
+         assertTrue(GeoAlgorithms.findPlacesWithinDistance(epochStore, earthRadius, center, 1d)
+               .stream().noneMatch(ins -> ins.getId().equals("late")));
+         assertNotNull(epochStore.getLocation("late"));
+         assertTrue(epochStore.remove("late"));
+
+         epochStore.publish();
+         assertNotEquals(version, versions.current());
+         assertEquals(arrayStore.size(), epochStore.size());
+         for (int i = 0; i < 10; ++i) {
+            GeoPoint q = randomPoint(rnd, 50d, 30d, 4d);
+            assertEquals(
+                  ids(GeoAlgorithms.findPlacesWithinDistance(arrayStore, earthRadius, q, 30d)),
+                  ids(GeoAlgorithms.findPlacesWithinDistance(epochStore, earthRadius, q, 30d)));
+            assertEquals(
+                  GeoAlgorithms.getClosest(arrayStore, earthRadius, q, 10).stream()
+                        .map(NearestSupplyInstance::getDistance).collect(Collectors.toList()),
+                  GeoAlgorithms.getClosest(epochStore, earthRadius, q, 10).stream()
+                        .map(NearestSupplyInstance::getDistance).collect(Collectors.toList()));
+         }
+      }
+   }
+
+   @Test
+   void storesKeepDensityCounts() {
+      AtomicLong clock = new AtomicLong(1_000_000);
+      GeoGrid grid = new GeoGrid(0.2);
+      GeoGrid densityGrid = new GeoGrid(0.05);
+      SupplyStore[] stores = {
+            new MapSupplyStore(grid, 10_000, clock::get),
+            new ArraySupplyStore(grid, 16, 10_000, clock::get)
+      };
+      Random rnd = new Random(21);
+
+      for (SupplyStore store : stores) {
+         SupplyDensity density = new SupplyDensity(densityGrid, 4);
+         store.setDensity(density);
+         clock.set(1_000_000);
+         Set<String> ids = new HashSet<>();
+         for (int i = 0; i < 20000; ++i) {
+            String id = "driver-" + rnd.nextInt(2000);
+            if (rnd.nextInt(10) == 0) {
+               store.remove(id);
+               ids.remove(id);
+            } else {
+               store.update(new SupplyInstance(id, randomPoint(rnd, 50d, 30d, 2d)));
+               ids.add(id);
+            }
+            if (i == 10000) clock.addAndGet(9_000);
+         }
+         // the ones not updated since the first half expire
+         clock.addAndGet(2_000);
+         store.expire();
+         ids.removeIf(id -> store.getLocation(id) == null);
+         assertEquals(store.size(), ids.size());
+
+         GeoPoint min = GeoPoint.fromDegrees(49.5, 29.2), max = GeoPoint.fromDegrees(50.7, 30.4);
+         for (int level = 0; level < density.getLevels(); ++level) {
+            // the cells of a level are 2^level base cells wide
+            final int shift = level;
+            Map<Integer, Integer> expected = new HashMap<>();
+            for (String id : ids) {
+               GeoPoint p = store.getLocation(id);
+               int row = densityGrid.rowOf(p.getLatitude()) >> shift, col = densityGrid.colOf(p.getLongitude()) >> shift;
+               if (row >= densityGrid.rowOf(min.getLatitude()) >> shift && row <= densityGrid.rowOf(max.getLatitude()) >> shift &&
+                     col >= densityGrid.colOf(min.getLongitude()) >> shift && col <= densityGrid.colOf(max.getLongitude()) >> shift)
+                  expected.merge(row * 100_000 + col, 1, Integer::sum);
+            }
+
+            Map<Integer, Integer> actual = new HashMap<>();
+            for (DensityCell cell : density.counts(min, max, level)) {
+               int row = densityGrid.rowOf(cell.getLocation().getLatitude()) >> shift;
+               int col = densityGrid.colOf(cell.getLocation().getLongitude()) >> shift;
+               assertNull(actual.put(row * 100_000 + col, cell.getCount()));
+            }
+            assertEquals(expected, actual);
+         }
+      }
+   }
+}
@@ -0,0 +1,48 @@
+package uber.location_service.structures;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SupplyPositionsTests {
+   private final ObjectMapper mapper = new ObjectMapper();
+
+   private static SupplyPositions<NearestSupplyInstance> nearest() {
+      return SupplyPositions.nearest(new String[]{"a", "b", "unused"},
+            new double[]{Math.toRadians(50), Math.toRadians(-12.5), 0},
+            new double[]{Math.toRadians(10), Math.toRadians(179.9), 0},
+            new double[]{0.25, 1234.5, 0}, 2);
+   }
+
+   @Test
+   void writesTheSameJsonAsTheInstances() throws Exception {
+      SupplyPositions<NearestSupplyInstance> positions = nearest();
+      assertEquals(2, positions.size());
+      assertEquals(mapper.writeValueAsString(new ArrayList<>(positions)), mapper.writeValueAsString(positions));
+
+      SupplyPositions<SupplyInstance> within = SupplyPositions.of(
+            new String[]{"c"}, new double[]{Math.toRadians(1)}, new double[]{Math.toRadians(2)}, 1);
+      assertEquals("[{\"id\":\"c\",\"location\":{\"latitude\":1.0,\"longitude\":2.0}}]",
+            mapper.writeValueAsString(within));
+      // inside another structure, as the batch results are
+      assertEquals("[[],[{\"id\":\"c\",\"location\":{\"latitude\":1.0,\"longitude\":2.0}}]]",
+            mapper.writeValueAsString(List.of(SupplyPositions.of(new String[0], new double[0], new double[0], 0), within)));
+   }
+
+   @Test
+   void readsBackWithTheLocationsInRadians() throws Exception {
+      NearestSupplyInstance[] read = mapper.readValue(mapper.writeValueAsString(nearest()), NearestSupplyInstance[].class);
+
+      assertEquals(2, read.length);
+      assertEquals("b", read[1].getId());
+      assertEquals(1234.5, read[1].getDistance());
+      assertEquals(Math.toRadians(-12.5), read[1].getLocation().getLatitude(), 1e-15);
+      assertEquals(Math.toRadians(179.9), read[1].getLocation().getLongitude(), 1e-15);
+      assertEquals(nearest().get(0).getId(), Arrays.asList(read).get(0).getId());
+   }
+}
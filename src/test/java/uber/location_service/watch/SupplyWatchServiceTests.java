@@ -0,0 +1,108 @@
+package uber.location_service.watch;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import uber.location_service.configuration.SupplyLocationProperties;
+import uber.location_service.services.SupplyLocationImpl;
+import uber.location_service.storage.SupplyBatch;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyDelta;
+import uber.location_service.structures.SupplyInstance;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SupplyWatchServiceTests {
+   private static SupplyLocationImpl newImpl(String store) {
+      SupplyLocationProperties properties = new SupplyLocationProperties();
+      properties.setStore(store);
+      return new SupplyLocationImpl(properties);
+   }
+
+   private static List<String> ids(List<SupplyInstance> list) {
+      return list.stream().map(SupplyInstance::getId).sorted().collect(Collectors.toList());
+   }
+
+   private static void update(SupplyLocationImpl impl, String id, double lat, double lon) {
+      impl.updateSupply(id, Math.toRadians(lat), Math.toRadians(lon));
+   }
+
+   private static SupplyDelta next(SupplyWatchService service, List<SupplyDelta> received) {
+      int before = received.size();
+      service.flush();
+      return received.size() == before ? null : received.get(received.size() - 1);
+   }
+
+   @Test
+   void pushesCoalescedDeltasOfTheWatchedCircle() {
+      SupplyLocationImpl impl = newImpl("array");
+      SupplyWatchService service = new SupplyWatchService(impl, new SimpleMeterRegistry(), 0.5, 50, 10, 3_600_000);
+      try {
+         update(impl, "a", 50.00, 10.00);
+         update(impl, "far", 50.50, 10.00);
+
+         List<SupplyDelta> received = new ArrayList<>();
+         service.subscribe(GeoPoint.fromRadians(Math.toRadians(50), Math.toRadians(10)), 5, received::add);
+         assertEquals(1, received.size());
+         SupplyDelta delta = received.get(0);
+         assertEquals(List.of("a"), ids(delta.getEntered()));
+         assertEquals(50d, delta.getEntered().get(0).getLocation().getLatitudeDegrees(), 1e-9);
+
+         update(impl, "a", 50.01, 10.01);
+         update(impl, "b", 50.02, 9.99);
+         update(impl, "far", 50.40, 10.00);
+         delta = next(service, received);
+         assertEquals(List.of("b"), ids(delta.getEntered()));
+         assertEquals(List.of("a"), ids(delta.getMoved()));
+         assertTrue(delta.getLeft().isEmpty());
+
+         // out and back within one push is a move, in and out is nothing
+         update(impl, "a", 51.00, 10.00);
+         update(impl, "a", 50.00, 10.02);
+         update(impl, "c", 50.00, 10.00);
+         update(impl, "c", 40.00, 10.00);
+         update(impl, "b", 50.02, 9.99);
+         delta = next(service, received);
+         assertEquals(List.of("a"), ids(delta.getMoved()));
+         assertTrue(delta.getEntered().isEmpty());
+         assertTrue(delta.getLeft().isEmpty());
+
+         SupplyBatch batch = new SupplyBatch(4);
+         batch.put("a", Math.toRadians(-10), Math.toRadians(10));
+         batch.put("d", Math.toRadians(50.01), Math.toRadians(10));
+         impl.updateSupplyBatch(batch);
+         service.removed("b");
+         delta = next(service, received);
+         assertEquals(List.of("d"), ids(delta.getEntered()));
+         assertEquals(List.of("a", "b"), delta.getLeft().stream().sorted().collect(Collectors.toList()));
+
+         assertNull(next(service, received));
+      } finally {
+         service.shutdown();
+      }
+   }
+
+   @Test
+   void dropsSubscriptionsOfGoneClients() {
+      SupplyLocationImpl impl = newImpl("map");
+      SupplyWatchService service = new SupplyWatchService(impl, new SimpleMeterRegistry(), 0.5, 50, 10, 3_600_000);
+      try {
+         service.subscribe(GeoPoint.fromRadians(0, 0), 10, delta -> {
+            throw new IOException("Broken pipe");
+         });
+         assertEquals(1, service.getSubscriptionCount());
+         assertThrows(IllegalArgumentException.class,
+               () -> service.subscribe(GeoPoint.fromRadians(0, 0), 100, delta -> {}));
+
+         update(impl, "a", 0, 0);
+         service.flush();
+         assertEquals(0, service.getSubscriptionCount());
+      } finally {
+         service.shutdown();
+      }
+   }
+}
@@ -0,0 +1,74 @@
+package uber.location_service.zones;
+
+import org.junit.jupiter.api.Test;
+import uber.location_service.algo.GeoGrid;
+import uber.location_service.storage.ArraySupplyStore;
+import uber.location_service.storage.MapSupplyStore;
+import uber.location_service.storage.SupplyStore;
+import uber.location_service.structures.GeoPoint;
+import uber.location_service.structures.SupplyAttributes;
+import uber.location_service.structures.SupplyAttributes.VehicleClass;
+import uber.location_service.structures.SupplyFilter;
+import uber.location_service.structures.SupplyInstance;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SupplyZoneTests {
+   // a concave, L-shaped zone of about 1.2 x 1 degrees
+   private static final List<GeoPoint> zoneVertices = List.of(
+         GeoPoint.fromDegrees(50.03, 30.01), GeoPoint.fromDegrees(50.03, 31.23),
+         GeoPoint.fromDegrees(50.47, 31.17), GeoPoint.fromDegrees(50.51, 30.62),
+         GeoPoint.fromDegrees(51.02, 30.58), GeoPoint.fromDegrees(50.97, 30.04));
+
+   @Test
+   void zoneQueriesMatchPointInPolygon() {
+      Random rnd = new Random(17);
+      GeoGrid grid = new GeoGrid(0.1);
+      SupplyZone zone = SupplyZone.of("airport", zoneVertices, grid, 10_000);
+      assertTrue(zone.getInteriorCellCount() > zone.getBoundaryCellCount());
+      assertThrows(IllegalArgumentException.class, () -> SupplyZone.of("huge", zoneVertices, grid, 50));
+
+      SupplyFilter xl = SupplyFilter.of(List.of(VehicleClass.XL), null, 0);
+      for (SupplyStore store : new SupplyStore[]{new MapSupplyStore(grid), new ArraySupplyStore(grid, 16)}) {
+         Set<String> inside = new HashSet<>(), insideXl = new HashSet<>();
+         for (int i = 0; i < 20000; ++i) {
+            String id = "driver-" + i;
+            double lat = Math.toRadians(49.8 + rnd.nextDouble() * 1.4);
+            double lon = Math.toRadians(29.8 + rnd.nextDouble() * 1.6);
+            boolean isXl = rnd.nextInt(4) == 0;
+            store.update(id, lat, lon, SupplyAttributes.pack(isXl ? VehicleClass.XL : VehicleClass.ECONOMY, 0, 4));
+            if (zone.contains(lat, lon)) {
+               inside.add(id);
+               if (isXl) insideXl.add(id);
+            }
+         }
+
+         assertEquals(inside.size(), zone.count(store, SupplyFilter.ANY));
+         assertEquals(inside, ids(zone.find(store, SupplyFilter.ANY)));
+         assertEquals(insideXl.size(), zone.count(store, xl));
+         assertEquals(insideXl, ids(zone.find(store, xl)));
+      }
+   }
+
+   @Test
+   void containsFollowsTheEdges() {
+      SupplyZone zone = SupplyZone.of("airport", zoneVertices, new GeoGrid(0.1), 10_000);
+      // the notch of the L is outside
+      assertTrue(zone.contains(Math.toRadians(50.2), Math.toRadians(31.0)));
+      assertFalse(zone.contains(Math.toRadians(50.8), Math.toRadians(31.0)));
+      assertTrue(zone.contains(Math.toRadians(50.8), Math.toRadians(30.3)));
+      assertThrows(IllegalArgumentException.class, () -> SupplyZone.of("wide", List.of(
+            GeoPoint.fromDegrees(0, -170), GeoPoint.fromDegrees(0, 170), GeoPoint.fromDegrees(5, 170)),
+            new GeoGrid(0.1), 10_000_000));
+   }
+
+   private static Set<String> ids(List<SupplyInstance> list) {
+      return list.stream().map(SupplyInstance::getId).collect(Collectors.toSet());
+   }
+}
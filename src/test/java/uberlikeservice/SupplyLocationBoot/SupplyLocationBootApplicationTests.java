@@ -2,8 +2,9 @@ package uberlikeservice.SupplyLocationBoot;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import uber.location_service.SupplyLocationBootApplication;
 
-@SpringBootTest
+@SpringBootTest(classes = SupplyLocationBootApplication.class)
 class SupplyLocationBootApplicationTests {
 
 	@Test